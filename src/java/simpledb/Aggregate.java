@@ -13,6 +13,8 @@ public class Aggregate extends Operator {
     private final int afield, gfield;
     private final Aggregator.Op aop;
     private DbIterator child;
+    /** The output schema, computed on first use */
+    private transient TupleDesc td;
     private final Aggregator aggregator;
     private DbIterator it;
 
@@ -142,11 +144,14 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
+        if (td != null)
+            return td;
         Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
         Type afieldType = child.getTupleDesc().getFieldType(afield);
-	    return gfield == Aggregator.NO_GROUPING ?
+	    td = gfield == Aggregator.NO_GROUPING ?
                 new TupleDesc(new Type[]{afieldType}, new String[]{nameOfAggregatorOp(aop) + " (" + aggregateFieldName() + ")"}) :
                 new TupleDesc(new Type[]{gfieldType, afieldType}, new String[]{nameOfAggregatorOp(aop) + " (" + aggregateFieldName() + ")"});
+        return td;
     }
 
     public void close() {
@@ -166,6 +171,7 @@ public class Aggregate extends Operator {
     public void setChildren(DbIterator[] children) {
 	// some code goes here
         this.child = children[0];
+        this.td = null;
     }
     
 }
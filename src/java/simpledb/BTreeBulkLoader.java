@@ -0,0 +1,450 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeBulkLoader builds the pages of a B+ tree bottom-up from a stream of
+ * tuples sorted on the key field, writing them to a file in the format of
+ * an uncompressed {@link BTreeFile}.  Leaf pages are filled to a fill factor
+ * and written as soon as they are complete, so only two leaves of tuples and
+ * one entry per page are kept in memory.  Internal pages are built a level at
+ * a time once all the leaves are written, and the parent pointers of all
+ * pages are patched in place at the end.  Internal pages with compressed
+ * keys are filled by the space their entries take rather than by count.
+ * <p>
+ * It also sorts batches too large for memory, as sorted runs in temporary
+ * files merged by {@link #merge}.
+ *
+ * @see BTreeFile#bulkLoad
+ */
+class BTreeBulkLoader {
+
+	private final int tableid;
+	private final TupleDesc td;
+	private final int[] keyFields;
+	private final RandomAccessFile out;
+	private final int maxTuples, tuplesPerLeaf;
+	private final int maxEntries, entriesPerPage;
+	private final boolean compressedKeys;
+	private final int capacity, spacePerPage;
+
+	private int nextPageNo = 1;
+	private ArrayList<Tuple> pending = null;
+	private ArrayList<Tuple> current = new ArrayList<Tuple>();
+	private int prevLeaf = 0;
+	private Field prevLeafKey = null;
+	// the key separating each page from the one before, and its page number,
+	// for the level being built
+	private ArrayList<Field> levelKeys = new ArrayList<Field>();
+	private ArrayList<Integer> levelPages = new ArrayList<Integer>();
+
+	/**
+	 * @param tableid - the table id of the B+ tree, used for its page ids
+	 * @param td - the TupleDesc of its tuples
+	 * @param keyFields - the fields it is keyed on, most significant first
+	 * @param out - the file to write the B+ tree to; it is overwritten
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 */
+	BTreeBulkLoader(int tableid, TupleDesc td, int[] keyFields, RandomAccessFile out, double fillFactor) throws IOException {
+		this.tableid = tableid;
+		this.td = td;
+		this.keyFields = keyFields;
+		this.out = out;
+		BTreePageId leafId = new BTreePageId(tableid, 0, BTreePageId.LEAF);
+		BTreePageId internalId = new BTreePageId(tableid, 0, BTreePageId.INTERNAL);
+		this.maxTuples = new BTreeLeafPage(leafId, BTreePage.createEmptyPageData(), keyFields).getMaxTuples();
+		BTreeInternalPage internal = new BTreeInternalPage(internalId, BTreePage.createEmptyPageData(), keyFields);
+		this.maxEntries = internal.getMaxEntries();
+		this.compressedKeys = internal.hasCompressedKeys();
+		this.capacity = internal.getCapacity();
+		this.tuplesPerLeaf = Math.max(1, Math.max((maxTuples + 1) / 2, (int) (maxTuples * fillFactor)));
+		this.entriesPerPage = Math.max(2, Math.max((maxEntries + 1) / 2, (int) (maxEntries * fillFactor)));
+		this.spacePerPage = Math.max((capacity + 1) / 2, (int) (capacity * fillFactor));
+		out.setLength(0);
+	}
+
+	/**
+	 * Add the next tuple; tuples must be added in key order.
+	 */
+	void add(Tuple t) throws IOException, DbException {
+		if (current.size() == tuplesPerLeaf) {
+			if (pending != null)
+				writeLeaf(pending, false);
+			pending = current;
+			current = new ArrayList<Tuple>(tuplesPerLeaf);
+		}
+		current.add(t);
+	}
+
+	/**
+	 * Write the remaining leaves and the internal pages and root pointer
+	 * above them.
+	 */
+	void finish() throws IOException, DbException {
+		// keep the last leaf at least half full, by merging it into the one
+		// before if they fit in a page and evening them out otherwise
+		if (pending != null && current.size() < maxTuples / 2) {
+			int total = pending.size() + current.size();
+			if (total <= maxTuples) {
+				pending.addAll(current);
+				current = pending;
+				pending = null;
+			}
+			else {
+				ArrayList<Tuple> last = new ArrayList<Tuple>(pending.subList(total / 2, pending.size()));
+				last.addAll(current);
+				pending = new ArrayList<Tuple>(pending.subList(0, total / 2));
+				current = last;
+			}
+		}
+		if (pending != null)
+			writeLeaf(pending, false);
+		writeLeaf(current, true);
+
+		// build the internal levels until one page is left
+		int rootCategory = BTreePageId.LEAF;
+		Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+		while (levelPages.size() > 1) {
+			ArrayList<Field> keys = levelKeys;
+			ArrayList<Integer> pages = levelPages;
+			levelKeys = new ArrayList<Field>();
+			levelPages = new ArrayList<Integer>();
+			int childCategory = rootCategory;
+			List<int[]> groups = compressedKeys ? spaceGroups(keys)
+					: groups(pages.size(), entriesPerPage + 1, maxEntries + 1, maxEntries / 2 + 1);
+			for (int[] group : groups) {
+				int pageNo = nextPageNo++;
+				BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(tableid, pageNo, BTreePageId.INTERNAL),
+						BTreePage.createEmptyPageData(), keyFields);
+				for (int i = group[0] + 1; i < group[1]; i++) {
+					page.insertEntry(new BTreeEntry(keys.get(i),
+							new BTreePageId(tableid, pages.get(i - 1), childCategory),
+							new BTreePageId(tableid, pages.get(i), childCategory)));
+				}
+				for (int i = group[0]; i < group[1]; i++)
+					parents.put(pages.get(i), pageNo);
+				writePage(page);
+				levelKeys.add(keys.get(group[0]));
+				levelPages.add(pageNo);
+			}
+			rootCategory = BTreePageId.INTERNAL;
+		}
+
+		for (Map.Entry<Integer, Integer> e : parents.entrySet()) {
+			out.seek(offset(e.getKey()));
+			out.writeInt(e.getValue());
+		}
+		out.seek(0);
+		out.write(BTreeFileEncoder.convertToRootPtrPage(levelPages.get(0), rootCategory, 0));
+		out.write(new byte[BTreeRootPtrPage.getPageSize() - (int) out.getFilePointer()]);
+	}
+
+	/**
+	 * Split n children into groups of size children, as the children of
+	 * the internal pages of a level.  If the last group would have fewer
+	 * than min children, it is merged into the one before if they fit in
+	 * capacity children, and the two are evened out otherwise.
+	 * @return the start (inclusive) and end (exclusive) of each group
+	 */
+	private static List<int[]> groups(int n, int size, int capacity, int min) {
+		List<int[]> groups = new ArrayList<int[]>();
+		int start = 0;
+		while (n - start > size) {
+			int rest = n - start - size;
+			if (rest < min) {
+				if (n - start > capacity) {
+					int half = (n - start) / 2;
+					groups.add(new int[] { start, start + half });
+					start += half;
+				}
+				break;
+			}
+			groups.add(new int[] { start, start + size });
+			start += size;
+		}
+		groups.add(new int[] { start, n });
+		return groups;
+	}
+
+	/**
+	 * Split the children of a level into groups, as the children of internal
+	 * pages with compressed keys, filling each page to spacePerPage bytes.
+	 * If the last page would be less than half full, it is merged into the
+	 * one before if they fit in a page, and the two are evened out otherwise.
+	 * @param keys - the key separating each child from the one before
+	 * @return the start (inclusive) and end (exclusive) of each group
+	 */
+	private List<int[]> spaceGroups(List<Field> keys) {
+		int n = keys.size();
+		List<int[]> groups = new ArrayList<int[]>();
+		int start = 0;
+		while (start < n) {
+			int end = start + 1;
+			while (end < n && (end == start + 1 || space(keys, start, end + 1) <= spacePerPage))
+				end++;
+			groups.add(new int[] { start, end });
+			start = end;
+		}
+		int last = groups.size() - 1;
+		if (last > 0 && 2 * space(keys, groups.get(last)[0], n) < capacity) {
+			int from = groups.get(last - 1)[0];
+			groups.remove(last);
+			groups.remove(last - 1);
+			int total = space(keys, from, n);
+			if (total <= capacity) {
+				groups.add(new int[] { from, n });
+			}
+			else {
+				int mid = from + 2;
+				while (mid < n - 2 && 2 * space(keys, from, mid) < total)
+					mid++;
+				groups.add(new int[] { from, mid });
+				groups.add(new int[] { mid, n });
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @return the bytes taken by the entries of an internal page with
+	 * compressed keys whose children are start (inclusive) to end (exclusive)
+	 */
+	private static int space(List<Field> keys, int start, int end) {
+		int space = BTreePage.INDEX_SIZE;
+		for (int i = start + 1; i < end; i++) {
+			String key = ((StringField) keys.get(i)).getValue();
+			space += BTreePage.INDEX_SIZE + 2 + key.length();
+			if (i > start + 1)
+				space -= BTreeInternalPage.sharedPrefix(((StringField) keys.get(i - 1)).getValue(), key);
+		}
+		return space;
+	}
+
+	private void writeLeaf(ArrayList<Tuple> tuples, boolean last) throws IOException, DbException {
+		int pageNo = nextPageNo++;
+		BTreeLeafPage page = new BTreeLeafPage(new BTreePageId(tableid, pageNo, BTreePageId.LEAF),
+				BTreePage.createEmptyPageData(), keyFields);
+		for (Tuple t : tuples)
+			page.insertTuple(t);
+		if (prevLeaf != 0)
+			page.setLeftSiblingId(new BTreePageId(tableid, prevLeaf, BTreePageId.LEAF));
+		if (!last)
+			page.setRightSiblingId(new BTreePageId(tableid, pageNo + 1, BTreePageId.LEAF));
+		writePage(page);
+		prevLeaf = pageNo;
+		Field key = tuples.isEmpty() ? null : BTreeFile.getKey(tuples.get(0), keyFields);
+		levelKeys.add(prevLeafKey == null ? key : BTreeFile.separatorKey(prevLeafKey, key));
+		levelPages.add(pageNo);
+		if (!tuples.isEmpty())
+			prevLeafKey = BTreeFile.getKey(tuples.get(tuples.size() - 1), keyFields);
+	}
+
+	private void writePage(BTreePage page) throws IOException {
+		out.seek(offset(page.getId().pageNumber()));
+		out.write(page.getPageData());
+	}
+
+	private static long offset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Split tuples into sorted runs of at most runTuples tuples, written to
+	 * temporary files in dir.  A batch that fits in a single run is sorted in
+	 * memory.  The files of the runs are deleted once they are read to the
+	 * end, and by {@link #closeRuns}; if this throws, they are deleted
+	 * already.
+	 *
+	 * @return an iterator over each run, in key order
+	 */
+	static List<Iterator<Tuple>> sortedRuns(DbFileIterator tuples, TupleDesc td, int[] keyFields, int runTuples,
+			File dir) throws IOException, DbException, TransactionAbortedException {
+		List<Iterator<Tuple>> runs = new ArrayList<Iterator<Tuple>>();
+		Comparator<Tuple> cmp = new BTreeFileEncoder.TupleComparator(keyFields);
+		ArrayList<Tuple> run = new ArrayList<Tuple>();
+		List<File> files = new ArrayList<File>();
+		boolean done = false;
+		try {
+			tuples.open();
+			try {
+				while (tuples.hasNext()) {
+					Tuple t = tuples.next();
+					if (!t.getTupleDesc().equals(td))
+						throw new DbException("type mismatch, in bulkLoad");
+					run.add(t);
+					if (run.size() == runTuples) {
+						Collections.sort(run, cmp);
+						files.add(writeRun(run, dir));
+						run.clear();
+					}
+				}
+			} finally {
+				tuples.close();
+			}
+			Collections.sort(run, cmp);
+			if (files.isEmpty()) {
+				runs.add(run.iterator());
+			} else {
+				if (!run.isEmpty())
+					files.add(writeRun(run, dir));
+				for (File f : files)
+					runs.add(new Run(f, td));
+			}
+			done = true;
+			return runs;
+		} finally {
+			if (!done) {
+				closeRuns(runs);
+				for (File f : files)
+					f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Close the runs among sources returned by {@link #sortedRuns} and delete
+	 * their files, whether or not they were read to the end.
+	 */
+	static void closeRuns(List<Iterator<Tuple>> sources) {
+		for (Iterator<Tuple> source : sources) {
+			if (source instanceof Run)
+				((Run) source).close();
+		}
+	}
+
+	private static File writeRun(List<Tuple> run, File dir) throws IOException {
+		File f = File.createTempFile("btreerun", ".dat", dir);
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+			for (Tuple t : run) {
+				for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+					t.getField(i).serialize(dos);
+			}
+		} catch (IOException e) {
+			f.delete();
+			throw e;
+		}
+		return f;
+	}
+
+	/** An iterator over the tuples of a run, deleting its file once read or closed */
+	private static class Run implements Iterator<Tuple> {
+		private final File f;
+		private final TupleDesc td;
+		private final DataInputStream dis;
+		private final long count;
+		private long read = 0;
+		private boolean closed = false;
+
+		Run(File f, TupleDesc td) throws IOException {
+			this.f = f;
+			this.td = td;
+			this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			this.count = f.length() / td.getSize();
+		}
+
+		public boolean hasNext() {
+			return read < count;
+		}
+
+		public Tuple next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = new Tuple(td);
+			try {
+				for (int i = 0; i < td.numFields(); i++)
+					t.setField(i, td.getFieldType(i).parse(dis));
+			} catch (java.text.ParseException e) {
+				throw new IllegalStateException("unreadable sort run " + f + ": " + e.getMessage());
+			}
+			if (++read == count)
+				close();
+			return t;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/** Close the file of this run and delete it */
+		void close() {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				dis.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			f.delete();
+		}
+	}
+
+	/**
+	 * @return an Iterator over the tuples of an open DbFileIterator
+	 */
+	static Iterator<Tuple> asIterator(final DbFileIterator it) {
+		return new Iterator<Tuple>() {
+			public boolean hasNext() {
+				try {
+					return it.hasNext();
+				} catch (DbException | TransactionAbortedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			public Tuple next() {
+				try {
+					return it.next();
+				} catch (DbException | TransactionAbortedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return an iterator over the tuples of several iterators sorted on
+	 *         keyFields, in key order; ties keep the order of the iterators
+	 */
+	static Iterator<Tuple> merge(final List<Iterator<Tuple>> sources, final int[] keyFields) {
+		final PriorityQueue<Object[]> heads = new PriorityQueue<Object[]>(Math.max(1, sources.size()),
+				new Comparator<Object[]>() {
+					public int compare(Object[] a, Object[] b) {
+						Field ka = BTreeFile.getKey((Tuple) a[0], keyFields), kb = BTreeFile.getKey((Tuple) b[0], keyFields);
+						if (ka.compare(Predicate.Op.LESS_THAN, kb))
+							return -1;
+						if (ka.compare(Predicate.Op.GREATER_THAN, kb))
+							return 1;
+						return Integer.compare((Integer) a[1], (Integer) b[1]);
+					}
+				});
+		for (int i = 0; i < sources.size(); i++) {
+			if (sources.get(i).hasNext())
+				heads.add(new Object[] { sources.get(i).next(), i });
+		}
+		return new Iterator<Tuple>() {
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			public Tuple next() {
+				Object[] head = heads.poll();
+				if (head == null)
+					throw new NoSuchElementException();
+				Iterator<Tuple> source = sources.get((Integer) head[1]);
+				if (source.hasNext())
+					heads.add(new Object[] { source.next(), head[1] });
+				return (Tuple) head[0];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -12,6 +15,22 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * A compressed BTreeFile stores its pages through a {@link CompressedPageStore},
+ * with the root pointer page as page 0.
+ * <p>
+ * Threads may insert and delete concurrently.  An insert or delete that
+ * fits in its leaf page descends holding the tree latch shared and changes
+ * the leaf holding its leaf latch, so such updates to different leaves run
+ * in parallel.  One that must split, merge or redistribute pages gives up
+ * and retries holding the tree latch exclusively.  Searches descend holding
+ * the tree latch shared, and read each leaf whole holding its leaf latch.
+ * If the structure of the tree has changed by the time a scan moves on to
+ * the next leaf, it searches for the last key it read instead of following
+ * the right sibling pointer of the leaf it has read.
+ * <p>
+ * Scans read ahead the leaf pages to the right of the one they are reading,
+ * which they find among the children of its parent, so the leaves are read
+ * from disk while the scan processes the tuples before them.
  *
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -25,6 +44,17 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final int[] keyFields;
+	private CompressedPageStore store;
+
+	// held shared to read the internal pages and root pointer, and
+	// exclusively to change them
+	private final ReentrantReadWriteLock treeLatch = new ReentrantReadWriteLock();
+	// held to change or read a leaf page while holding the tree latch shared
+	private final ConcurrentHashMap<Integer, ReentrantLock> leafLatches = new ConcurrentHashMap<Integer, ReentrantLock>();
+	// incremented, holding the tree latch exclusively, whenever tuples may
+	// move between pages or pages may be freed
+	private long structureVersion = 0;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -33,14 +63,87 @@ public class BTreeFile implements DbFile {
 	 *            file.
 	 * @param key - the field which index is keyed on
 	 * @param td - the tuple descriptor of tuples in the file
+	 * @throws IllegalArgumentException if td is variable-length or has
+	 *            dictionary-encoded fields; B+ tree pages only store
+	 *            fixed-length tuples they can decode on their own
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[] { key }, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, keyed on
+	 * several fields.  Its keys are {@link CompositeField}s of the values of
+	 * those fields, ordered lexicographically, so tuples with equal values
+	 * of the leading key fields are stored together, in the order of the
+	 * next one.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @throws IllegalArgumentException if td is variable-length or has
+	 *            dictionary-encoded fields, or keyFields is empty
+	 */
+	public BTreeFile(File f, int[] keyFields, TupleDesc td) {
+		if (keyFields.length == 0)
+			throw new IllegalArgumentException("B+ tree files need a key field");
+		if (td.isVariableLength())
+			throw new IllegalArgumentException("B+ tree files do not support variable-length tuples");
+		for (int i = 0; i < td.numFields(); i++) {
+			if (td.getFieldType(i) == Type.DICT_TYPE)
+				throw new IllegalArgumentException("B+ tree files do not support dictionary-encoded fields");
+		}
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyField = keyFields[0];
+		this.keyFields = keyFields.clone();
 		this.td = td;
 	}
 
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages may
+	 * be compressed.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compressed - true if f stores compressed pages, as written by
+	 *            {@link CompressedPageStore}
+	 * @throws IOException if the page map of a compressed file cannot be read
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compressed) throws IOException {
+		this(f, new int[] { key }, td, compressed);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields backed by the
+	 * specified file, whose pages may be compressed.
+	 *
+	 * @see #BTreeFile(File, int[], TupleDesc)
+	 * @see #BTreeFile(File, int, TupleDesc, boolean)
+	 */
+	public BTreeFile(File f, int[] keyFields, TupleDesc td, boolean compressed) throws IOException {
+		this(f, keyFields, td);
+		if (compressed)
+			this.store = new CompressedPageStore(f);
+	}
+
+	/**
+	 * @return true if this file stores compressed pages
+	 */
+	public boolean isCompressed() {
+		return store != null;
+	}
+
+	/**
+	 * @return true if nothing has been written to this file yet
+	 */
+	private boolean isEmpty() {
+		return store != null ? store.numPages() == 0 : f.length() == 0;
+	}
+
 	/**
 	 * Returns the File backing this BTreeFile on disk.
 	 */
@@ -48,6 +151,16 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	/**
+	 * Close the files this BTreeFile keeps open; they are reopened if the
+	 * file is used again.
+	 */
+	public void close() throws IOException {
+		CompressedPageStore s = store;
+		if (s != null)
+			s.close();
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -81,6 +194,18 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) pid;
 		BufferedInputStream bis = null;
 
+		if (store != null) {
+			try {
+				if (id.pgcateg() == BTreePageId.ROOT_PTR)
+					return new BTreeRootPtrPage(id, store.read(0, BTreeRootPtrPage.getPageSize()));
+				if (id.pageNumber() >= store.numPages())
+					throw new IllegalArgumentException("Read past end of table");
+				return createPage(id, store.read(id.pageNumber(), BufferPool.getPageSize()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
 		try {
 			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
@@ -113,18 +238,7 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return createPage(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -139,6 +253,31 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Construct a root pointer, internal, leaf or header page from its data
+	 * on disk
+	 *
+	 * @see DbFile#createPage
+	 */
+	public Page createPage(PageId pid, byte[] pageBuf) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		}
+		else if(id.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyFields);
+			return p;
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyFields);
+			return p;
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+			return p;
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should
 	 * be called from the BufferPool when pages are flushed to disk
@@ -149,6 +288,10 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 
 		byte[] data = page.getPageData();
+		if (store != null) {
+			store.write(id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.pageNumber(), data);
+			return;
+		}
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			rf.write(data);
@@ -165,17 +308,48 @@ public class BTreeFile implements DbFile {
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
+		if (store != null)
+			return Math.max(store.numPages() - 1, 0);
 		// we only ever write full pages
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on, or of
+	 * the first of them if it is keyed on several
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
+	/**
+	 * Returns the indexes of the fields that this B+ tree is keyed on, most
+	 * significant first
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of a tuple of this file: the value of its key field,
+	 * or a {@link CompositeField} of the values of its key fields
+	 */
+	public Field getKey(Tuple t) {
+		return getKey(t, keyFields);
+	}
+
+	/**
+	 * Returns the key of a tuple in a B+ tree keyed on the given fields
+	 */
+	static Field getKey(Tuple t, int[] keyFields) {
+		if (keyFields.length == 1)
+			return t.getField(keyFields[0]);
+		Field[] values = new Field[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++)
+			values[i] = t.getField(keyFields[i]);
+		return new CompositeField(values);
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -200,33 +374,195 @@ public class BTreeFile implements DbFile {
 			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
 		}
 		BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-		Iterator<BTreeEntry> iterator = p.iterator();
-		BTreeEntry e = null;
-		while (iterator.hasNext()) {
-			e = iterator.next();
-			if (f == null || e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
-			}
+		BTreePageId child = p.findChild(f);
+		if (child == null)
+			throw new DbException("internal page " + pid.pageNumber() + " has no entries");
+		return findLeafPage(tid, dirtypages, child, perm, f);
+	}
+
+	/**
+	 * The tuples of a leaf page, read whole while no writer could change
+	 * the page, and what a scan needs to move on to the next leaf.
+	 */
+	static class LeafSnapshot {
+		final BTreeLeafPage page;
+		final List<Tuple> tuples;
+		final BTreePageId rightSibling;
+		// the structure version of the tree when the page was read
+		final long version;
+		// true if the page was found by searching for the last key read
+		final boolean searched;
+
+		LeafSnapshot(BTreeLeafPage page, List<Tuple> tuples, long version, boolean searched) {
+			this.page = page;
+			this.tuples = tuples;
+			this.rightSibling = page.getRightSiblingId();
+			this.version = version;
+			this.searched = searched;
+		}
+	}
+
+	/**
+	 * Read a leaf page whole, holding its leaf latch.  The caller holds the
+	 * tree latch shared.
+	 */
+	private LeafSnapshot readLeaf(TransactionId tid, BTreePageId pid, boolean searched)
+			throws DbException, TransactionAbortedException {
+		ReentrantLock latch = leafLatch(pid);
+		latch.lock();
+		try {
+			BTreeLeafPage page = (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			ArrayList<Tuple> tuples = new ArrayList<Tuple>(page.getNumTuples());
+			page.iterator().forEachRemaining(tuples::add);
+			return new LeafSnapshot(page, tuples, structureVersion, searched);
+		} finally {
+			latch.unlock();
 		}
-		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * Read the left-most leaf page possibly containing a key, for a scan.
 	 *
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
-	 * @param perm - the permissions with which to lock the leaf page
-	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param key - the key to search for, or null for the left-most leaf
+	 */
+	LeafSnapshot firstLeaf(TransactionId tid, Field key)
+			throws DbException, TransactionAbortedException {
+		treeLatch.readLock().lock();
+		try {
+			return findAndReadLeaf(tid, key, false);
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Read the leaf page a scan reads after another.  If the structure of
+	 * the tree has not changed since the scan read that leaf, no tuples have
+	 * moved between pages, and this is its right sibling.  Otherwise it is
+	 * the left-most leaf possibly containing the last key the scan read, so
+	 * the scan must skip the tuples it has already read.
 	 *
+	 * @param tid - the transaction id
+	 * @param prev - the leaf the scan has read
+	 * @param lastKey - the last key the scan has read, or where it started
+	 * @return the next leaf, or null if prev was the last one
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-			Field f)
-					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+	LeafSnapshot nextLeaf(TransactionId tid, LeafSnapshot prev, Field lastKey)
+			throws DbException, TransactionAbortedException {
+		treeLatch.readLock().lock();
+		try {
+			if (prev.version == structureVersion)
+				return prev.rightSibling == null ? null : readLeaf(tid, prev.rightSibling, false);
+			return findAndReadLeaf(tid, lastKey, true);
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing a key, and read it.
+	 * The caller holds the tree latch shared.
+	 */
+	private LeafSnapshot findAndReadLeaf(TransactionId tid, Field key, boolean searched)
+			throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId leafId = findLeafPage(tid, new HashMap<PageId, Page>(), rootPtr.getRootId(),
+				Permissions.READ_ONLY, key).getId();
+		return readLeaf(tid, leafId, searched);
+	}
+
+	/**
+	 * The number of leaf pages that scans read ahead of the one they are
+	 * reading.
+	 */
+	static final int READ_AHEAD_LEAVES = 8;
+
+	/**
+	 * Ask the BufferPool to read ahead the leaf pages to the right of a leaf,
+	 * up to n of them, that a scan reading it will certainly read.  They are
+	 * found among the children of the leaf's parent, which is normally
+	 * cached, as scans read it on their way to the leaf; leaves past the
+	 * parent's last child are not read ahead.  A search only moves past a
+	 * leaf if all of its keys pass its predicate, so it reads the leaf to
+	 * the right of a key of the parent if that key, which is at least all
+	 * the keys to its left, passes; other leaves are read only if they are
+	 * asked for.  Read-ahead stops at the first leaf the BufferPool has no
+	 * room for.
+	 *
+	 * @param tid - the transaction id
+	 * @param leaf - the leaf page being read
+	 * @param ipred - the predicate of the search reading the leaf, or null
+	 *            for a scan of the whole file
+	 * @param n - the number of leaves to read ahead
+	 * @return the number of leaves read ahead
+	 */
+	int readAheadLeaves(TransactionId tid, BTreeLeafPage leaf, IndexPredicate ipred, int n)
+			throws DbException, TransactionAbortedException {
+		treeLatch.readLock().lock();
+		try {
+			BTreePageId parentId = leaf.getParentId();
+			if (parentId.pgcateg() != BTreePageId.INTERNAL)
+				return 0;
+			Page parent = Database.getBufferPool().getPage(tid, parentId, Permissions.READ_ONLY);
+			if (!(parent instanceof BTreeInternalPage))
+				return 0;  // the leaf has been moved since it was read
+			Iterator<BTreeEntry> it = ((BTreeInternalPage) parent).iterator();
+			boolean found = false;
+			int count = 0;
+			while (it.hasNext() && count < n) {
+				BTreeEntry e = it.next();
+				found = found || e.getLeftChild().equals(leaf.getId());
+				if (found && !searchMovesPast(ipred, e.getKey()))
+					break;
+				if (found) {
+					if (!Database.getBufferPool().prefetch(e.getRightChild()))
+						break;
+					count++;
+				}
+			}
+			return count;
+		} finally {
+			treeLatch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if a search with the specified predicate moves on to the
+	 *         next leaf after reading keys up to key
+	 */
+	private static boolean searchMovesPast(IndexPredicate ipred, Field key) {
+		if (ipred == null)
+			return true;
+		if (ipred.getUpperOp() != null && !key.compare(ipred.getUpperOp(), ipred.getUpperField()))
+			return false;
+		switch (ipred.getOp()) {
+		case LESS_THAN:
+		case LESS_THAN_OR_EQ:
+			return key.compare(ipred.getOp(), ipred.getField());
+		case EQUALS:
+			return key.compare(Op.LESS_THAN_OR_EQ, ipred.getField());
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Inserts and deletes cache the pages they dirty before releasing their
+	 * latches.
+	 *
+	 * @see DbFile#updatesOwnPages
+	 */
+	public boolean updatesOwnPages() {
+		return true;
+	}
+
+	/**
+	 * @return the latch of the specified leaf page
+	 */
+	private ReentrantLock leafLatch(BTreePageId pid) {
+		return leafLatches.computeIfAbsent(pid.pageNumber(), k -> new ReentrantLock());
 	}
 
 	/**
@@ -273,8 +609,9 @@ public class BTreeFile implements DbFile {
 			}
 		}
 
-		// get parent internal page and copy leftmost up.
-		BTreeEntry newEntry = new BTreeEntry(leftmost.getField(keyField), page.getId(), newLeafPage.getId());
+		// get parent internal page and copy the shortest key separating the pages up.
+		Field separator = separatorKey(getKey(page.reverseIterator().next()), getKey(leftmost));
+		BTreeEntry newEntry = new BTreeEntry(separator, page.getId(), newLeafPage.getId());
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), newEntry.getKey());
 		parent.insertEntry(newEntry);
 
@@ -324,14 +661,15 @@ public class BTreeFile implements DbFile {
 		// some code goes here
 		BTreeInternalPage newInternalPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 
+		// move the second half of the entries, or of the space they take if
+		// the keys are compressed, to the new page
 		Iterator<BTreeEntry> it = page.reverseIterator();
 		BTreeEntry entry = null;
-		for (int i = 0; i < page.getMaxEntries() / 2; i++) {
-			if (it.hasNext()) {
-				entry = it.next();
-				page.deleteKeyAndRightChild(entry);
-				newInternalPage.insertEntry(entry);
-			}
+		for (int i = 0; it.hasNext() && (page.hasCompressedKeys() ?
+				newInternalPage.getUsedSpace() < page.getUsedSpace() : i < page.getMaxEntries() / 2); i++) {
+			entry = it.next();
+			page.deleteKeyAndRightChild(entry);
+			newInternalPage.insertEntry(entry);
 		}
 		// push up to the parent
 		entry = it.next();
@@ -393,7 +731,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasRoomFor(field)) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -496,31 +834,155 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		ArrayList<Page> dirtyPagesArr = insertIntoLeaf(tid, t);
+		if (dirtyPagesArr != null)
+			return dirtyPagesArr;
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		treeLatch.writeLock().lock();
+		try {
+			structureVersion++;
+			HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
+
+			// find and lock the left-most leaf page corresponding to the key field,
+			// and split the leaf page if there are no more slots available
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, getKey(t));
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));
+			}
+
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
+
+			dirtyPagesArr = new ArrayList<Page>();
+			dirtyPagesArr.addAll(dirtypages.values());
+			Database.getBufferPool().updatePages(tid, dirtyPagesArr);
+			return dirtyPagesArr;
+		} finally {
+			treeLatch.writeLock().unlock();
 		}
+	}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+	/**
+	 * Insert a tuple into its leaf page if that page has an empty slot,
+	 * holding the tree latch shared and the latch of the leaf.
+	 *
+	 * @return the pages dirtied by the insert, or null if the tree has no
+	 *         root yet or the leaf page is full, so the insert must change
+	 *         the structure of the tree
+	 */
+	private ArrayList<Page> insertIntoLeaf(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		treeLatch.readLock().lock();
+		try {
+			BTreePageId rootId = getRootPtrPage(tid, dirtypages).getRootId();
+			if (rootId == null)
+				return null;
+			BTreePageId leafId = findLeafPage(tid, dirtypages, rootId, Permissions.READ_ONLY, getKey(t)).getId();
+			ReentrantLock latch = leafLatch(leafId);
+			latch.lock();
+			try {
+				BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, leafId, Permissions.READ_WRITE);
+				if (leafPage.getNumEmptySlots() == 0)
+					return null;
+				leafPage.insertTuple(t);
+				ArrayList<Page> dirtyPagesArr = new ArrayList<Page>(dirtypages.values());
+				Database.getBufferPool().updatePages(tid, dirtyPagesArr);
+				return dirtyPagesArr;
+			} finally {
+				latch.unlock();
+			}
+		} finally {
+			treeLatch.readLock().unlock();
 		}
+	}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
+	/**
+	 * Load a batch of tuples into this file, much faster than inserting
+	 * them one at a time.  The batch is sorted on the key field, in runs of
+	 * at most runTuples tuples spilled to temporary files next to this file
+	 * if it is larger,
+	 * and merged with the tuples already in the file.  The tree is then
+	 * rebuilt bottom-up with its pages filled to fillFactor, and replaces the
+	 * contents of the file.  Other threads wait for the load to finish.
+	 * Since the whole file is rewritten, batches that are small compared to
+	 * the table are better inserted with insertTuple.
+	 *
+	 * @param tid - the transaction id
+	 * @param tuples - the tuples to load, with the TupleDesc of this file
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and
+	 *        1; less than 1 leaves room for later inserts without splits
+	 * @param runTuples - the most tuples to sort in memory at once
+	 * @throws IllegalArgumentException if fillFactor is not between 0.5 and 1
+	 * @throws DbException if a tuple does not have the TupleDesc of this file
+	 */
+	public void bulkLoad(TransactionId tid, DbFileIterator tuples, double fillFactor, int runTuples)
+			throws DbException, IOException, TransactionAbortedException {
+		if (fillFactor < 0.5 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+		File tmp = null;
+		DbFileIterator existing = null;
+		List<Iterator<Tuple>> sources = new ArrayList<Iterator<Tuple>>();
+		treeLatch.writeLock().lock();
+		try {
+			structureVersion++;
+			// the sort runs and the new tree go next to this file
+			File dir = f.getAbsoluteFile().getParentFile();
+			tmp = File.createTempFile("bulkload", ".tmp", dir);
+			existing = iterator(tid);
+			if (!isEmpty()) {
+				existing.open();
+				sources.add(BTreeBulkLoader.asIterator(existing));
+			}
+			sources.addAll(BTreeBulkLoader.sortedRuns(tuples, td, keyFields, Math.max(1, runTuples), dir));
+			try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+				BTreeBulkLoader loader = new BTreeBulkLoader(tableid, td, keyFields, out, fillFactor);
+				Iterator<Tuple> merged = BTreeBulkLoader.merge(sources, keyFields);
+				while (merged.hasNext())
+					loader.add(merged.next());
+				loader.finish();
+			}
+			existing.close();
+
+			// the cached pages and the latches belong to the old tree
+			Database.getBufferPool().discardPages(tableid);
+			leafLatches.clear();
+			if (store != null) {
+				store.close();
+				CompressedPageStore.compressFile(tmp, f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+				store = new CompressedPageStore(f);
+			} else {
+				java.nio.file.Files.move(tmp.toPath(), f.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (existing != null)
+				existing.close();
+			BTreeBulkLoader.closeRuns(sources);
+			if (tmp != null)
+				tmp.delete();
+			treeLatch.writeLock().unlock();
+		}
+	}
 
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-		dirtyPagesArr.addAll(dirtypages.values());
-		return dirtyPagesArr;
+	/**
+	 * Load a batch of tuples into this file, sorting up to 100000 tuples in
+	 * memory at once.
+	 *
+	 * @see #bulkLoad(TransactionId, DbFileIterator, double, int)
+	 */
+	public void bulkLoad(TransactionId tid, DbFileIterator tuples, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		bulkLoad(tid, tuples, fillFactor, 100000);
 	}
 
 	/**
@@ -644,18 +1106,29 @@ public class BTreeFile implements DbFile {
 		// the corresponding parent entry.
 
 		int moveCount = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+		if (moveCount == 0)
+			return;
 
-		// redistribute entries
+		// find the tuples to move, and the tuple of the sibling next to them
 		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
-		Tuple t = null;
+		ArrayList<Tuple> moved = new ArrayList<Tuple>();
 		for (int i = 0; i < moveCount; i++) {
-			t = it.next();
+			moved.add(it.next());
+		}
+		Field last = getKey(moved.get(moveCount - 1));
+		Field next = getKey(it.next());
+
+		// new key in parent entry is the shortest key separating the pages,
+		// which may not fit on a parent with compressed keys
+		Field newKey = isRightSibling ? separatorKey(last, next) : separatorKey(next, last);
+		if (!parent.canUpdateKey(entry, newKey))
+			return;
+
+		// redistribute entries
+		for (Tuple t : moved) {
 			sibling.deleteTuple(t);
 			page.insertTuple(t);
 		}
-
-		// new key in parent entry is always the lefmost key of the right page
-		Field newKey = isRightSibling ? it.next().getField(keyField) : t.getField(keyField);
 		entry.setKey(newKey);
 		parent.updateEntry(entry);
 	}
@@ -687,12 +1160,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(leftSibling.canMergeWith(page, leftEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -703,7 +1175,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(rightSibling.canMergeWith(page, rightEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -735,7 +1207,9 @@ public class BTreeFile implements DbFile {
 			BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 
-		int moveCount = (leftSibling.getNumEntries() - page.getNumEntries()) / 2;
+		int moveCount = entriesToSteal(page, leftSibling, leftSibling.reverseIterator());
+		if (!parent.canUpdateKey(parentEntry, nthKey(leftSibling.reverseIterator(), moveCount)))
+			return;
 
 		// find the left and right child for the new entry
 		BTreePageId leftChildId = leftSibling.reverseIterator().next().getRightChild();
@@ -790,7 +1264,9 @@ public class BTreeFile implements DbFile {
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
 
-		int moveCount = (rightSibling.getNumEntries() - page.getNumEntries()) / 2;
+		int moveCount = entriesToSteal(page, rightSibling, rightSibling.iterator());
+		if (!parent.canUpdateKey(parentEntry, nthKey(rightSibling.iterator(), moveCount)))
+			return;
 
 		// find the left and right child for the new entry
 		BTreePageId leftChildId = page.reverseIterator().next().getRightChild();
@@ -818,6 +1294,67 @@ public class BTreeFile implements DbFile {
 		updateParentPointers(tid, dirtypages, page);
 	}
 
+	/**
+	 * Returns the number of entries to move from a sibling to an internal page
+	 * below minimum occupancy to even them out, counting the key pulled down
+	 * from the parent: half the difference of their entries or, if the keys
+	 * are compressed, of the space they take.  The key of the last entry
+	 * moved is pushed up to the parent, so at least one is moved.
+	 *
+	 * @param page - the internal page which is less than half full
+	 * @param sibling - the sibling which has entries to spare
+	 * @param it - an iterator over the entries of the sibling, starting next to page
+	 */
+	private static int entriesToSteal(BTreeInternalPage page, BTreeInternalPage sibling, Iterator<BTreeEntry> it) {
+		if (!page.hasCompressedKeys())
+			return (sibling.getNumEntries() - page.getNumEntries()) / 2;
+		int gap = sibling.getUsedSpace() - page.getUsedSpace();
+		int moveCount = 0;
+		while (moveCount < sibling.getNumEntries() - 1) {
+			// moving an entry narrows the gap by about twice its size
+			int size = 2 * (BTreePage.INDEX_SIZE + 2 + ((StringField) it.next().getKey()).getValue().length());
+			if (size > gap)
+				break;
+			gap -= size;
+			moveCount++;
+		}
+		return Math.max(1, moveCount);
+	}
+
+	/**
+	 * @return the key of the nth entry returned by an iterator, or of the
+	 * first if n is less than 1
+	 */
+	private static Field nthKey(Iterator<BTreeEntry> it, int n) {
+		BTreeEntry e = it.next();
+		for (int i = 1; i < n; i++)
+			e = it.next();
+		return e.getKey();
+	}
+
+	/**
+	 * Returns the shortest key separating two neighboring pages, for the
+	 * entry pointing to them in their parent: greater than the largest key
+	 * of the left page and at most the smallest key of the right page.
+	 * For string keys this is the shortest prefix of the right key that is
+	 * greater than the left key, so internal pages hold short keys whatever
+	 * the length of the keys they separate.  For other keys, and when the two
+	 * keys are equal, it is the right key.
+	 *
+	 * @param left - the largest key of the left page
+	 * @param right - the smallest key of the right page
+	 */
+	static Field separatorKey(Field left, Field right) {
+		if (!(right instanceof StringField) || !left.compare(Op.LESS_THAN, right))
+			return right;
+		String l = ((StringField) left).getValue(), r = ((StringField) right).getValue();
+		int n = BTreeInternalPage.sharedPrefix(l, r) + 1;
+		if (n >= r.length())
+			return right;
+		return right instanceof VarcharField ? new VarcharField(r.substring(0, n), Type.STRING_LEN)
+				: new StringField(r.substring(0, n), Type.STRING_LEN);
+	}
+
 	/**
 	 * Merge two leaf pages by moving all tuples from the right page to the left page.
 	 * Delete the corresponding key and right child pointer from the parent, and recursively
@@ -947,7 +1484,6 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
 		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged
@@ -963,7 +1499,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) {
+		else if(parent.isBelowMinOccupancy()) {
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -981,23 +1517,71 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		ArrayList<Page> dirtyPagesArr = deleteFromLeaf(tid, t);
+		if (dirtyPagesArr != null)
+			return dirtyPagesArr;
 
-		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
-				BTreePageId.LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
+		treeLatch.writeLock().lock();
+		try {
+			structureVersion++;
+			HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+
+			BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
+					BTreePageId.LEAF);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if(page.getNumEmptySlots() > maxEmptySlots) {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) {
-			handleMinOccupancyPage(tid, dirtypages, page);
+			dirtyPagesArr = new ArrayList<Page>();
+			dirtyPagesArr.addAll(dirtypages.values());
+			Database.getBufferPool().updatePages(tid, dirtyPagesArr);
+			return dirtyPagesArr;
+		} finally {
+			treeLatch.writeLock().unlock();
 		}
+	}
 
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-		dirtyPagesArr.addAll(dirtypages.values());
-		return dirtyPagesArr;
+	/**
+	 * Delete a tuple from its leaf page if the page stays at least half
+	 * full, holding the tree latch shared and the latch of the leaf.
+	 *
+	 * @return the pages dirtied by the delete, or null if the leaf page would
+	 *         fall below minimum occupancy, so the delete must change the
+	 *         structure of the tree
+	 */
+	private ArrayList<Page> deleteFromLeaf(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		treeLatch.readLock().lock();
+		// read the record id under the tree latch: only structure changes
+		// move tuples to other pages
+		RecordId rid = t.getRecordId();
+		if (rid == null) {
+			treeLatch.readLock().unlock();
+			throw new DbException("tried to delete tuple with null rid");
+		}
+		BTreePageId pageId = new BTreePageId(tableid, rid.getPageId().pageNumber(), BTreePageId.LEAF);
+		ReentrantLock latch = leafLatch(pageId);
+		latch.lock();
+		try {
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if (page.getNumEmptySlots() + 1 > maxEmptySlots)
+				return null;
+			page.deleteTuple(t);
+			ArrayList<Page> dirtyPagesArr = new ArrayList<Page>(dirtypages.values());
+			Database.getBufferPool().updatePages(tid, dirtyPagesArr);
+			return dirtyPagesArr;
+		} finally {
+			latch.unlock();
+			treeLatch.readLock().unlock();
+		}
 	}
 
 	/**
@@ -1013,7 +1597,11 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(isEmpty() && store != null) {
+				store.write(0, BTreeRootPtrPage.createEmptyPageData());
+				store.write(1, BTreeLeafPage.createEmptyPageData());
+			}
+			else if(isEmpty()) {
 				// create the root pointer page and the root page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
@@ -1077,11 +1665,15 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				if (store != null) {
+					store.write(numPages() + 1, emptyData);
+				} else {
+					BufferedOutputStream bw = new BufferedOutputStream(
+							new FileOutputStream(f, true));
+					bw.write(emptyData);
+					bw.close();
+				}
 				emptyPageNo = numPages();
 			}
 		}
@@ -1112,10 +1704,14 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		if (store != null) {
+			store.write(emptyPageNo, BTreePage.createEmptyPageData());
+		} else {
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
+			rf.write(BTreePage.createEmptyPageData());
+			rf.close();
+		}
 
 		// make sure the page is not in the buffer pool	or in the local cache
 		Database.getBufferPool().discardPage(newPageId);
@@ -1139,6 +1735,8 @@ public class BTreeFile implements DbFile {
 	 */
 	protected void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int emptyPageNo)
 			throws DbException, IOException, TransactionAbortedException {
+		// the tree latch is held exclusively, so no thread holds the page's latch
+		leafLatches.remove(emptyPageNo);
 
 		// if this is the last page in the file (and not the only page), just
 		// truncate the file
@@ -1215,6 +1813,12 @@ public class BTreeFile implements DbFile {
 	 * behalf of the specified transaction. This method will acquire a read lock on
 	 * the affected pages of the file, and may block until the lock can be
 	 * acquired.
+	 * <p>
+	 * Files keyed on several fields are searched with {@link CompositeField}s,
+	 * which may hold values of only the leading key fields, so a range
+	 * predicate with an equal prefix on its bounds, like (5, 10) to (5, 20)
+	 * or (5, 10) to (5), reads tuples with a given first key field and a
+	 * range of the second in one scan.
 	 *
 	 * @param tid - the transaction id
 	 * @param ipred - the index predicate value to filter on
@@ -1239,65 +1843,103 @@ public class BTreeFile implements DbFile {
 }
 
 /**
- * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ * Helper class that reads the tuples of a BTreeFile in key order, a leaf at
+ * a time, while other threads insert and delete tuples.  Each leaf is read
+ * whole holding its latch.  If pages were split, merged or redistributed
+ * before the scan moves on, the next leaf is found by searching for the last
+ * key read, whose leaf may hold tuples already read: those with smaller
+ * keys, and those with that key the scan has already returned, are skipped.
+ * Tuples present throughout the scan are therefore read exactly once.
  */
-class BTreeFileIterator extends AbstractDbFileIterator {
-
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+abstract class BTreeLeafScanIterator extends AbstractDbFileIterator {
 
-	TransactionId tid;
-	BTreeFile f;
+	final TransactionId tid;
+	final BTreeFile f;
+	// the key to start from, or null to start from the left-most leaf
+	final Field startKey;
+	// the predicate of the scan, for reading leaves ahead; null for all tuples
+	final IndexPredicate readAheadPred;
 
-	/**
-	 * Constructor for this iterator
-	 * @param f - the BTreeFile containing the tuples
-	 * @param tid - the transaction id
-	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	BTreeFile.LeafSnapshot leaf = null;
+	Iterator<Tuple> it = null;
+	// the number of leaves to the right of leaf that have been read ahead
+	int readAhead = 0;
+	// the last key read, the tuples with that key read, and those of them
+	// still to skip in a leaf found by searching for it
+	Field lastKey = null;
+	final ArrayList<Tuple> readAtLastKey = new ArrayList<Tuple>();
+	final ArrayList<Tuple> skip = new ArrayList<Tuple>();
+
+	BTreeLeafScanIterator(BTreeFile f, TransactionId tid, Field startKey, IndexPredicate readAheadPred) {
 		this.f = f;
 		this.tid = tid;
+		this.startKey = startKey;
+		this.readAheadPred = readAheadPred;
 	}
 
-	/**
-	 * Open this iterator by getting an iterator on the first leaf page
-	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		leaf = f.firstLeaf(tid, startKey);
+		it = leaf.tuples.iterator();
+		readAhead = f.readAheadLeaves(tid, leaf.page, readAheadPred, BTreeFile.READ_AHEAD_LEAVES);
+		lastKey = null;
+		readAtLastKey.clear();
+		skip.clear();
 	}
 
 	/**
-	 * Read the next tuple either from the current page if it has more tuples or
-	 * from the next page by following the right sibling pointer.
-	 *
-	 * @return the next tuple, or null if none exists
+	 * @return the next tuple of the file in key order, or null if there are
+	 *         no more
 	 */
-	@Override
-	protected Tuple readNext() throws TransactionAbortedException, DbException {
-		if (it != null && !it.hasNext())
-			it = null;
+	Tuple nextInKeyOrder() throws DbException, TransactionAbortedException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = f.getKey(t);
+				if (lastKey != null && key.compare(Op.LESS_THAN, lastKey))
+					continue;
+				if (lastKey != null && key.compare(Op.EQUALS, lastKey)) {
+					if (removeSame(skip, t))
+						continue;
+				}
+				else {
+					lastKey = key;
+					readAtLastKey.clear();
+					skip.clear();
+				}
+				readAtLastKey.add(t);
+				return t;
+			}
 
-		while (it == null && curp != null) {
-			BTreePageId nextp = curp.getRightSiblingId();
-			if(nextp == null) {
-				curp = null;
+			leaf = f.nextLeaf(tid, leaf, lastKey != null ? lastKey : startKey);
+			if (leaf == null) {
+				it = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
-				if (!it.hasNext())
-					it = null;
+				if (leaf.searched) {
+					skip.clear();
+					skip.addAll(readAtLastKey);
+				}
+				if (--readAhead < BTreeFile.READ_AHEAD_LEAVES / 2)
+					readAhead = f.readAheadLeaves(tid, leaf.page, readAheadPred, BTreeFile.READ_AHEAD_LEAVES);
+				it = leaf.tuples.iterator();
 			}
 		}
+		return null;
+	}
 
-		if (it == null)
-			return null;
-		return it.next();
+	/** Remove a tuple with the same fields as t from tuples, if there is one */
+	private static boolean removeSame(List<Tuple> tuples, Tuple t) {
+		for (Iterator<Tuple> i = tuples.iterator(); i.hasNext(); ) {
+			Tuple u = i.next();
+			boolean same = true;
+			for (int j = 0; same && j < t.getTupleDesc().numFields(); j++)
+				same = t.getField(j).equals(u.getField(j));
+			if (same) {
+				i.remove();
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -1314,7 +1956,33 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
-		curp = null;
+		leaf = null;
+	}
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ */
+class BTreeFileIterator extends BTreeLeafScanIterator {
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 */
+	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+		super(f, tid, null, null);
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples or
+	 * from the next page.
+	 *
+	 * @return the next tuple, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		return nextInKeyOrder();
 	}
 }
 
@@ -1322,13 +1990,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
  * Helper class that implements the DbFileIterator for search tuples on a
  * B+ Tree File
  */
-class BTreeSearchIterator extends AbstractDbFileIterator {
+class BTreeSearchIterator extends BTreeLeafScanIterator {
 
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
-
-	TransactionId tid;
-	BTreeFile f;
 	IndexPredicate ipred;
 
 	/**
@@ -1338,86 +2001,53 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * @param ipred - the predicate to filter on
 	 */
 	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
-		this.f = f;
-		this.tid = tid;
+		super(f, tid, startKey(ipred), ipred);
 		this.ipred = ipred;
 	}
 
 	/**
-	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
+	 * @return the key the search for the predicate starts from, or null to
+	 *         start from the left-most leaf
 	 */
-	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+	private static Field startKey(IndexPredicate ipred) {
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
-		}
-		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			return ipred.getField();
 		}
-		it = curp.iterator();
+		return null;
 	}
 
 	/**
-	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
+	 * Read the next tuple matching the predicate, from the current page or
+	 * the next ones.
 	 *
 	 * @return the next tuple matching the predicate, or null if none exists
 	 */
 	@Override
 	protected Tuple readNext() throws TransactionAbortedException, DbException,
 	NoSuchElementException {
-		while (it != null) {
-
-			while (it.hasNext()) {
-				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				}
-				else if(ipred.getOp() == Op.EQUALS &&
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
-				}
+		Tuple t;
+		while ((t = nextInKeyOrder()) != null) {
+			Field key = f.getKey(t);
+			if (ipred.getUpperOp() != null && !key.compare(ipred.getUpperOp(), ipred.getUpperField())) {
+				// past the upper bound of a range
+				return null;
 			}
-
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
-			if(nextp == null) {
+			if (key.compare(ipred.getOp(), ipred.getField())) {
+				return t;
+			}
+			else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+				// if the predicate was not satisfied and the operation is less than, we have
+				// hit the end
 				return null;
 			}
-			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+			else if(ipred.getOp() == Op.EQUALS &&
+					key.compare(Op.GREATER_THAN, ipred.getField())) {
+				// if the tuple is now greater than the field passed in and the operation
+				// is equals, we have reached the end
+				return null;
 			}
 		}
-
 		return null;
 	}
-
-	/**
-	 * rewind this iterator back to the beginning of the tuples
-	 */
-	public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
-	}
-
-	/**
-	 * close the iterator
-	 */
-	public void close() {
-		super.close();
-		it = null;
-	}
 }
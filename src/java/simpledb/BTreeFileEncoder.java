@@ -111,7 +111,7 @@ public class BTreeFileEncoder {
 	 * comparator to sort Tuples by key field
 	 */
 	public static class TupleComparator implements Comparator<Tuple> {
-		private int keyField;
+		private int[] keyFields;
 
 		/** 
 		 * Construct a TupleComparator
@@ -119,7 +119,16 @@ public class BTreeFileEncoder {
 		 * @param keyField - the index of the field the tuples are keyed on
 		 */
 		public TupleComparator(int keyField) {
-			this.keyField = keyField;
+			this(new int[] { keyField });
+		}
+
+		/** 
+		 * Construct a TupleComparator for tuples keyed on several fields
+		 * 
+		 * @param keyFields - the indexes of the fields the tuples are keyed on, most significant first
+		 */
+		public TupleComparator(int[] keyFields) {
+			this.keyFields = keyFields;
 		}
 
 		/**
@@ -129,10 +138,11 @@ public class BTreeFileEncoder {
 		 */
 		public int compare(Tuple t1, Tuple t2) {
 			int cmp = 0;
-			if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
+			Field k1 = BTreeFile.getKey(t1, keyFields), k2 = BTreeFile.getKey(t2, keyFields);
+			if(k1.compare(Op.LESS_THAN, k2)) {
 				cmp = -1;
 			}
-			else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
+			else if(k1.compare(Op.GREATER_THAN, k2)) {
 				cmp = 1;
 			}
 			return cmp;
@@ -624,6 +634,8 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeInternalPage.hasCompressedKeys(keyType))
+			return convertToCompressedInternalPage(entries, npagebytes, keyType, childPageCategory);
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -697,6 +709,45 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries to a byte array in the format of a
+	 * BTreeInternalPage with prefix-compressed keys.  The entries must fit
+	 * on the page.
+	 * 
+	 * @see #convertToInternalPage
+	 */
+	private static byte[] convertToCompressedInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			Type keyType, int childPageCategory)
+					throws IOException {
+		int nslots = BTreeInternalPage.maxEntries(keyType) + 1;
+		byte[] header = new byte[(nslots + 7) / 8];
+		for (int i = 0; i < entries.size() + 1; i++)
+			header[i / 8] |= 1 << (i % 8);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		dos.write(header);
+
+		Collections.sort(entries, new EntryComparator());
+		dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+		String prev = "";
+		for (BTreeEntry e : entries) {
+			dos.writeInt(e.getRightChild().pageNumber());
+			String key = ((StringField) e.getKey()).getValue();
+			int shared = BTreeInternalPage.sharedPrefix(prev, key);
+			dos.writeByte(shared);
+			dos.writeByte(key.length() - shared);
+			dos.writeBytes(key.substring(shared));
+			prev = key;
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - dos.size()]);
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
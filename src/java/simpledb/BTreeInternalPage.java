@@ -8,6 +8,13 @@ import simpledb.Predicate.Op;
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages keyed on string fields store their keys prefix-compressed: each key
+ * is written as the number of leading characters it shares with the key
+ * before it on the page and the characters that follow, and only the used
+ * slots are written.  Entries then take a varying number of bytes, so these
+ * pages have many more slots than fit full-size keys, and are full when
+ * their entries fill the page rather than their slots.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -18,6 +25,9 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	private int numUsed; // used slots, not counting slot 0
+	private final boolean compressedKeys;
+	private int usedSpace = -1; // bytes taken by the entries, or -1 if not computed
 	
 	private int childCategory; // either leaf or internal
 
@@ -37,7 +47,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (!isBelowMinOccupancy());
 		}
 	}
 	
@@ -57,6 +67,11 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages with compressed keys have the same parent pointer, child page
+	 * category and header, followed by the child pointer of each used slot
+	 * and, except for slot 0, the number of leading characters its key shares
+	 * with the one before (a byte), the number of characters that follow (a
+	 * byte) and those characters.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -66,7 +81,22 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeInternalPage of a BTreeFile keyed on several fields from
+	 * a set of bytes of data read from disk.  The format is the same, with
+	 * each key serialized as the values of its fields in order.  Composite
+	 * keys are never compressed.
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.compressedKeys = keyFields.length == 1 && hasCompressedKeys(td.getFieldType(keyField));
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -85,8 +115,16 @@ public class BTreeInternalPage extends BTreePage {
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
+		numUsed = countUsedSlots(header) - (isSlotUsed(0) ? 1 : 0);
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (compressedKeys) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -98,7 +136,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,7 +152,25 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		if (keyFields.length > 1)
+			return maxEntriesOfSize(keySize());
+		return maxEntries(td.getFieldType(keyField));
+	}
+
+	/**
+	 * Retrieve the maximum number of entries of pages keyed on fields of the
+	 * given type.  For compressed keys, this is the number of the smallest
+	 * entries that fit: a child pointer and a key that repeats the one before.
+	 */
+	static int maxEntries(Type keyType) {
+		return maxEntriesOfSize(hasCompressedKeys(keyType) ? 2 : keyType.getLen());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries of pages whose keys take
+	 * keySize bytes.
+	 */
+	private static int maxEntriesOfSize(int keySize) {
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -124,6 +179,21 @@ public class BTreeInternalPage extends BTreePage {
 		return entriesPerPage;
 	}
 
+	/**
+	 * @return true if pages keyed on fields of the given type store their
+	 * keys prefix-compressed
+	 */
+	static boolean hasCompressedKeys(Type keyType) {
+		return keyType == Type.STRING_TYPE || keyType == Type.VARCHAR_TYPE;
+	}
+
+	/**
+	 * @return true if this page stores its keys prefix-compressed
+	 */
+	public boolean hasCompressedKeys() {
+		return compressedKeys;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -145,7 +215,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -168,7 +238,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<keySize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -181,7 +251,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -190,6 +260,180 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Read the child pointers and keys of the used slots of a page with
+	 * compressed keys.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		String prev = "";
+		for (int i=0; i<numSlots; i++) {
+			children[i] = -1;
+			if (!isSlotUsed(i))
+				continue;
+			children[i] = dis.readInt();
+			if (i == 0)
+				continue;
+			int shared = dis.readUnsignedByte();
+			byte[] suffix = new byte[dis.readUnsignedByte()];
+			dis.readFully(suffix);
+			prev = prev.substring(0, shared) + new String(suffix);
+			keys[i] = td.getFieldType(keyField) == Type.VARCHAR_TYPE ?
+					new VarcharField(prev, Type.STRING_LEN) : new StringField(prev, Type.STRING_LEN);
+		}
+	}
+
+	/**
+	 * Write the child pointers and keys of the used slots of a page with
+	 * compressed keys.
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) throws IOException {
+		String prev = "";
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			dos.writeInt(children[i]);
+			if (i == 0)
+				continue;
+			String s = ((StringField) keys[i]).getValue();
+			int shared = sharedPrefix(prev, s);
+			dos.writeByte(shared);
+			dos.writeByte(s.length() - shared);
+			dos.writeBytes(s.substring(shared));
+			prev = s;
+		}
+	}
+
+	/**
+	 * @return the number of leading characters two strings share
+	 */
+	static int sharedPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return the number of bytes a compressed key takes after the key prev,
+	 * or at the start of the page if prev is null
+	 */
+	private static int keySpace(Field prev, Field key) {
+		String s = ((StringField) key).getValue();
+		return 2 + s.length() - (prev == null ? 0 : sharedPrefix(((StringField) prev).getValue(), s));
+	}
+
+	/**
+	 * @return the key of the last used slot before slot i, or null if there is none
+	 */
+	private Field keyBefore(int i) {
+		int slot = i > 1 ? prevUsedSlot(header, i - 1) : -1;
+		return slot > 0 ? keys[slot] : null;
+	}
+
+	/**
+	 * @return the key of the first used slot after slot i, or null if there is none
+	 */
+	private Field keyAfter(int i) {
+		int slot = nextSlot(header, i + 1, numSlots, true);
+		return slot == -1 ? null : keys[slot];
+	}
+
+	/**
+	 * Returns the number of bytes the entries on this page take: their keys
+	 * and child pointers, including the extra child pointer.
+	 */
+	public int getUsedSpace() {
+		if (!compressedKeys) {
+			return numUsed * (keySize() + INDEX_SIZE) +
+					(isSlotUsed(0) ? INDEX_SIZE : 0);
+		}
+		if (usedSpace < 0) {
+			int used = 0;
+			Field prev = null;
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				used += INDEX_SIZE;
+				if (i > 0) {
+					used += keySpace(prev, keys[i]);
+					prev = keys[i];
+				}
+			}
+			usedSpace = used;
+		}
+		return usedSpace;
+	}
+
+	/**
+	 * Returns the number of bytes available for entries on this page when
+	 * it is empty.
+	 */
+	public int getCapacity() {
+		if (!compressedKeys)
+			return getMaxEntries() * (keySize() + INDEX_SIZE) + INDEX_SIZE;
+		return BufferPool.getPageSize() - INDEX_SIZE - 1 - header.length;
+	}
+
+	/**
+	 * Returns true if an entry with the given key can be inserted into this
+	 * page, wherever it falls among the others.
+	 */
+	public boolean hasRoomFor(Field key) {
+		if (getNumEmptySlots() == 0)
+			return false;
+		if (!compressedKeys)
+			return true;
+		int childSpace = isSlotUsed(0) ? INDEX_SIZE : 2 * INDEX_SIZE;
+		return getUsedSpace() + childSpace + keySpace(null, key) <= getCapacity();
+	}
+
+	/**
+	 * Returns true if the key of the given entry can be replaced by key with
+	 * {@link #updateEntry}.  Only pages with compressed keys may not have
+	 * room for a longer key.
+	 * @param e - the entry, whose record id must be on this page
+	 * @param key - the new key
+	 */
+	public boolean canUpdateKey(BTreeEntry e, Field key) {
+		if (!compressedKeys)
+			return true;
+		int slot = e.getRecordId().tupleno();
+		Field prev = keyBefore(slot), next = keyAfter(slot);
+		int delta = keySpace(prev, key) - keySpace(prev, keys[slot]);
+		if (next != null)
+			delta += keySpace(key, next) - keySpace(keys[slot], next);
+		return getUsedSpace() + delta <= getCapacity();
+	}
+
+	/**
+	 * Returns true if this non-root page is less than half full, and should
+	 * take entries from a sibling or merge with it.  Pages with compressed
+	 * keys allow for the space two of the largest entries may take, since
+	 * their entries are not split evenly.
+	 */
+	public boolean isBelowMinOccupancy() {
+		if (!compressedKeys)
+			return getNumEmptySlots() > getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getUsedSpace() < getCapacity() / 2 - 2 * (INDEX_SIZE + 2 + Type.STRING_LEN);
+	}
+
+	/**
+	 * Returns true if a sibling page below minimum occupancy should be
+	 * merged with this page, with the key separating them pulled down from
+	 * their parent, rather than take entries from it.  That is, if this page
+	 * is at minimum occupancy or, for compressed keys, if all their entries
+	 * fit on one page.
+	 * @param page - the sibling below minimum occupancy
+	 * @param key - the key of the entry in the parent separating the two pages
+	 */
+	public boolean canMergeWith(BTreeInternalPage page, Field key) {
+		if (!compressedKeys)
+			return getNumEmptySlots() >= getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEntries() + page.getNumEntries() + 1 <= getMaxEntries() &&
+				getUsedSpace() + page.getUsedSpace() + keySpace(null, key) <= getCapacity();
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -262,14 +506,22 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		if (compressedKeys) {
+			try {
+				writeCompressedEntries(dos);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
+		for (int i=1; i<keys.length && !compressedKeys; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<keySize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -290,7 +542,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// create the child pointers
-		for (int i=0; i<children.length; i++) {
+		for (int i=0; i<children.length && !compressedKeys; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
@@ -315,8 +567,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+		int zerolen = BufferPool.getPageSize() - dos.size();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -409,6 +660,8 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to update null entry.");
+		if (!canUpdateKey(e, e.getKey()))
+			throw new DbException("no room on the page for the updated key " + e.getKey());
 		
 		for(int i = rid.tupleno() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -431,6 +684,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
 		keys[rid.tupleno()] = e.getKey();
+		usedSpace = -1;
 	}
 
 	/**
@@ -441,7 +695,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -468,13 +722,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// find the first empty slot, starting from 1
-		int emptySlot = -1;
-		for (int i=1; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = nextSlot(header, 1, numSlots, false);
 
 		if (emptySlot == -1)
 			throw new DbException("called insertEntry on page with no empty slots.");        
@@ -493,9 +741,6 @@ public class BTreeInternalPage extends BTreePage {
 								" left and right keys");
 					}
 					lessOrEqKey = i;
-					if(children[i] == e.getRightChild().pageNumber()) {
-						children[i] = e.getLeftChild().pageNumber();
-					}
 				}
 				else if(lessOrEqKey != -1) {
 					// validate that the next key is greater than or equal to the one we are inserting
@@ -521,6 +766,19 @@ public class BTreeInternalPage extends BTreePage {
 					" left and right keys");
 		}
 
+		// the new entry follows the one in slot lessOrEqKey
+		if (compressedKeys) {
+			Field prev = lessOrEqKey > 0 ? keys[lessOrEqKey] : null, next = keyAfter(lessOrEqKey);
+			int delta = INDEX_SIZE + keySpace(prev, e.getKey());
+			if (next != null)
+				delta += keySpace(e.getKey(), next) - keySpace(prev, next);
+			if (getUsedSpace() + delta > getCapacity())
+				throw new DbException("called insertEntry on page with no room for the entry.");
+		}
+		if(children[lessOrEqKey] == e.getRightChild().pageNumber()) {
+			children[lessOrEqKey] = e.getLeftChild().pageNumber();
+		}
+
 		// shift entries back or forward to fill empty slot and make room for new entry
 		// while keeping entries in sorted order
 		int goodSlot = -1;
@@ -569,13 +827,49 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
+		// the first key slot is not counted
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return numSlots - 1 - numUsed;
+	}
+
+	/**
+	 * Binary search for the child page that may hold key f: the left child of
+	 * the first entry whose key is greater than or equal to f, or the right
+	 * child of the last entry if there is none.  The used slots hold their
+	 * keys in order, but may have empty slots between them, so each probe
+	 * moves on to the next used slot.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page, or null if the page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		int first = nextSlot(header, 1, numSlots, true);
+		if (first == -1 || !isSlotUsed(0))
+			return null;
+		int found = -1;
+		if (f == null) {
+			found = first;
+		}
+		else {
+			int lo = first, hi = numSlots - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int s = nextSlot(header, mid, hi + 1, true);
+				if (s == -1) {
+					hi = mid - 1;
+				}
+				else if (keys[s].compare(Op.GREATER_THAN_OR_EQ, f)) {
+					found = s;
+					hi = mid - 1;
+				}
+				else {
+					lo = s + 1;
+				}
+			}
+		}
+		// the left child of the entry in slot found is the child of the
+		// used slot before it
+		int slot = prevUsedSlot(header, found == -1 ? numSlots - 1 : found - 1);
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
 	}
 
 	/**
@@ -595,6 +889,9 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		if(i > 0 && value != isSlotUsed(i))
+			numUsed += value ? 1 : -1;
+		usedSpace = -1;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -21,7 +21,8 @@ public abstract class BTreePage implements Page {
 
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
-	protected final int keyField;
+	protected final int keyField; // the first of keyFields
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -52,11 +53,70 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) throws IOException {
+		this(id, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreePage of a BTreeFile keyed on several fields, whose keys
+	 * are {@link CompositeField}s of the values of those fields.
+	 * 
+	 * @param id - the id of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreePage(BTreePageId id, int[] keyFields) throws IOException {
 		this.pid = id;
-		this.keyField = key;
+		this.keyField = keyFields[0];
+		this.keyFields = keyFields;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of a tuple of this page's file: the value of its key
+	 * field, or a {@link CompositeField} of its key fields
+	 */
+	public Field getKey(Tuple t) {
+		return BTreeFile.getKey(t, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes a key of this page's file takes when
+	 * serialized uncompressed
+	 */
+	protected int keySize() {
+		int size = 0;
+		for (int k : keyFields)
+			size += td.getFieldType(k).getLen();
+		return size;
+	}
+
+	/**
+	 * Read a key of this page's file, as written by its serialize method.
+	 */
+	protected Field parseKey(DataInputStream dis) throws java.text.ParseException {
+		if (keyFields.length == 1)
+			return td.getFieldType(keyField).parse(dis);
+		Field[] values = new Field[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++)
+			values[i] = td.getFieldType(keyFields[i]).parse(dis);
+		return new CompositeField(values);
+	}
+
+	/**
+	 * @return true if f is a key of this page's file: a field of the type
+	 * of its key field, or a composite of fields of the types of its key fields
+	 */
+	protected boolean isKey(Field f) {
+		if (keyFields.length == 1)
+			return f.getType().equals(td.getFieldType(keyField));
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length)
+			return false;
+		for (int i = 0; i < keyFields.length; i++) {
+			if (!((CompositeField) f).getField(i).getType().equals(td.getFieldType(keyFields[i])))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -141,5 +201,56 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * Find the first slot at or after from that is used (or empty) according
+	 * to a header bitmap, skipping whole header bytes at a time.
+	 * @param header - the header bitmap of a page
+	 * @param from - the first slot to consider
+	 * @param limit - the number of slots in the page
+	 * @param used - true to find a used slot, false to find an empty one
+	 * @return the slot, or -1 if there is none before limit
+	 */
+	protected static int nextSlot(byte[] header, int from, int limit, boolean used) {
+		int i = from;
+		while (i < limit) {
+			int b = header[i >> 3] & 0xFF;
+			if (!used)
+				b = ~b & 0xFF;
+			b >>>= i & 7;
+			if (b != 0) {
+				int slot = i + Integer.numberOfTrailingZeros(b);
+				return slot < limit ? slot : -1;
+			}
+			i = (i | 7) + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last used slot at or before from according to a header
+	 * bitmap, skipping whole header bytes at a time.
+	 * @return the slot, or -1 if there is none
+	 */
+	protected static int prevUsedSlot(byte[] header, int from) {
+		int i = from;
+		while (i >= 0) {
+			int b = header[i >> 3] & ((2 << (i & 7)) - 1);
+			if (b != 0)
+				return (i & ~7) + 31 - Integer.numberOfLeadingZeros(b);
+			i = (i & ~7) - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of used slots in a header bitmap
+	 */
+	protected static int countUsedSlots(byte[] header) {
+		int n = 0;
+		for (byte b : header)
+			n += Integer.bitCount(b & 0xFF);
+		return n;
+	}
+
 }
 
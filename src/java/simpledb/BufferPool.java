@@ -3,7 +3,13 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -14,6 +20,15 @@ import java.util.concurrent.locks.ReentrantLock;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * A BufferPool created with a second tier keeps the pages it evicts
+ * compressed in a {@link CompressedPageCache}, which is consulted before
+ * reading the disk.  The second tier takes memory beyond the pages of the
+ * pool, so it is off unless its size is given.
+ * <p>
+ * Access methods that know which pages they will read next can ask for
+ * them to be read ahead with {@link #prefetch}, so that reading them
+ * overlaps with processing the pages before them.
  *
  * @Threadsafe, all fields are final
  */
@@ -31,19 +46,58 @@ public class BufferPool {
     private int numPages;
     //    private final ReentrantLock lock;
     private final ConcurrentHashMap<PageId,Page> pages;
+    private final CompressedPageCache secondTier;
 
+    /** The threads reading pages ahead, shared by all buffer pools */
+    private static final ExecutorService readAheadThreads = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+    /** Pages being read ahead */
+    private final ConcurrentHashMap<PageId,Future<?>> readingAhead = new ConcurrentHashMap<>();
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Incremented whenever the copy of a page on disk may change, so that a
+     * page read ahead before the change is dropped rather than cached
+     */
+    private volatile long diskVersion = 0;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, without a
+     * compressed second tier.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, 0);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, and up to
+     * secondTierBytes bytes of compressed evicted pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param secondTierBytes maximum size of the compressed second tier;
+     *        0 disables it
+     */
+    public BufferPool(int numPages, long secondTierBytes) {
         // some code goes here
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
+        this.secondTier = new CompressedPageCache(secondTierBytes);
 //        this.lock = new ReentrantLock();
     }
 
+    /** @return the compressed second tier of this buffer pool */
+    public CompressedPageCache getSecondTier() {
+        return secondTier;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -67,7 +121,8 @@ public class BufferPool {
      * is present, it should be returned.  If it is not present, it should
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
-     * should be added in its place.
+     * should be added in its place.  Pages in the compressed second tier are
+     * rebuilt from there rather than read from disk.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -76,20 +131,109 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        Page p;
+        Page p = pages.get(pid);
 //        lock.lock();
-        if (pages.containsKey(pid))
+        if (p != null)
+            return p;
+        Future<?> pending = readingAhead.get(pid);
+        if (pending != null && !Thread.holdsLock(this)) {
+            // wait for the page being read ahead rather than reading it again
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // read it below
+            }
             p = pages.get(pid);
-        else {
-            while (pages.size() >= numPages) {       // Pool full
-                evictPage();
+            if (p != null)
+                return p;
+        }
+        synchronized (this) {
+            // another thread may have read the page while this one waited
+            p = pages.get(pid);
+            if (p == null) {
+                while (pages.size() >= numPages) {       // Pool full
+                    evictPage();
+                }
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                p = fromSecondTier(file, pid);
+                if (p == null)
+                    p = file.readPage(pid);
+                pages.put(pid, p);
             }
-            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pages.put(pid, p);
         }
         return p;
     }
 
+    /**
+     * Start reading a page in the background, if it is not cached already,
+     * so that a later {@link #getPage} for it does not wait for the disk.
+     * The page is cached if the pool has a free slot, and otherwise kept in
+     * the second tier; read-ahead never evicts pages.  Without a second
+     * tier, pages are only read ahead into the free slots not already taken
+     * by pages being read ahead, since a page read into a full pool would
+     * be dropped and read again.  Pages already in the second tier are not
+     * read again.  Pages that cannot be read are ignored, and read when they
+     * are asked for.
+     *
+     * @param pid the ID of the page that will be asked for soon
+     * @return false if the page will not be read ahead for lack of room,
+     *         true if it is being read or already cached
+     */
+    public boolean prefetch(final PageId pid) {
+        if (pages.containsKey(pid) || readingAhead.containsKey(pid) || secondTier.contains(pid))
+            return true;
+        if (!secondTier.isEnabled() && pages.size() + readingAhead.size() >= numPages)
+            return false;
+        final long version = diskVersion;
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            readAhead(pid, version);
+            return null;
+        });
+        if (readingAhead.putIfAbsent(pid, task) == null)
+            readAheadThreads.execute(task);
+        return true;
+    }
+
+    /**
+     * Read a page ahead of its use, and cache it unless its copy on disk
+     * has changed since version.
+     */
+    private void readAhead(PageId pid, long version) {
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page p = file.readPage(pid);
+            synchronized (this) {
+                if (diskVersion == version && !pages.containsKey(pid)) {
+                    if (pages.size() < numPages)
+                        pages.put(pid, p);
+                    else
+                        secondTier.put(pid, p.getPageData());
+                }
+            }
+        } catch (RuntimeException e) {
+            // the page is read when it is asked for
+        } finally {
+            readingAhead.remove(pid);
+        }
+    }
+
+    /**
+     * @return the page rebuilt from its data in the second tier, or null if
+     *         it is not there or the file cannot rebuild it
+     */
+    private Page fromSecondTier(DbFile file, PageId pid) {
+        byte[] data = secondTier.take(pid);
+        if (data == null)
+            return null;
+        try {
+            return file.createPage(pid, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -144,7 +288,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages.  The secondary indexes of
+     * the table get an entry for the tuple.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -155,21 +300,12 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
 
-        ArrayList<Page> dirtyPages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-        synchronized(this) {
-            for (Page p : dirtyPages){
-                p.markDirty(true, tid);
-                if(pages.get(p.getId()) != null) {    // exist, just update it
-                    pages.put(p.getId(), p);
-                }
-                else {                               // not exist, need to add new page
-                    if(pages.size() >= numPages) {    // pages full
-                        evictPage();
-                    }
-                    pages.put(p.getId(), p);
-                }
-            }
-        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> dirtyPages = file.insertTuple(tid, t);
+        if (!file.updatesOwnPages())
+            updatePages(tid, dirtyPages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(tid, t);
     }
 
     /**
@@ -180,7 +316,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages.  The entries for the tuple
+     * are removed from the secondary indexes of its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -189,23 +326,42 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        ArrayList<Page> dirtyPages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
-        synchronized(this) {
-            for (Page p : dirtyPages){
-                p.markDirty(true, tid);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        // the index entries go first, while the tuple's fields can still be read from its page
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.delete(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> dirtyPages = file.deleteTuple(tid, t);
+        if (!file.updatesOwnPages())
+            updatePages(tid, dirtyPages);
+    }
 
-                if(pages.get(p.getId()) != null) {    // exist, just update it
-                    pages.put(p.getId(), p);
-                }
-                else {                               // not exist, need to add new page
-                    if(pages.size() >= numPages) {    // pages full
-                        evictPage();
-                    }
-                    pages.put(p.getId(), p);
+    /**
+     * Mark the pages dirtied by an insert or delete as dirty, and make them
+     * the cached versions of those pages, evicting pages as needed.  Files
+     * that modify pages concurrently call this before letting other threads
+     * at the pages, so an eviction in the middle of a modification cannot
+     * let another thread read a stale copy of a page and lose it.
+     *
+     * @see DbFile#updatesOwnPages
+     *
+     * @param tid the transaction that dirtied the pages
+     * @param dirtyPages the dirtied pages
+     */
+    synchronized void updatePages(TransactionId tid, List<Page> dirtyPages) throws DbException {
+        for (Page p : dirtyPages){
+            p.markDirty(true, tid);
+            secondTier.remove(p.getId());
+            if(pages.get(p.getId()) != null) {    // exist, just update it
+                pages.put(p.getId(), p);
+            }
+            else {                               // not exist, need to add new page
+                if(pages.size() >= numPages) {    // pages full
+                    evictPage();
                 }
+                pages.put(p.getId(), p);
             }
         }
-
     }
 
     /**
@@ -232,7 +388,20 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        diskVersion++;
         pages.remove(pid);
+        secondTier.remove(pid);
+    }
+
+    /**
+     * Remove all pages of the specified table from the buffer pool and its
+     * second tier, without flushing them.  Used by files whose contents are
+     * replaced as a whole, as by {@link BTreeFile#bulkLoad}.
+     */
+    public synchronized void discardPages(int tableId) {
+        diskVersion++;
+        pages.keySet().removeIf(pid -> pid.getTableId() == tableId);
+        secondTier.removeTable(tableId);
     }
 
     /**
@@ -249,6 +418,7 @@ public class BufferPool {
         if (p.isDirty() == null) {      // not dirty
             return;
         }
+        diskVersion++;
         Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
         p.markDirty(false, null);
     }
@@ -262,7 +432,8 @@ public class BufferPool {
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Flushes the page to disk to ensure dirty pages are updated on disk,
+     * then keeps its (now clean) data in the second tier.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
@@ -272,7 +443,9 @@ public class BufferPool {
             Object pageIds[] = pages.keySet().toArray();
             PageId evictId = (PageId)pageIds[rand.nextInt(pageIds.length)];
             flushPage(evictId);
-            discardPage(evictId);
+            Page p = pages.remove(evictId);
+            if (p != null)
+                secondTier.put(evictId, p.getPageData());
         } catch (IOException e) {
             throw new DbException("Eviction Fail!");
         }
@@ -25,6 +25,7 @@ public class Catalog {
         private DbFile file;
         private String name;
         private String pkeyField;
+        private List<SecondaryIndex> indexes = new ArrayList<>();
 
         public Table(DbFile file, String name, String pkeyField) {
             this.file = file;
@@ -35,6 +36,7 @@ public class Catalog {
 
     private Map<String, Table> tableNameMap;
     private Map<Integer, Table> tableIdMap;
+    private Map<Integer, SecondaryIndex> indexIdMap;
 
     /**
      * Constructor.
@@ -44,6 +46,7 @@ public class Catalog {
         // some code goes here
         tableNameMap = new HashMap<>();
         tableIdMap = new HashMap<>();
+        indexIdMap = new HashMap<>();
     }
 
     /**
@@ -60,6 +63,16 @@ public class Catalog {
         if (name == null)
             return;
         Table table = new Table(file, name, pkeyField);
+        // plans cached over a table being replaced are no longer valid
+        Database.getQueryPlanCache().invalidateTable(name);
+        Table old = tableIdMap.get(file.getId());
+        if (old != null) {
+            Database.getQueryPlanCache().invalidateTable(old.name);
+            for (SecondaryIndex index : old.indexes)
+                indexIdMap.remove(index.getId());
+            if (old.file != file)
+                close(old.file, file);
+        }
         tableNameMap.put(name, table);
         tableIdMap.put(file.getId(), table);
     }
@@ -79,6 +92,86 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index over a field of a table, stored in the specified
+     * file.  If the file is empty, the index is built from the tuples of
+     * the table; otherwise it is taken to be up to date.  From then on, the
+     * BufferPool maintains the index as tuples are inserted into and
+     * deleted from the table.
+     *
+     * @param tableid the id of the table to index, which must be a HeapFile
+     * @param fieldName the name of the field to index
+     * @param f the file storing the index
+     * @return the index
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SecondaryIndex addIndex(int tableid, String fieldName, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        return addIndex(tableid, fieldName, new String[0], f);
+    }
+
+    /**
+     * Add a covering secondary index over a field of a table, whose entries
+     * also store the values of some other fields.  See
+     * {@link #addIndex(int, String, File)}.
+     *
+     * @param tableid the id of the table to index, which must be a HeapFile
+     * @param fieldName the name of the field to index
+     * @param includeNames the names of the fields to store in the entries
+     * @param f the file storing the index, which must be empty or have been
+     *     created with the same included fields
+     * @return the index
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SecondaryIndex addIndex(int tableid, String fieldName, String[] includeNames, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        Table table = tableIdMap.get(tableid);
+        if (table == null)
+            throw new NoSuchElementException();
+        if (!(table.file instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files have secondary indexes");
+        TupleDesc td = table.file.getTupleDesc();
+        int field = td.fieldNameToIndex(fieldName);
+        int[] include = new int[includeNames.length];
+        for (int i = 0; i < include.length; i++)
+            include[i] = td.fieldNameToIndex(includeNames[i]);
+        SecondaryIndex index = new SecondaryIndex((HeapFile) table.file, field, include, f);
+        indexIdMap.put(index.getId(), index);
+        if (f.length() == 0) {
+            TransactionId tid = new TransactionId();
+            index.build(tid);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        table.indexes.add(index);
+        Database.getQueryPlanCache().invalidateTable(table.name);
+        return index;
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the indexes of the table; empty if it has none or doesn't exist
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        Table table = tableIdMap.get(tableid);
+        return table == null ? Collections.<SecondaryIndex>emptyList() : table.indexes;
+    }
+
+    /**
+     * @return the secondary index of the specified table over the specified
+     *     field, or null if there is none
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -100,26 +193,26 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        try {
-            return tableIdMap.get(tableid).file.getTupleDesc();
-        } catch (Exception e) {
-            throw new NoSuchElementException();
-        }
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table.  The files of secondary indexes can also be looked
+     * up by their ids, so that their pages can be read through the
+     * BufferPool.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        try {
-            return tableIdMap.get(tableid).file;
-        } catch (Exception e) {
-            throw new NoSuchElementException();
-        }
+        Table table = tableIdMap.get(tableid);
+        if (table != null)
+            return table.file;
+        SecondaryIndex index = indexIdMap.get(tableid);
+        if (index != null)
+            return index.getFile();
+        throw new NoSuchElementException();
     }
 
     public String getPrimaryKey(int tableid) {
@@ -146,15 +239,65 @@ public class Catalog {
         }
     }
 
-    /** Delete all tables from the catalog */
+    /**
+     * Close the files kept open for a table that is no longer in the
+     * catalog, and evict its dictionaries, except those the table replacing
+     * it uses.
+     *
+     * @param replacement the table replacing file, or null
+     */
+    private static void close(DbFile file, DbFile replacement) {
+        try {
+            if (file instanceof HeapFile)
+                ((HeapFile) file).close();
+            else if (file instanceof BTreeFile)
+                ((BTreeFile) file).close();
+            TupleDesc td = file.getTupleDesc();
+            for (int i = 0; i < td.numFields(); i++) {
+                StringDictionary dict = td.getDictionary(i);
+                if (dict != null && !usesDictionary(replacement, dict))
+                    dict.evict();
+            }
+        } catch (IOException e) {
+            // nothing more to release
+        }
+    }
+
+    /** @return true if file has a field encoded with dict */
+    private static boolean usesDictionary(DbFile file, StringDictionary dict) {
+        if (file == null)
+            return false;
+        TupleDesc td = file.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getDictionary(i) == dict)
+                return true;
+        }
+        return false;
+    }
+
+    /** Delete all tables from the catalog, closing the files they keep open */
     public void clear() {
         // some code goes here
+        for (Table table : tableIdMap.values())
+            close(table.file, null);
         tableNameMap.clear();
         tableIdMap.clear();
+        indexIdMap.clear();
+        Database.getQueryPlanCache().clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Fields annotated with "index" get a {@link SecondaryIndex}, stored next
+     * to the table's data file in name.field.idx, and built if that file
+     * does not exist yet.  The annotation may be followed by "include" and
+     * the names of other fields, which makes the index a covering index
+     * storing those fields too, as in "age int index include name id".
+     * Changing the included fields of an index requires deleting its file.
+     * A table with the "hash" storage option is a {@link HashIndexFile}
+     * hashed on its primary key, and cannot have secondary indexes.  Its
+     * data file must be empty or written by {@link HashIndexFile#convert},
+     * as with the "converthash" command of {@link SimpleDb}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -164,14 +307,29 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type [pk] [index [include field ...]], ...) [pax] [compressed] [hash]
                 String name = line.substring(0, line.indexOf("(")).trim();
+                boolean pax = false, compressed = false, hash = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().toLowerCase().split("\\s+")) {
+                    if (option.equals("pax"))
+                        pax = true;
+                    else if (option.equals("compressed"))
+                        compressed = true;
+                    else if (option.equals("hash"))
+                        hash = true;
+                    else if (!option.equals("")) {
+                        System.out.println("Unknown storage " + option);
+                        System.exit(0);
+                    }
+                }
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String[]> included = new ArrayList<String[]>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -179,29 +337,70 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("dict"))
+                        types.add(Type.DICT_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[k].trim().equals("index")) {
+                            indexed.add(els2[0].trim());
+                            included.add(new String[0]);
+                        }
+                        else if (els2[k].trim().equals("include") && !indexed.isEmpty()
+                                && indexed.get(indexed.size() - 1).equals(els2[0].trim())) {
+                            // the rest of the field's annotations name included fields
+                            included.set(included.size() - 1, Arrays.copyOfRange(els2, k + 1, els2.length));
+                            break;
+                        }
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                StringDictionary[] dictAr = new StringDictionary[typeAr.length];
+                for (int i = 0; i < typeAr.length; i++) {
+                    if (typeAr[i] == Type.DICT_TYPE)
+                        dictAr[i] = StringDictionary.forColumn(dataFile, i);
+                }
+                TupleDesc t = new TupleDesc(typeAr, namesAr, dictAr);
+                if (hash) {
+                    if (primaryKey.equals("") || !indexed.isEmpty()) {
+                        System.out.println("Hash table " + name + " needs a pk and no indexes");
+                        System.exit(0);
+                    }
+                    HashIndexFile hf = new HashIndexFile(dataFile, names.indexOf(primaryKey), t);
+                    if (!hf.hasHashFormat()) {
+                        System.out.println("Hash table " + name + " is not stored as a hash index file;"
+                                + " load it with converthash");
+                        System.exit(0);
+                    }
+                    addTable(hf, name, primaryKey);
+                    System.out.println("Added table : " + name + " with schema " + t);
+                    continue;
+                }
+                HeapFile tabHf = pax ? new PaxFile(dataFile, t, compressed) : new HeapFile(dataFile, t, compressed);
                 addTable(tabHf,name,primaryKey);
+                for (int i = 0; i < indexed.size(); i++)
+                    addIndex(tabHf.getId(), indexed.get(i), included.get(i),
+                            new File(baseFolder+"/"+name + "." + indexed.get(i) + ".idx"));
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
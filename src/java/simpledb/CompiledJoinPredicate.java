@@ -0,0 +1,175 @@
+package simpledb;
+
+/**
+ * CompiledJoinPredicate is a {@link JoinPredicate} specialized for the
+ * schemas of the tuples it joins, in the same way as
+ * {@link CompiledPredicate}: a comparison of two integer fields is a single
+ * primitive comparison, equality of two fields encoded with the same
+ * {@link StringDictionary} compares codes, and other comparisons fall back to
+ * {@link JoinPredicate#filter}.
+ */
+public abstract class CompiledJoinPredicate {
+
+    /**
+     * @return true if t1 and t2 satisfy the predicate
+     */
+    public abstract boolean matches(Tuple t1, Tuple t2);
+
+    /**
+     * Compile a join predicate.
+     *
+     * @param p a predicate over a field of td1 and a field of td2
+     * @param td1 the schema of the first (outer) tuples
+     * @param td2 the schema of the second (inner) tuples
+     * @return a predicate accepting the pairs of tuples that satisfy p
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (CompiledPredicate.isEnabled()
+                && td1.getFieldType(f1) == Type.INT_TYPE && td2.getFieldType(f2) == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(f1, f2);
+            case NOT_EQUALS:
+                return new IntNotEquals(f1, f2);
+            case LESS_THAN:
+                return new IntLessThan(f1, f2);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(f1, f2);
+            case GREATER_THAN:
+                return new IntGreaterThan(f1, f2);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(f1, f2);
+            }
+        }
+        StringDictionary dict = td1.getDictionary(f1);
+        if (CompiledPredicate.isEnabled() && dict != null && td2.getDictionary(f2) == dict
+                && (p.getOperator() == Predicate.Op.EQUALS || p.getOperator() == Predicate.Op.NOT_EQUALS)) {
+            return new DictEquals(p, dict);
+        }
+        return new Interpreted(p);
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return t.getInt(field);
+    }
+
+    private static final class IntEquals extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntEquals(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) == intValue(t2, f2);
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntNotEquals(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) != intValue(t2, f2);
+        }
+    }
+
+    private static final class IntLessThan extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntLessThan(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) < intValue(t2, f2);
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntLessThanOrEq(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) <= intValue(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntGreaterThan(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) > intValue(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledJoinPredicate {
+        private final int f1, f2;
+
+        IntGreaterThanOrEq(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return intValue(t1, f1) >= intValue(t2, f2);
+        }
+    }
+
+    /**
+     * Compares the codes of two fields encoded with the same dictionary.
+     * Values inserted since the dictionary was last extended have no code
+     * yet, and are compared by value.
+     */
+    private static final class DictEquals extends CompiledJoinPredicate {
+        private final JoinPredicate p;
+        private final int f1, f2;
+        private final StringDictionary dict;
+        private final boolean negate;
+
+        DictEquals(JoinPredicate p, StringDictionary dict) {
+            this.p = p;
+            this.f1 = p.getField1();
+            this.f2 = p.getField2();
+            this.dict = dict;
+            this.negate = p.getOperator() == Predicate.Op.NOT_EQUALS;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            int c1 = t1.getCode(f1, dict), c2 = t2.getCode(f2, dict);
+            if (c1 < 0 || c2 < 0)
+                return p.filter(t1, t2);
+            return (c1 == c2) != negate;
+        }
+    }
+
+    /** Evaluates a predicate with {@link JoinPredicate#filter} */
+    private static final class Interpreted extends CompiledJoinPredicate {
+        private final JoinPredicate p;
+
+        Interpreted(JoinPredicate p) {
+            this.p = p;
+        }
+
+        public boolean matches(Tuple t1, Tuple t2) {
+            return p.filter(t1, t2);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package simpledb;
+
+/**
+ * CompiledPredicate is a conjunction of {@link Predicate}s specialized for
+ * the schema of the tuples it tests.
+ * <p>
+ * {@link Predicate#filter} dispatches through {@link Field#compare}, which
+ * switches on the operator for every tuple.  {@link #compile} instead picks,
+ * once per query, a class that performs exactly one comparison: integer
+ * predicates become a primitive comparison against an int constant, string
+ * equality becomes a comparison of stored bytes, and equality on a
+ * dictionary-encoded column becomes a comparison of codes.  Predicates with no
+ * specialized form fall back to interpreting the Predicate, so a compiled
+ * predicate always accepts the same tuples as the predicates it came from.
+ * <p>
+ * A compiled predicate can test either a Tuple or the serialized form of a
+ * tuple in a page, as laid out by {@link HeapPage}.  The serialized form can
+ * only be tested for fixed-length schemas, where every field is at the offset
+ * given by {@link TupleDesc#getOffset}.
+ */
+public abstract class CompiledPredicate {
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Turn specialization on or off.  When off, {@link #compile} returns
+     * predicates that interpret their Predicates; used to compare the two.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** @return true if {@link #compile} specializes predicates */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * Test a tuple in serialized form, without decoding it.
+     *
+     * @param data the bytes of a page
+     * @param off the offset in data of the first byte of the tuple
+     * @return true if the tuple satisfies the predicate
+     */
+    public abstract boolean matches(byte[] data, int off);
+
+    /**
+     * Compile the conjunction of some predicates.
+     *
+     * @param preds the predicates, over fields of td
+     * @param td the schema of the tuples that will be tested
+     * @return a predicate accepting the tuples that satisfy all of preds, or
+     *         null if preds is null or empty
+     */
+    public static CompiledPredicate compile(Predicate[] preds, TupleDesc td) {
+        if (preds == null || preds.length == 0)
+            return null;
+        if (preds.length == 1)
+            return compile(preds[0], td);
+        CompiledPredicate[] terms = new CompiledPredicate[preds.length];
+        for (int i = 0; i < preds.length; i++)
+            terms[i] = compile(preds[i], td);
+        return new And(terms);
+    }
+
+    /**
+     * Compile a single predicate.
+     *
+     * @param p a predicate over a field of td
+     * @param td the schema of the tuples that will be tested
+     * @return a predicate accepting the tuples that satisfy p
+     */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td) {
+        int field = p.getField();
+        int off = td.getOffset(field);
+        Type type = td.getFieldType(field);
+
+        if (enabled && type == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+            int c = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, off, c);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, off, c);
+            case LESS_THAN:
+                return new IntLessThan(field, off, c);
+            case LESS_THAN_OR_EQ:
+                return c == Integer.MAX_VALUE ? new True() : new IntLessThan(field, off, c + 1);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, off, c);
+            case GREATER_THAN_OR_EQ:
+                return c == Integer.MIN_VALUE ? new True() : new IntGreaterThan(field, off, c - 1);
+            }
+        }
+        if (enabled && type == Type.STRING_TYPE && p.getOperand() instanceof StringField
+                && (p.getOp() == Predicate.Op.EQUALS || p.getOp() == Predicate.Op.NOT_EQUALS)) {
+            byte[] c = asciiBytes(((StringField) p.getOperand()).getValue());
+            if (c != null)
+                return new StringEquals(field, off, c, p.getOp() == Predicate.Op.NOT_EQUALS);
+        }
+        if (enabled && type == Type.DICT_TYPE && td.getDictionary(field) != null
+                && p.getOperand() instanceof StringField
+                && (p.getOp() == Predicate.Op.EQUALS || p.getOp() == Predicate.Op.NOT_EQUALS)) {
+            StringDictionary dict = td.getDictionary(field);
+            int code = dict.lookup(((StringField) p.getOperand()).getValue());
+            boolean negate = p.getOp() == Predicate.Op.NOT_EQUALS;
+            // a value missing from the dictionary is in no tuple
+            if (code < 0)
+                return negate ? new True() : new False();
+            return new DictEquals(field, off, dict, code, negate);
+        }
+        return new Interpreted(p, td);
+    }
+
+    /** @return the bytes of s as written by StringField, or null if s is not ASCII */
+    private static byte[] asciiBytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 128)
+                return null;
+            b[i] = (byte) ch;
+        }
+        return b;
+    }
+
+    static int readInt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+            | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /** Matches tuples satisfying every one of a set of predicates */
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] terms;
+
+        And(CompiledPredicate[] terms) {
+            this.terms = terms;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate term : terms) {
+                if (!term.matches(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            for (CompiledPredicate term : terms) {
+                if (!term.matches(data, off))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /** Matches everything; used for comparisons every int satisfies */
+    private static final class True extends CompiledPredicate {
+        public boolean matches(Tuple t) {
+            return true;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return true;
+        }
+    }
+
+    /** Matches nothing; used for equality with a value missing from a dictionary */
+    private static final class False extends CompiledPredicate {
+        public boolean matches(Tuple t) {
+            return false;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return false;
+        }
+    }
+
+    private static final class IntEquals extends CompiledPredicate {
+        private final int field, off, c;
+
+        IntEquals(int field, int off, int c) {
+            this.field = field;
+            this.off = off;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return t.getInt(field) == c;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return readInt(data, off + this.off) == c;
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private final int field, off, c;
+
+        IntNotEquals(int field, int off, int c) {
+            this.field = field;
+            this.off = off;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return t.getInt(field) != c;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return readInt(data, off + this.off) != c;
+        }
+    }
+
+    /** Matches values less than c; v <= c is compiled as v < c + 1 */
+    private static final class IntLessThan extends CompiledPredicate {
+        private final int field, off, c;
+
+        IntLessThan(int field, int off, int c) {
+            this.field = field;
+            this.off = off;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return t.getInt(field) < c;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return readInt(data, off + this.off) < c;
+        }
+    }
+
+    /** Matches values greater than c; v >= c is compiled as v > c - 1 */
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private final int field, off, c;
+
+        IntGreaterThan(int field, int off, int c) {
+            this.field = field;
+            this.off = off;
+            this.c = c;
+        }
+
+        public boolean matches(Tuple t) {
+            return t.getInt(field) > c;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return readInt(data, off + this.off) > c;
+        }
+    }
+
+    /** Compares the stored bytes of a string field with an ASCII constant */
+    private static final class StringEquals extends CompiledPredicate {
+        private final int field, off;
+        private final byte[] c;
+        private final String value;
+        private final boolean negate;
+
+        StringEquals(int field, int off, byte[] c, boolean negate) {
+            this.field = field;
+            this.off = off;
+            this.c = c;
+            this.value = new String(c);
+            this.negate = negate;
+        }
+
+        public boolean matches(Tuple t) {
+            return ((StringField) t.getField(field)).getValue().equals(value) != negate;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            off += this.off;
+            if (readInt(data, off) != c.length)
+                return negate;
+            off += 4;
+            for (int i = 0; i < c.length; i++) {
+                if (data[off + i] != c[i])
+                    return negate;
+            }
+            return !negate;
+        }
+    }
+
+    /** Compares the stored code of a dictionary-encoded field with the code of a constant */
+    private static final class DictEquals extends CompiledPredicate {
+        private final int field, off, code;
+        private final StringDictionary dict;
+        private final boolean negate;
+
+        DictEquals(int field, int off, StringDictionary dict, int code, boolean negate) {
+            this.field = field;
+            this.off = off;
+            this.dict = dict;
+            this.code = code;
+            this.negate = negate;
+        }
+
+        public boolean matches(Tuple t) {
+            return (t.getCode(field, dict) == code) != negate;
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return (readInt(data, off + this.off) == code) != negate;
+        }
+    }
+
+    /** Evaluates a predicate with {@link Predicate#filter} and {@link Field#compare} */
+    private static final class Interpreted extends CompiledPredicate {
+        private final Predicate p;
+        private final TupleDesc td;
+
+        Interpreted(Predicate p, TupleDesc td) {
+            this.p = p;
+            this.td = td;
+        }
+
+        public boolean matches(Tuple t) {
+            return p.filter(t);
+        }
+
+        public boolean matches(byte[] data, int off) {
+            return p.filter(new Tuple(td, data, off));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, as the key of
+ * a {@link BTreeFile} keyed on more than one field.  Composite fields
+ * compare lexicographically: by their first fields, then by their second
+ * if those are equal, and so on.
+ * <p>
+ * A composite field may hold fewer values than another it is compared with,
+ * in which case only the values they both have are compared.  A prefix of
+ * a key thus compares equal to every key starting with it, so searching a
+ * B+ tree for the prefix (5) finds all keys (5, x), and for the prefix
+ * (5, 10) with GREATER_THAN all keys (5, y) with y &gt; 10 and (z, ...)
+ * with z &gt; 5.
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of this field, most significant first.
+     */
+    public CompositeField(Field... fields) {
+        this.fields = fields;
+    }
+
+    /** @return the number of values in this field */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /** @return the ith value of this field */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    /**
+     * Compare this field to another over the values they both have.
+     *
+     * @return a negative number, zero or a positive number if this field is
+     *         less than, equal to or greater than other
+     */
+    public int compareTo(CompositeField other) {
+        int n = Math.min(fields.length, other.fields.length);
+        for (int i = 0; i < n; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other.fields[i]))
+                return -1;
+            if (fields[i].compare(Predicate.Op.GREATER_THAN, other.fields[i]))
+                return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a CompositeField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        int c = compareTo((CompositeField) val);
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        }
+
+        return false;
+    }
+
+    /** Write the values of this field, in order */
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Return the Type of this field.  Composite fields have no Type of
+     * their own; this is the type of their first value.
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof CompositeField && Arrays.equals(fields, ((CompositeField) field).fields);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++)
+            sb.append(i > 0 ? ", " : "").append(fields[i]);
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CompressedPageCache is the second tier of the {@link BufferPool}.  When the
+ * BufferPool evicts a page, it flushes it and keeps its data here compressed
+ * with {@link LZCodec}; a later miss on the page rebuilds it from that data
+ * with {@link DbFile#createPage} instead of reading the disk.  Pages usually
+ * compress to a third or less of their size, so the two tiers together hold
+ * several times as many pages as the BufferPool alone in a little more
+ * memory.
+ * <p>
+ * The cache is bounded by the total size of the compressed images it holds,
+ * and evicts the least recently used one to make room.  A page taken back
+ * into the BufferPool leaves the cache, so each page is in at most one tier.
+ */
+public class CompressedPageCache {
+
+    private static class Entry {
+        final byte[] packed;
+        final int length;
+
+        Entry(byte[] packed, int length) {
+            this.packed = packed;
+            this.length = length;
+        }
+    }
+
+    private final long capacity;
+    private long used = 0;
+    private int hits = 0, misses = 0;
+    private final LinkedHashMap<PageId, Entry> entries = new LinkedHashMap<PageId, Entry>(16, 0.75f, true);
+
+    /**
+     * Creates a cache holding up to capacity bytes of compressed pages.
+     *
+     * @param capacity the bound on the compressed size of the cached pages;
+     *        0 disables the cache
+     */
+    public CompressedPageCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** @return true if the cache can hold any page, false if it is disabled */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Compress and cache the data of a clean page, evicting the least
+     * recently used pages if it does not fit.  Pages that do not compress
+     * are not cached.
+     */
+    public synchronized void put(PageId pid, byte[] data) {
+        remove(pid);
+        if (capacity <= 0)
+            return;
+        byte[] packed = LZCodec.compress(data, data.length);
+        if (packed.length >= data.length || packed.length > capacity)
+            return;
+        Iterator<Entry> it = entries.values().iterator();
+        while (used + packed.length > capacity) {
+            used -= it.next().packed.length;
+            it.remove();
+        }
+        entries.put(pid, new Entry(packed, data.length));
+        used += packed.length;
+    }
+
+    /**
+     * Remove a page from the cache and return its data.
+     *
+     * @return the uncompressed data of the page, or null if it is not cached
+     */
+    public synchronized byte[] take(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        used -= e.packed.length;
+        return LZCodec.decompress(e.packed, 0, e.length);
+    }
+
+    /** @return true if the cache holds the data of the specified page */
+    public synchronized boolean contains(PageId pid) {
+        return entries.containsKey(pid);
+    }
+
+    /** Drop a page from the cache, if it is there */
+    public synchronized void remove(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null)
+            used -= e.packed.length;
+    }
+
+    /** Drop all pages of the specified table from the cache */
+    public synchronized void removeTable(int tableId) {
+        Iterator<Map.Entry<PageId, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, Entry> e = it.next();
+            if (e.getKey().getTableId() == tableId) {
+                used -= e.getValue().packed.length;
+                it.remove();
+            }
+        }
+    }
+
+    /** @return the number of pages in the cache */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the compressed size of the pages in the cache, in bytes */
+    public synchronized long bytesUsed() {
+        return used;
+    }
+
+    /** @return the number of take calls that found their page */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /** @return the number of take calls that did not find their page */
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
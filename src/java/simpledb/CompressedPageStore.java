@@ -0,0 +1,369 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * CompressedPageStore stores the pages of a DbFile compressed with
+ * {@link LZCodec}.  Compressed pages vary in size, so they are packed into
+ * the data file one after the other, and a page map records where each one
+ * is.  Files use it in their readPage and writePage, so the BufferPool only
+ * ever sees uncompressed pages.
+ * <p>
+ * Each stored page is a byte that is 1 if the page is compressed and 0 if it
+ * is stored as is (when compression would not shrink it), a varint with its
+ * uncompressed length, and the page data.  A rewritten page never overwrites
+ * its old version: it is written to the first free extent of the data file
+ * it fits in, or to the end of the file, then its new place is recorded, and
+ * only then is its old space freed.  The free extents are the gaps between
+ * the spaces of the pages, so they are found again from the page map when
+ * the store is opened.
+ * <p>
+ * The page map of data file f is kept in f.pagemap, as 16 bytes per page:
+ * the offset of the page in f (a long), its stored length and the space it
+ * may use there (ints).  A stored length of 0 means the page was never
+ * written, and reads as zeroes.  A write appends the new entry of its page
+ * to the log f.pagemap.log, as the page number, the entry and a CRC32 of
+ * them, and the log is replayed over the map when the store is opened; a
+ * record cut short by a crash fails its checksum and is ignored, leaving the
+ * page at its old place.  Once the log has about as many records as there
+ * are pages, the map is rewritten to a temporary file renamed over
+ * f.pagemap, and the log emptied, so each write costs a constant amount of
+ * map I/O on average.
+ */
+public class CompressedPageStore {
+
+    private static final int ENTRY_SIZE = 16;
+    /** The page number, the map entry and its checksum */
+    private static final int LOG_RECORD_SIZE = 4 + ENTRY_SIZE + 4;
+    /** The number of log records kept before the map is rewritten, if there are fewer pages */
+    private static final int MIN_LOG_RECORDS = 64;
+
+    private final File file, mapFile, logFile;
+    /** The data file and the map log, opened when first used */
+    private FileChannel data;
+    private DataOutputStream log;
+    private int logRecords = 0;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0], capacities = new int[0];
+    private int numPages = 0;
+    /** The free extents of the data file: their lengths by offset */
+    private final TreeMap<Long, Integer> free = new TreeMap<Long, Integer>();
+
+    /**
+     * Open the compressed pages stored in dataFile, reading its page map.
+     *
+     * @throws IOException if the page map cannot be read
+     */
+    public CompressedPageStore(File dataFile) throws IOException {
+        this.file = dataFile;
+        this.mapFile = new File(dataFile.getAbsolutePath() + ".pagemap");
+        this.logFile = new File(dataFile.getAbsolutePath() + ".pagemap.log");
+        if (mapFile.exists()) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)))) {
+                int n = (int) (mapFile.length() / ENTRY_SIZE);
+                ensureCapacity(n);
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = dis.readLong();
+                    lengths[i] = dis.readInt();
+                    capacities[i] = dis.readInt();
+                }
+                numPages = n;
+            }
+        }
+        if (logFile.exists())
+            replayLog();
+        findFreeExtents();
+    }
+
+    /** Apply the records of the map log, up to the first incomplete one */
+    private void replayLog() throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            byte[] record = new byte[LOG_RECORD_SIZE];
+            for (long n = logFile.length() / LOG_RECORD_SIZE; n > 0; n--) {
+                dis.readFully(record);
+                ByteBuffer b = ByteBuffer.wrap(record);
+                int pageNo = b.getInt();
+                long offset = b.getLong();
+                int length = b.getInt(), capacity = b.getInt();
+                if (pageNo < 0 || b.getInt() != checksum(record))
+                    break;
+                if (pageNo >= numPages) {
+                    ensureCapacity(pageNo + 1);
+                    numPages = pageNo + 1;
+                }
+                offsets[pageNo] = offset;
+                lengths[pageNo] = length;
+                capacities[pageNo] = capacity;
+                logRecords++;
+            }
+        }
+    }
+
+    /** @return the CRC32 of a log record but its last 4 bytes */
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, LOG_RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    /** Record the gaps between the spaces of the pages as free extents */
+    private void findFreeExtents() {
+        Integer[] byOffset = new Integer[numPages];
+        for (int i = 0; i < numPages; i++)
+            byOffset[i] = i;
+        Arrays.sort(byOffset, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        long end = 0;
+        for (int i : byOffset) {
+            if (capacities[i] == 0)
+                continue;
+            if (offsets[i] > end)
+                free.put(end, (int) (offsets[i] - end));
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+    }
+
+    /**
+     * Take space for a page from the first free extent it fits in.
+     *
+     * @return the offset of the space, or -1 if no free extent is large enough
+     */
+    private long allocate(int length) {
+        for (Map.Entry<Long, Integer> e : free.entrySet()) {
+            // read the entry before removing it, which may reuse it
+            long offset = e.getKey();
+            int extent = e.getValue();
+            if (extent >= length) {
+                free.remove(offset);
+                if (extent > length)
+                    free.put(offset + length, extent - length);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /** Return space to the free extents, merging it with adjacent ones */
+    private void release(long offset, int length) {
+        Map.Entry<Long, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            offset = before.getKey();
+            length += before.getValue();
+            free.remove(offset);
+        }
+        Integer after = free.remove(offset + length);
+        if (after != null)
+            length += after;
+        free.put(offset, length);
+    }
+
+    /**
+     * Store the pages of an uncompressed file in a new compressed file.
+     *
+     * @param raw the uncompressed file
+     * @param dataFile the compressed file to write; any existing file and
+     *        page map are replaced
+     * @param firstPageSize the size of the first page of raw, which may
+     *        differ from the others (as the root pointer page of a BTreeFile)
+     * @param pageSize the size of the other pages of raw
+     */
+    public static void compressFile(File raw, File dataFile, int firstPageSize, int pageSize) throws IOException {
+        dataFile.delete();
+        new File(dataFile.getAbsolutePath() + ".pagemap").delete();
+        new File(dataFile.getAbsolutePath() + ".pagemap.log").delete();
+        CompressedPageStore store = new CompressedPageStore(dataFile);
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(raw)))) {
+            long remaining = raw.length();
+            int size = firstPageSize;
+            for (int pageNo = 0; remaining >= size; pageNo++) {
+                byte[] page = new byte[size];
+                dis.readFully(page);
+                store.store(pageNo, page);
+                remaining -= size;
+                size = pageSize;
+            }
+        }
+        store.writeMap();
+        store.close();
+    }
+
+    private void ensureCapacity(int n) {
+        if (offsets.length >= n)
+            return;
+        int cap = Math.max(n, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+        capacities = Arrays.copyOf(capacities, cap);
+    }
+
+    /** @return the number of pages in the store */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the number of bytes the compressed pages take on disk */
+    public long storedBytes() {
+        return file.length();
+    }
+
+    /**
+     * Read and decompress a page.
+     *
+     * @param pageNo the page to read
+     * @param size the uncompressed size of pages that were never written
+     * @return the page data
+     * @throws IllegalArgumentException if the page does not exist
+     * @throws IOException if the page cannot be read or is corrupt
+     */
+    public byte[] read(int pageNo, int size) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pageNo < 0 || pageNo >= numPages)
+                throw new IllegalArgumentException("no page " + pageNo);
+            offset = offsets[pageNo];
+            length = lengths[pageNo];
+        }
+        if (length == 0)
+            return new byte[size];
+        byte[] stored = new byte[length];
+        ByteBuffer buf = ByteBuffer.wrap(stored);
+        FileChannel channel = dataChannel();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0)
+                throw new EOFException("page " + pageNo + " is past the end of " + file);
+        }
+        int pos = 1, rawLength = 0, shift = 0, b;
+        do {
+            b = stored[pos++];
+            rawLength |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        try {
+            if (stored[0] == 0)
+                return Arrays.copyOfRange(stored, pos, pos + rawLength);
+            return LZCodec.decompress(stored, pos, rawLength);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("page " + pageNo + ": " + e.getMessage());
+        }
+    }
+
+    /** @return the data file, opening it if it is not open */
+    private synchronized FileChannel dataChannel() throws IOException {
+        if (data == null)
+            data = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        return data;
+    }
+
+    /**
+     * Close the data file and the map log; they are reopened if the store
+     * is used again.
+     */
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Compress and write a page, adding it (and any missing pages before
+     * it) if it does not exist yet.  The page is written to new space, and
+     * its old space is freed once the map records the new one.
+     */
+    public synchronized void write(int pageNo, byte[] data) throws IOException {
+        long old = offsets.length > pageNo ? offsets[pageNo] : 0;
+        int oldCapacity = offsets.length > pageNo ? capacities[pageNo] : 0;
+        store(pageNo, data);
+        if (logRecords >= Math.max(numPages, MIN_LOG_RECORDS))
+            writeMap();
+        else
+            appendLog(pageNo);
+        if (oldCapacity > 0)
+            release(old, oldCapacity);
+    }
+
+    /** Append the map entry of a page to the map log */
+    private void appendLog(int pageNo) throws IOException {
+        if (log == null)
+            log = new DataOutputStream(new FileOutputStream(logFile, true));
+        ByteBuffer b = ByteBuffer.allocate(LOG_RECORD_SIZE);
+        b.putInt(pageNo).putLong(offsets[pageNo]).putInt(lengths[pageNo]).putInt(capacities[pageNo]);
+        b.putInt(checksum(b.array()));
+        log.write(b.array());
+        logRecords++;
+    }
+
+    /**
+     * Compress and write a page to new space, without persisting the page
+     * map.  The space the page leaves is not freed.
+     */
+    private void store(int pageNo, byte[] data) throws IOException {
+        byte[] packed = LZCodec.compress(data, data.length);
+        boolean compressed = packed.length < data.length;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(packed.length + 6);
+        baos.write(compressed ? 1 : 0);
+        int v = data.length;
+        while ((v & ~0x7f) != 0) {
+            baos.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        baos.write(v);
+        baos.write(compressed ? packed : data);
+        byte[] stored = baos.toByteArray();
+
+        if (pageNo >= numPages) {
+            ensureCapacity(pageNo + 1);
+            numPages = pageNo + 1;
+        }
+        FileChannel channel = dataChannel();
+        long offset = allocate(stored.length);
+        if (offset < 0)
+            offset = channel.size();
+        ByteBuffer buf = ByteBuffer.wrap(stored);
+        while (buf.hasRemaining())
+            channel.write(buf, offset + buf.position());
+        offsets[pageNo] = offset;
+        capacities[pageNo] = stored.length;
+        lengths[pageNo] = stored.length;
+    }
+
+    /**
+     * Persist the page map, replacing the old one in a single rename, and
+     * empty the map log it includes.
+     */
+    private void writeMap() throws IOException {
+        File tmp = new File(mapFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (int i = 0; i < numPages; i++) {
+                dos.writeLong(offsets[i]);
+                dos.writeInt(lengths[i]);
+                dos.writeInt(capacities[i]);
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        logFile.delete();
+        logRecords = 0;
+    }
+}
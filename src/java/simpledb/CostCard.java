@@ -1,14 +1,13 @@
 package simpledb;
-import java.util.Vector;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+/** Class filled in by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
+    cost and cardinality of the best way to add one more join to a subplan.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
-    public Vector<LogicalJoinNode> plan;
+    /** True if the added join is performed with its inner and outer swapped */
+    public boolean swapped;
 }
@@ -17,6 +17,7 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final QueryPlanCache _queryplancache;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +25,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _queryplancache = new QueryPlanCache(QueryPlanCache.DEFAULT_CAPACITY);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -50,16 +52,29 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the query plan cache of the static Database instance */
+    public static QueryPlanCache getQueryPlanCache() {
+        return _instance.get()._queryplancache;
+    }
+
     /**
-     * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * Method used for testing -- create a new instance of the buffer pool,
+     * without a second tier, and return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, 0);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with a second tier of the specified size and return it
+     */
+    public static BufferPool resetBufferPool(int pages, long secondTierBytes) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, secondTierBytes));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,6 +90,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        // release the files the tables of the old catalog keep open
+        _instance.get()._catalog.clear();
         _instance.set(new Database());
     }
 
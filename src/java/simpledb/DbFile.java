@@ -19,6 +19,30 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Construct a page of this file from its data, as returned by
+     * {@link Page#getPageData}, without reading the disk.  The BufferPool
+     * uses this to restore pages kept in its compressed second tier.
+     *
+     * @return the page, or null if this file cannot construct its pages
+     *         this way, in which case the page is read with readPage
+     * @throws IOException if data is not the data of a page of this file
+     * @see CompressedPageCache
+     */
+    public default Page createPage(PageId id, byte[] data) throws IOException {
+        return null;
+    }
+
+    /**
+     * @return true if insertTuple and deleteTuple pass the pages they dirty
+     *         to {@link BufferPool#updatePages} themselves, before other
+     *         threads can change those pages, so the BufferPool must not
+     *         cache the returned pages again
+     */
+    public default boolean updatesOwnPages() {
+        return false;
+    }
+
     /**
      * Push the specified page to disk.
      *
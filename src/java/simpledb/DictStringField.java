@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a value of a dictionary-encoded string
+ * column.  It behaves as a {@link StringField} with the same value, but
+ * compares for equality with fields of the same dictionary by their codes,
+ * and is serialized as its code.
+ *
+ * @see Type#DICT_TYPE
+ * @see StringDictionary
+ */
+public class DictStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient StringDictionary dictionary;
+	private final int code;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dictionary
+	 *            The dictionary of the column the field belongs to
+	 * @param code
+	 *            The code of the value in dictionary
+	 * @param value
+	 *            The value with that code
+	 */
+	DictStringField(StringDictionary dictionary, int code, String value) {
+		super(value, Type.STRING_LEN);
+		this.dictionary = dictionary;
+		this.code = code;
+	}
+
+	/**
+	 * @return the code of this field's value in its dictionary
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the dictionary this field's value was read from
+	 */
+	public StringDictionary getDictionary() {
+		return dictionary;
+	}
+
+	private boolean sameDictionary(Field field) {
+		return dictionary != null && field instanceof DictStringField
+				&& ((DictStringField) field).dictionary == dictionary;
+	}
+
+	/**
+	 * Fields equal to a StringField with the same value must hash alike, so
+	 * the hash is that of the value.  The value is the dictionary's String
+	 * for the code, which caches its hash, so hashing costs the same as
+	 * hashing the code after the first field with that code.
+	 */
+	public int hashCode() {
+		return getValue().hashCode();
+	}
+
+	public boolean equals(Object field) {
+		if (!(field instanceof StringField))
+			return false;
+		if (sameDictionary((StringField) field))
+			return ((DictStringField) field).code == code;
+		return super.equals(field);
+	}
+
+	/**
+	 * Write the code of this string to dos.
+	 *
+	 * @param dos
+	 *            Where the code is written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		dos.writeInt(code);
+	}
+
+	/**
+	 * Compare the specified field to the value of this Field, comparing
+	 * codes for equality tests against fields of the same dictionary.
+	 *
+	 * @see Field#compare
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		if (sameDictionary(val)) {
+			if (op == Predicate.Op.EQUALS)
+				return ((DictStringField) val).code == code;
+			if (op == Predicate.Op.NOT_EQUALS)
+				return ((DictStringField) val).code != code;
+		}
+		return super.compare(op, val);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+
+		return Type.DICT_TYPE;
+	}
+}
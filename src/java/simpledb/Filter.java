@@ -10,6 +10,8 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private DbIterator child;
+    /** p, compiled for the schema of child when the filter is opened */
+    private transient CompiledPredicate compiled;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -38,6 +40,7 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
         // some code goes here
+        compiled = CompiledPredicate.compile(p, child.getTupleDesc());
         super.open();
         child.open();
     }
@@ -66,7 +69,7 @@ public class Filter extends Operator {
         // some code goes here
         while(child.hasNext()) {
             Tuple t = child.next();
-            if (p.filter((t))) {
+            if (compiled.matches(t)) {
                 return t;
             }
         }
@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Each instance of HashBucketPage stores data for one page of the chain of
+ * pages of a bucket of a HashIndexFile, and implements the Page interface
+ * that is used by BufferPool.  The tuples of a bucket are in no particular
+ * order.
+ *
+ * @see HashIndexFile
+ * @see BufferPool
+ */
+public class HashBucketPage implements Page {
+
+    /** Bytes taken by the pointer to the next page of the bucket */
+    static final int POINTER_SIZE = 4;
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final byte header[];
+    private final Tuple tuples[];
+    private final int numSlots;
+    private int numUsed;
+    private int nextPage; // next page of the bucket, or 0
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format of a HashBucketPage is the page number of the next page of
+     * its bucket (0 for the last page), a set of header bytes indicating the
+     * slots of the page that are in use, and some number of tuple slots.
+     * Specifically, the number of tuples is equal to: <p>
+     *          floor((BufferPool.getPageSize()*8 - 4*8) / (tuple size * 8 + 1))
+     * <p> so a page of zeros is an empty last page.
+     *
+     * @param id - the id of this page
+     * @param data - the raw data of this page
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getMaxTuples();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        nextPage = dis.readInt();
+        header = new byte[getHeaderSize()];
+        dis.readFully(header);
+        numUsed = BTreePage.countUsedSlots(header);
+
+        tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            tuples[i] = readNextTuple(dis, i);
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /** @return an empty page */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Retrieve the maximum number of tuples this page can hold. */
+    public int getMaxTuples() {
+        return getMaxTuples(td);
+    }
+
+    /** @return the maximum number of tuples of the given TupleDesc a page can hold */
+    static int getMaxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8 - POINTER_SIZE * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** Computes the number of bytes in the header of the page */
+    private int getHeaderSize() {
+        return (numSlots + 7) / 8;
+    }
+
+    /** Read the tuple in the specified slot, or skip it if the slot is empty */
+    private Tuple readNextTuple(DataInputStream dis, int slotId) throws IOException {
+        if (!isSlotUsed(slotId)) {
+            dis.skipBytes(td.getSize());
+            return null;
+        }
+
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(dis));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format read by the constructor.
+     */
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPage);
+            dos.write(header);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i)) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dos);
+            }
+            // padding
+            dos.write(new byte[len - (POINTER_SIZE + header.length + td.getSize() * numSlots)]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if (!rid.getPageId().equals(pid))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("tried to delete null tuple.");
+        markSlotUsed(rid.tupleno(), false);
+        tuples[rid.tupleno()] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        int slot = BTreePage.nextSlot(header, 0, numSlots, false);
+        if (slot == -1)
+            throw new DbException("called addTuple on page with no empty slots.");
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /** @return the id of the next page of the bucket, or null if this is its last page */
+    public HashPageId getNextPageId() {
+        return nextPage == 0 ? null : new HashPageId(pid.getTableId(), nextPage);
+    }
+
+    /** Set the next page of the bucket; null makes this its last page */
+    public void setNextPageId(HashPageId id) {
+        nextPage = id == null ? 0 : id.pageNumber();
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return numUsed;
+    }
+
+    /** @return the number of empty slots on this page */
+    public int getNumEmptySlots() {
+        return numSlots - numUsed;
+    }
+
+    /** @return true if the associated slot on this page is filled */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** Fills or clears a slot on this page */
+    private void markSlotUsed(int i, boolean value) {
+        if (isSlotUsed(i) == value)
+            return;
+        if (value)
+            header[i / 8] |= 1 << (i % 8);
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+        numUsed += value ? 1 : -1;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page; the page must not be
+     *         modified while it is in use
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = BTreePage.nextSlot(header, 0, numSlots, true);
+
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            public Tuple next() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                Tuple t = tuples[next];
+                next = BTreePage.nextSlot(header, next + 1, numSlots, true);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashBucketPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashBucketPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
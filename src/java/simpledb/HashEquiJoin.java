@@ -10,6 +10,10 @@ public class HashEquiJoin extends Operator {
     private static final long serialVersionUID = 1L;
     private JoinPredicate p;
     private DbIterator child1, child2;
+    /** p, compiled for the schemas of the children when the join is opened */
+    private transient CompiledJoinPredicate compiled;
+    /** The schema of the output, computed on first use */
+    private transient TupleDesc td;
     private Tuple t1;
 
     /**
@@ -37,7 +41,9 @@ public class HashEquiJoin extends Operator {
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
     
     public String getJoinField1Name()
@@ -54,6 +60,7 @@ public class HashEquiJoin extends Operator {
     
     public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
         // some code goes here
+        compiled = CompiledJoinPredicate.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
         child1.open();
         child2.open();
         super.open();
@@ -100,16 +107,8 @@ public class HashEquiJoin extends Operator {
             while (child2.hasNext()) {
                 Tuple t2 = child2.next();
 //                System.out.println(t1.toString() + ", " + t2.toString());
-                if (p.filter(t1, t2)) {
-                    Tuple t = new Tuple(getTupleDesc());
-                    for (int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-                        t.setField(i, t1.getField(i));
-                    }
-                    for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
-                        t.setField(t1.getTupleDesc().numFields() + i, t2.getField(i));
-                    }
-//                    System.out.println(t1.toString() + ", " + t2.toString() + ": " + t.toString());
-                    return t;
+                if (compiled.matches(t1, t2)) {
+                    return Tuple.concat(getTupleDesc(), t1, t2);
                 }
             }
             child2.rewind();
@@ -129,6 +128,7 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.td = null;
     }
     
 }
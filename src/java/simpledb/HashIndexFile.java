@@ -0,0 +1,457 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an implementation of a DbFile that stores its tuples in a
+ * linear hash table on one of their fields, to look up the tuples with a
+ * given value of that field by reading a single bucket, instead of
+ * descending a B+ tree.  Unlike a {@link BTreeFile}, it keeps its tuples in
+ * no particular order, so it only answers equality predicates on its key.
+ * <p>
+ * Page 0 of the file is a {@link HashMetaPage}, and the others are
+ * {@link HashBucketPage}s.  Each bucket is a chain of pages: its first page,
+ * at a place computed from its number, then the overflow pages added as it
+ * fills up.  Looking a key up reads the meta page and the chain of its
+ * bucket, usually a single page.
+ * <p>
+ * The table grows one bucket at a time: when the tuples fill the buckets
+ * past {@link #FILL_FACTOR}, the next bucket in order is split, moving the
+ * tuples whose hash values now map to the new bucket, whichever bucket
+ * overflowed.  Overflow pages emptied by splits and deletes are reused.
+ *
+ * @see HashMetaPage
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements DbFile {
+
+    /** The fraction of the buckets' first pages the tuples fill before a bucket is split */
+    static final double FILL_FACTOR = 0.75;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash index file backed by the specified file.  An empty
+     * file is initialized with a single bucket when it is first used.
+     *
+     * @param f - the file that stores the on-disk backing store for this
+     *            hash index file
+     * @param key - the field which the tuples are hashed on
+     * @param td - the tuple descriptor of tuples in the file
+     * @throws IllegalArgumentException if td is variable-length or has
+     *            dictionary-encoded fields
+     */
+    public HashIndexFile(File f, int key, TupleDesc td) {
+        if (td.isVariableLength())
+            throw new IllegalArgumentException("hash index files do not support variable-length tuples");
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.DICT_TYPE)
+                throw new IllegalArgumentException("hash index files do not support dictionary-encoded fields");
+        }
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /** Returns the File backing this HashIndexFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashIndexFile: the hash code
+     * of its absolute file name.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Returns the index of the field that this file is hashed on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /** Returns the number of pages in this file, including the meta page */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Read a page from the file on disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file
+     */
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != tableid || pid.pageNumber() >= numPages())
+            throw new IllegalArgumentException("Read past end of table");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+            raf.readFully(data);
+            return createPage(pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        HashPageId id = (HashPageId) pid;
+        if (id.pageNumber() == 0)
+            return new HashMetaPage(id, data);
+        return new HashBucketPage(id, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+    }
+
+    /** @return the key of the specified tuple */
+    public Field getKey(Tuple t) {
+        return t.getField(keyField);
+    }
+
+    /**
+     * Hash a key, mixing the bits of its hash code so that the low bits the
+     * buckets are chosen by depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the id of the first page of the specified bucket */
+    private HashPageId bucketPageId(HashMetaPage meta, int bucket) {
+        return new HashPageId(tableid, meta.bucketPageNo(bucket));
+    }
+
+    /** Write the meta page and the page of the first bucket of an empty file */
+    private synchronized void initialize() throws IOException {
+        if (numPages() > 0)
+            return;
+        try (FileOutputStream fos = new FileOutputStream(f, true)) {
+            fos.write(HashMetaPage.createEmptyPageData());
+            fos.write(HashBucketPage.createEmptyPageData());
+        }
+    }
+
+    /**
+     * Check that the file is empty, or starts with a meta page holding the
+     * magic number and version of hash index files, so that a heap file, or
+     * a hash index file of another version, is not read as one.
+     *
+     * @return true if the file can be read as a hash index file
+     */
+    boolean hasHashFormat() throws IOException {
+        long length = f.length();
+        if (length == 0)
+            return true;
+        if (length < BufferPool.getPageSize())
+            return false;
+        byte[] header = new byte[8];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.readFully(header);
+        }
+        return HashMetaPage.isMetaPage(header);
+    }
+
+    /**
+     * Create a hash index file holding the tuples of another file, hashed on
+     * one of their fields, and add it to the catalog.  This loads the tables
+     * stored with the "hash" option of {@link Catalog#loadSchema}, whose data
+     * files are written as heap files.
+     *
+     * @param source - the file whose tuples are loaded
+     * @param hashFile - the file to store the hash index file in; it must be
+     *            empty or not exist
+     * @param key - the field which the tuples are hashed on
+     * @return the loaded hash index file
+     */
+    public static HashIndexFile convert(DbFile source, File hashFile, int key)
+            throws DbException, IOException, TransactionAbortedException {
+        if (hashFile.length() > 0)
+            throw new IllegalArgumentException(hashFile + " is not empty");
+        HashIndexFile hf = new HashIndexFile(hashFile, key, source.getTupleDesc());
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = source.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            Database.getBufferPool().insertTuple(tid, hf.getId(), it.next());
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    /**
+     * Append empty pages to the end of the file.
+     * @return the page number of the first of them
+     */
+    private synchronized int appendEmptyPages(int n) throws IOException {
+        int first = numPages();
+        try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true))) {
+            for (int i = 0; i < n; i++)
+                bw.write(HashBucketPage.createEmptyPageData());
+        }
+        // make sure no stale copies of the pages are cached
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().discardPage(new HashPageId(tableid, first + i));
+        return first;
+    }
+
+    /**
+     * Method to encapsulate the process of locking/fetching a page.  First the
+     * method checks the local cache ("dirtypages"), and if it can't find the
+     * requested page there, it fetches it from the buffer pool.  It also adds
+     * pages to the dirtypages cache if they are fetched with read-write
+     * permission, since presumably they will soon be dirtied by this
+     * transaction.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (dirtypages.containsKey(pid))
+            return dirtypages.get(pid);
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    /**
+     * Add a tuple to the chain of pages of a bucket, adding an overflow page
+     * to the chain if all its pages are full.
+     */
+    private void insertIntoBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta,
+            int bucket, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, bucketPageId(meta, bucket), Permissions.READ_ONLY);
+        while (page.getNumEmptySlots() == 0 && page.getNextPageId() != null)
+            page = (HashBucketPage) getPage(tid, dirtypages, page.getNextPageId(), Permissions.READ_ONLY);
+        page = (HashBucketPage) getPage(tid, dirtypages, page.getId(), Permissions.READ_WRITE);
+        if (page.getNumEmptySlots() == 0) {
+            HashBucketPage overflow = allocateOverflowPage(tid, dirtypages, meta);
+            page.setNextPageId(overflow.getId());
+            page = overflow;
+        }
+        page.insertTuple(t);
+    }
+
+    /** @return an empty overflow page, from the list of free pages if it is not empty */
+    private HashBucketPage allocateOverflowPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta)
+            throws DbException, IOException, TransactionAbortedException {
+        if (meta.getFreePage() != 0) {
+            HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages,
+                    new HashPageId(tableid, meta.getFreePage()), Permissions.READ_WRITE);
+            HashPageId next = page.getNextPageId();
+            meta.setFreePage(next == null ? 0 : next.pageNumber());
+            page.setNextPageId(null);
+            return page;
+        }
+        int pageNo = appendEmptyPages(1);
+        dirtypages.remove(new HashPageId(tableid, pageNo));
+        return (HashBucketPage) getPage(tid, dirtypages, new HashPageId(tableid, pageNo), Permissions.READ_WRITE);
+    }
+
+    /** Add an empty overflow page to the list of free pages */
+    private void freeOverflowPage(HashMetaPage meta, HashBucketPage page) {
+        page.setNextPageId(meta.getFreePage() == 0 ? null : new HashPageId(tableid, meta.getFreePage()));
+        meta.setFreePage(page.getId().pageNumber());
+    }
+
+    /**
+     * Split the next bucket in order: create a new bucket, move the tuples
+     * whose hash values now map to it, and pack the rest into the first
+     * pages of the old bucket, freeing its overflow pages left empty.
+     */
+    private void split(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta)
+            throws DbException, IOException, TransactionAbortedException {
+        int oldBucket = meta.getSplitBucket();
+        int blockSize = meta.getNextBlockSize();
+        if (blockSize > 0)
+            meta.setNextBlockStart(appendEmptyPages(blockSize));
+        int newBucket = meta.addBucket();
+
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        ArrayList<Tuple> stay = new ArrayList<Tuple>(), move = new ArrayList<Tuple>();
+        for (HashPageId id = bucketPageId(meta, oldBucket); id != null; ) {
+            HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+            chain.add(page);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            page.iterator().forEachRemaining(tuples::add);
+            for (Tuple t : tuples) {
+                page.deleteTuple(t);
+                (meta.bucket(hash(getKey(t))) == newBucket ? move : stay).add(t);
+            }
+            id = page.getNextPageId();
+        }
+
+        int last = 0;
+        for (Tuple t : stay) {
+            if (chain.get(last).getNumEmptySlots() == 0)
+                last++;
+            chain.get(last).insertTuple(t);
+        }
+        chain.get(last).setNextPageId(null);
+        for (int i = last + 1; i < chain.size(); i++)
+            freeOverflowPage(meta, chain.get(i));
+
+        for (Tuple t : move)
+            insertIntoBucket(tid, dirtypages, meta, newBucket, t);
+    }
+
+    /**
+     * Insert a tuple into the bucket of its key, and split a bucket if the
+     * buckets are then too full.
+     *
+     * @return a list of all pages that were dirtied by this operation
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        initialize();
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = (HashMetaPage) getPage(tid, dirtypages, new HashPageId(tableid, 0), Permissions.READ_WRITE);
+        insertIntoBucket(tid, dirtypages, meta, meta.bucket(hash(getKey(t))), t);
+        meta.setNumTuples(meta.getNumTuples() + 1);
+        if (meta.getNumTuples() > FILL_FACTOR * (meta.getMaxBucket() + 1) * HashBucketPage.getMaxTuples(td))
+            split(tid, dirtypages, meta);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Delete a tuple from this file, and free the overflow page it was on if
+     * that page is left empty.
+     *
+     * @return a list of all pages that were dirtied by this operation
+     * @throws DbException if the tuple is not in this file
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tried to delete tuple not in this table");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = (HashMetaPage) getPage(tid, dirtypages, new HashPageId(tableid, 0), Permissions.READ_WRITE);
+        HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, (HashPageId) rid.getPageId(), Permissions.READ_WRITE);
+        HashPageId first = bucketPageId(meta, meta.bucket(hash(getKey(t))));
+        page.deleteTuple(t);
+        meta.setNumTuples(meta.getNumTuples() - 1);
+
+        if (page.getNumTuples() == 0 && !page.getId().equals(first)) {
+            HashBucketPage prev = (HashBucketPage) getPage(tid, dirtypages, first, Permissions.READ_ONLY);
+            while (!page.getId().equals(prev.getNextPageId()))
+                prev = (HashBucketPage) getPage(tid, dirtypages, prev.getNextPageId(), Permissions.READ_ONLY);
+            prev = (HashBucketPage) getPage(tid, dirtypages, prev.getId(), Permissions.READ_WRITE);
+            prev.setNextPageId(page.getNextPageId());
+            freeOverflowPage(meta, page);
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Get a read-only iterator over all the tuples in this file, bucket by
+     * bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null);
+    }
+
+    /**
+     * Return an iterator over the tuples whose key satisfies the specified
+     * predicate.  An EQUALS predicate only reads the bucket of its value;
+     * other predicates are tested against every tuple in the file.
+     *
+     * @param tid - the transaction id
+     * @param ipred - the predicate on the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashFileIterator(tid, ipred);
+    }
+
+    /**
+     * Helper class that implements the Java Iterator for tuples of a
+     * HashIndexFile, reading the chains of a range of buckets in order.
+     */
+    private class HashFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private HashMetaPage meta;
+        private int bucket, lastBucket;
+        private HashPageId nextPage;
+        private Iterator<Tuple> it;
+
+        HashFileIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it = null;
+            nextPage = null;
+            if (numPages() == 0) {
+                // nothing has been inserted yet
+                bucket = 0;
+                lastBucket = -1;
+                return;
+            }
+            meta = (HashMetaPage) Database.getBufferPool().getPage(tid, new HashPageId(tableid, 0), Permissions.READ_ONLY);
+            if (ipred != null && ipred.getOp() == Predicate.Op.EQUALS && ipred.getUpperOp() == null) {
+                bucket = lastBucket = meta.bucket(hash(ipred.getField()));
+            }
+            else {
+                bucket = 0;
+                lastBucket = meta.getMaxBucket();
+            }
+            if (bucket <= lastBucket)
+                nextPage = bucketPageId(meta, bucket);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (it != null && it.hasNext()) {
+                    Tuple t = it.next();
+                    if (ipred == null || ipred.matches(getKey(t)))
+                        return t;
+                }
+                if (nextPage == null) {
+                    if (meta == null || bucket >= lastBucket)
+                        return null;
+                    nextPage = bucketPageId(meta, ++bucket);
+                }
+                HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid, nextPage, Permissions.READ_ONLY);
+                it = page.iterator();
+                nextPage = page.getNextPageId();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            meta = null;
+            it = null;
+            nextPage = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashIndexScan is an operator which reads the tuples of a
+ * {@link HashIndexFile} whose key equals a value, by reading only the
+ * bucket of that value.
+ */
+public class HashIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan of the tuples of a hash index file matching a predicate
+     * on its key.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the hash index file to scan.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the key; only EQUALS predicates are
+     *            answered from a single bucket
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        HashIndexFile file = (HashIndexFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.it = file.indexIterator(tid, ipred);
+        TupleDesc fileTd = file.getTupleDesc();
+        Type[] types = new Type[fileTd.numFields()];
+        String[] names = new String[fileTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = fileTd.getFieldType(i);
+            names[i] = tableAlias + "." + fileTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the predicate on the key of the table */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *         the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is page 0 of a HashIndexFile.  It starts with a magic number
+ * and a format version, which mark the file as a hash index file, then
+ * holds the state of the file's linear hash table: the number of buckets, the masks that map hash
+ * values to buckets, the number of tuples, the list of free overflow pages,
+ * and where the pages of each bucket are.
+ * <p>
+ * Buckets are created one at a time, and their pages are allocated in
+ * blocks: the buckets of split point s, from 2^(s-1) to 2^s - 1 (and bucket
+ * 0, at split point 0), are on consecutive pages, starting at the page
+ * recorded for s.  The block of a split point is allocated when its first
+ * bucket is created, so overflow pages allocated in between do not move the
+ * pages of later buckets, and a bucket's page is found without reading any
+ * other page.
+ *
+ * @see HashIndexFile
+ */
+public class HashMetaPage implements Page {
+
+    /** The number of split points, enough for 2^31 buckets */
+    static final int NUM_SPLIT_POINTS = 32;
+    /** The first int of the meta page, "HASH" in ASCII, marking a hash index file */
+    static final int MAGIC = 0x48415348;
+    /** The version of the format of hash index files, the second int of the meta page */
+    static final int VERSION = 1;
+    /** The bytes before the first page of the block of split point 0 */
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private final HashPageId pid;
+    private int maxBucket;
+    private int highMask;
+    private int lowMask;
+    private int numTuples;
+    private int freePage;
+    private final int[] blockStart = new int[NUM_SPLIT_POINTS];
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashMetaPage from a set of bytes of data read from disk:
+     * {@link #MAGIC} and {@link #VERSION}, the highest bucket number, the
+     * high and low masks, the number of tuples, the first free overflow page
+     * (or 0 if there is none), then the first page of the block of each
+     * split point (or 0 if it has none yet), each as a 4-byte integer.
+     *
+     * @param id - the id of this page
+     * @param data - the raw data of this page
+     * @throws IOException if data is not the meta page of a hash index file
+     *         of this version
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        if (!isMetaPage(data))
+            throw new IOException("not the meta page of a version " + VERSION + " hash index file");
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.skipBytes(8);
+        maxBucket = dis.readInt();
+        highMask = dis.readInt();
+        lowMask = dis.readInt();
+        numTuples = dis.readInt();
+        freePage = dis.readInt();
+        for (int i = 0; i < NUM_SPLIT_POINTS; i++)
+            blockStart[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the data of the meta page of a new HashIndexFile, with a single
+     *         bucket on page 1
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            // no buckets past bucket 0, whose page, blockStart[0], is page 1
+            dos.write(new byte[HEADER_SIZE - 8]);
+            dos.writeInt(1);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        byte[] header = baos.toByteArray();
+        System.arraycopy(header, 0, data, 0, header.length);
+        return data;
+    }
+
+    /**
+     * @return true if data starts with the magic number and version of the
+     *         meta page of a hash index file
+     */
+    static boolean isMetaPage(byte[] data) {
+        if (data.length < 8)
+            return false;
+        int magic = (data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | (data[3] & 0xff);
+        int version = (data[4] & 0xff) << 24 | (data[5] & 0xff) << 16 | (data[6] & 0xff) << 8 | (data[7] & 0xff);
+        return magic == MAGIC && version == VERSION;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of the bucket holding the keys with the specified
+     *         hash value
+     */
+    public int bucket(int hash) {
+        int b = hash & highMask;
+        if (b > maxBucket)
+            b = hash & lowMask;
+        return b;
+    }
+
+    /** @return the split point of the specified bucket */
+    static int splitPoint(int bucket) {
+        return 32 - Integer.numberOfLeadingZeros(bucket);
+    }
+
+    /** @return the number of the first page of the specified bucket */
+    public int bucketPageNo(int bucket) {
+        int sp = splitPoint(bucket);
+        int first = sp == 0 ? 0 : 1 << (sp - 1);
+        return blockStart[sp] + bucket - first;
+    }
+
+    /** @return the highest bucket number */
+    public int getMaxBucket() {
+        return maxBucket;
+    }
+
+    /** @return the bucket whose tuples are split with the next bucket created */
+    public int getSplitBucket() {
+        return (maxBucket + 1) & lowMask;
+    }
+
+    /**
+     * @return the number of pages in the block of the split point of the
+     *         next bucket created, if that bucket is the first of its split
+     *         point, and 0 otherwise
+     */
+    public int getNextBlockSize() {
+        int sp = splitPoint(maxBucket + 1);
+        return blockStart[sp] == 0 ? 1 << (sp - 1) : 0;
+    }
+
+    /**
+     * Create the next bucket, and start the hash values of the split bucket
+     * that now belong to it mapping to it.  The block of its split point
+     * must have been allocated with {@link #setNextBlockStart} if it is the
+     * first bucket of its split point.
+     *
+     * @return the number of the new bucket
+     */
+    public int addBucket() {
+        maxBucket++;
+        if (maxBucket > highMask) {
+            lowMask = highMask;
+            highMask = maxBucket | lowMask;
+        }
+        return maxBucket;
+    }
+
+    /** Record the first page of the block of the split point of the next bucket created */
+    public void setNextBlockStart(int pageNo) {
+        blockStart[splitPoint(maxBucket + 1)] = pageNo;
+    }
+
+    /** @return the number of tuples in the file */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    public void setNumTuples(int numTuples) {
+        this.numTuples = numTuples;
+    }
+
+    /** @return the first page of the list of free overflow pages, or 0 if it is empty */
+    public int getFreePage() {
+        return freePage;
+    }
+
+    public void setFreePage(int pageNo) {
+        this.freePage = pageNo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(maxBucket);
+            dos.writeInt(highMask);
+            dos.writeInt(lowMask);
+            dos.writeInt(numTuples);
+            dos.writeInt(freePage);
+            for (int i = 0; i < NUM_SPLIT_POINTS; i++)
+                dos.writeInt(blockStart[i]);
+            dos.write(new byte[BufferPool.getPageSize() - HEADER_SIZE - NUM_SPLIT_POINTS * 4]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashMetaPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashMetaPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -8,7 +8,12 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor.  A compressed HeapFile stores its pages through a
+ * {@link CompressedPageStore}, and decompresses them as they are read.
+ * <p>
+ * Scans read pages ahead of the one they are processing through
+ * {@link BufferPool#prefetch}, so that reading the disk overlaps with
+ * processing tuples.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -17,6 +22,13 @@ public class HeapFile implements DbFile {
 
     private final File f;
     private final TupleDesc td;
+    private final CompressedPageStore store;
+    private ZoneMap zoneMap;
+
+    /** The number of pages a scan reads ahead when it starts */
+    static final int MIN_READ_AHEAD = 4;
+    /** The most pages a scan reads ahead, also bounded by a quarter of the BufferPool */
+    static final int MAX_READ_AHEAD = 64;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,6 +41,32 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.store = null;
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages may
+     * be compressed.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compressed
+     *            true if f stores compressed pages, as written by
+     *            {@link CompressedPageStore}
+     * @throws IOException if the page map of a compressed file cannot be read
+     */
+    public HeapFile(File f, TupleDesc td, boolean compressed) throws IOException {
+        this.f = f;
+        this.td = td;
+        this.store = compressed ? new CompressedPageStore(f) : null;
+    }
+
+    /**
+     * @return true if this file stores compressed pages
+     */
+    public boolean isCompressed() {
+        return store != null;
     }
 
     /**
@@ -65,6 +103,57 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * @return the zone map of this file, read from disk on first use
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null)
+            zoneMap = new ZoneMap(f, td);
+        return zoneMap;
+    }
+
+    /**
+     * Close the files this heap file keeps open; they are reopened if the
+     * file is used again.
+     */
+    public synchronized void close() throws IOException {
+        if (zoneMap != null)
+            zoneMap.close();
+        if (store != null)
+            store.close();
+    }
+
+    /**
+     * @return an iterator over all the tuples on a page of this file
+     */
+    Iterator<Tuple> pageTuples(Page page) {
+        return ((HeapPage) page).iterator();
+    }
+
+    /**
+     * @return the tuple in the specified slot of a page of this file, or
+     *         null if the slot is empty
+     */
+    Tuple slotTuple(Page page, int slot) {
+        return ((HeapPage) page).tupleAt(slot);
+    }
+
+    /**
+     * Fetch the tuple a RecordId refers to, as when following an entry of a
+     * {@link SecondaryIndex} on this file.
+     *
+     * @param tid the transaction reading the tuple
+     * @param rid the RecordId of a tuple of this file
+     * @return the tuple, or null if its slot is empty
+     * @throws DbException if rid does not refer to a page of this file
+     */
+    public Tuple fetchTuple(TransactionId tid, RecordId rid) throws DbException, TransactionAbortedException {
+        PageId pid = rid.getPageId();
+        if (pid.getTableId() != getId() || pid.pageNumber() >= numPages())
+            throw new DbException("record " + pid.pageNumber() + ":" + rid.tupleno() + " is not in this file");
+        return slotTuple(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY), rid.tupleno());
+    }
+
     /**
      * Read the specified page from disk.
      *
@@ -73,14 +162,8 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         if (getId() == pid.getTableId()) {      // if the page exist in this file.
-            byte[] data = HeapPage.createEmptyPageData();
-
-            // try(condition){} with resources, will auto call raf.close() when exit try
-            try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
-                int offset = pid.pageNumber() * BufferPool.getPageSize();
-                raf.seek(offset);
-                raf.read(data, 0, BufferPool.getPageSize());
-                return new HeapPage((HeapPageId) pid, data);
+            try {
+                return new HeapPage((HeapPageId) pid, readPageData(pid.pageNumber()));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -88,11 +171,39 @@ public class HeapFile implements DbFile {
         throw new IllegalArgumentException();
     }
 
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
+    }
+
+    /**
+     * @return the uncompressed data of the specified page, as stored on disk
+     */
+    byte[] readPageData(int pageNo) throws IOException {
+        if (store != null)
+            return store.read(pageNo, BufferPool.getPageSize());
+        byte[] data = HeapPage.createEmptyPageData();
+
+        // try(condition){} with resources, will auto call raf.close() when exit try
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
+            long offset = (long) pageNo * BufferPool.getPageSize();
+            raf.seek(offset);
+            raf.read(data, 0, BufferPool.getPageSize());
+        }
+        return data;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         HeapPageId id = (HeapPageId) page.getId();
+        getZoneMap().invalidate(id.pageNumber());
+        if (store != null) {
+            store.write(id.pageNumber(), page.getPageData());
+            getZoneMap().update(id.pageNumber(), pageTuples(page));
+            return;
+        }
         try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
             int offset = page.getId().pageNumber() * BufferPool.getPageSize();
             raf.seek(offset);
@@ -100,6 +211,7 @@ public class HeapFile implements DbFile {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        getZoneMap().update(id.pageNumber(), pageTuples(page));
     }
 
     /**
@@ -107,6 +219,8 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
+        if (store != null)
+            return store.numPages();
         return (int)f.length() / BufferPool.getPageSize();
     }
 
@@ -130,7 +244,7 @@ public class HeapFile implements DbFile {
         ArrayList<Page> modifiedPages = new ArrayList<>();
         for (int i = 0; i < numPages(); i++) {
             heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
-            if (heapPage.getNumEmptySlots() > 0) {  // find empty page and insert tuple
+            if (heapPage.hasRoomFor(t)) {  // find empty page and insert tuple
                 isFull = false;
                 break;
             }
@@ -141,6 +255,7 @@ public class HeapFile implements DbFile {
         }
         heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPage.getId(), Permissions.READ_WRITE);
         heapPage.insertTuple(t);
+        getZoneMap().widen(heapPage.getId().pageNumber(), t);
 //        heapPage.markDirty(true, tid);
         modifiedPages.add(heapPage);
         return modifiedPages;
@@ -186,26 +301,51 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a set of
+     * predicates, reading only some of their fields.  The predicates are
+     * evaluated by each HeapPage against its raw data, so non-matching
+     * tuples and unneeded fields are never decoded, and pages whose zones
+     * in the {@link ZoneMap} rule out every tuple are not read.  The returned tuples
+     * keep their RecordIds, so they can be passed to {@link #deleteTuple}.
+     *
+     * @param tid the transaction reading the file
+     * @param preds predicates over the fields of this file's TupleDesc that
+     *        returned tuples must satisfy; null or empty for none
+     * @param fields the indexes of the fields to return, in order; null for
+     *        all fields
+     * @return an iterator over the matching tuples
+     */
+    public DbFileIterator iterator(final TransactionId tid, final Predicate[] preds, final int[] fields) {
+        final CompiledPredicate pred = CompiledPredicate.compile(preds, td);
+        final ZoneMap zones = pred == null ? null : getZoneMap();
+        final TupleDesc outTd = fields == null ? null : projectTupleDesc(td, fields);
         return new DbFileIterator() {
             private int pNo = -1;
             private Iterator<Tuple> pageIterator;
+            private final ReadAhead readAhead = new ReadAhead();
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 pNo = 0;
                 pageIterator = null;
+                readAhead.reset();
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                if (null != pageIterator && pageIterator.hasNext()) {
-                    return true;
-                } else if (pNo < 0 || pNo >= numPages()) {         // closed or run out of pages
-                    return false;
+                while (null == pageIterator || !pageIterator.hasNext()) {
+                    if (pNo < 0 || pNo >= numPages()) {         // closed or run out of pages
+                        return false;
+                    }
+                    readAhead.advance(pNo, zones, preds);
+                    HeapPage page = (HeapPage) nextPage(tid, pNo++, zones, preds);
+                    pageIterator = page == null ? null : page.iterator(pred, fields, outTd);   // load next page
                 }
-                pageIterator = ((HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pNo++),
-                        Permissions.READ_ONLY)).iterator();         // load next page
-                return hasNext();
+                return true;
             }
 
             @Override
@@ -229,5 +369,80 @@ public class HeapFile implements DbFile {
         };
     }
 
-}
+    /**
+     * The read-ahead of a scan of this file, which reads its pages in
+     * order.  The scan starts by reading a few pages ahead, and reads twice
+     * as many each time it gets halfway through those, so short scans read
+     * little they don't need and long ones keep the disk busy.  Pages whose
+     * zones rule out the scan's predicates are not read ahead.
+     */
+    class ReadAhead {
+        /** the first page that has not been read ahead */
+        private int next;
+        /** the number of pages to read ahead of the scan */
+        private int window;
+
+        /** Start over, for a scan from the first page */
+        void reset() {
+            next = 0;
+            window = MIN_READ_AHEAD;
+        }
 
+        /**
+         * Read ahead of the scan, which is about to read the specified page.
+         *
+         * @param zones the zone map of this file, or null not to skip any page
+         */
+        void advance(int pageNo, ZoneMap zones, Predicate[] preds) {
+            next = Math.max(next, pageNo + 1);
+            if (next - pageNo - 1 > window / 2)
+                return;
+            int limit = Math.max(1, Math.min(MAX_READ_AHEAD, Database.getBufferPool().getNumPages() / 4));
+            window = Math.min(window, limit);
+            int end = Math.min(pageNo + 1 + window, numPages());
+            for (; next < end; next++) {
+                if (zones == null || zones.mayMatch(next, preds))
+                    Database.getBufferPool().prefetch(new HeapPageId(getId(), next));
+            }
+            window = Math.min(2 * window, limit);
+        }
+    }
+
+    /**
+     * Read a page for a filtered scan, unless its zone rules out all of
+     * preds.  The zones of clean pages that are not known yet are recorded.
+     *
+     * @param zones the zone map of this file, or null not to skip any page
+     * @return the page, or null if it was skipped
+     */
+    Page nextPage(TransactionId tid, int pageNo, ZoneMap zones, Predicate[] preds)
+            throws DbException, TransactionAbortedException {
+        if (zones != null && !zones.mayMatch(pageNo, preds))
+            return null;
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+        if (zones != null && !zones.isKnown(pageNo) && page.isDirty() == null) {
+            try {
+                zones.update(pageNo, pageTuples(page));
+            } catch (IOException e) {
+                // the zone stays unknown
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return a TupleDesc with the specified fields of td, in order
+     */
+    static TupleDesc projectTupleDesc(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        StringDictionary[] dicts = new StringDictionary[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+            dicts[i] = td.getDictionary(fields[i]);
+        }
+        return new TupleDesc(types, names, dicts);
+    }
+
+}
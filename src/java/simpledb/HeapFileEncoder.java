@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,7 +77,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile.  Dictionary-encoded fields are written as codes, and their
+    * dictionaries next to outFile (see {@link StringDictionary}).
     *
     * @see HeapPage
     * @see HeapFile
@@ -91,6 +93,16 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      // zones recorded for an earlier version of the file no longer apply
+      new File(outFile.getAbsolutePath() + ".zonemap").delete();
+
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -104,6 +116,8 @@ public class HeapFileEncoder {
         nheaderbytes++;  //ceiling
     int nheaderbits = nheaderbytes * 8;
 
+    StringDictionary[] dicts = dictionaries(outFile, numFields, typeAr);
+
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
 
@@ -157,6 +171,9 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else if (typeAr[fieldNo] == Type.DICT_TYPE) {
+                pageStream.writeInt(dicts[fieldNo].encode(s.trim()));
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -222,5 +239,118 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    closeDictionaries(dicts);
+  }
+
+  /** Convert the specified input text file into a binary file of PAX
+   * pages, as read by {@link PaxFile}.  The input is as for
+   * {@link #convert(File, File, int, int, Type[], char)}; the types must all
+   * be fixed-length.
+   *
+   * @see PaxPage#PaxPage
+   */
+  public static void convertToPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      if (td.isVariableLength())
+          throw new IllegalArgumentException("PAX files only store fixed-length tuples");
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+
+      // the pages hold the same tuples in the same slots; transpose each one
+      RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+      try {
+          byte[] page = new byte[npagebytes];
+          for (long off = 0; off + npagebytes <= raf.length(); off += npagebytes) {
+              raf.seek(off);
+              raf.readFully(page);
+              raf.seek(off);
+              raf.write(PaxPage.fromHeapPageData(page, td));
+          }
+      } finally {
+          raf.close();
+      }
+  }
+
+  /** Close the files of the dictionaries returned by {@link #dictionaries} */
+  private static void closeDictionaries(StringDictionary[] dicts) throws IOException {
+      for (StringDictionary dict : dicts) {
+          if (dict != null)
+              dict.close();
+      }
+  }
+
+  /** @return the dictionaries of the DICT_TYPE fields of a table stored in
+   * outFile, or null for other fields
+   * @see StringDictionary#forColumn
+   */
+  private static StringDictionary[] dictionaries(File outFile, int numFields, Type[] typeAr)
+      throws IOException {
+      StringDictionary[] dicts = new StringDictionary[numFields];
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i] == Type.DICT_TYPE)
+              dicts[i] = StringDictionary.forColumn(outFile, i);
+      }
+      return dicts;
+  }
+
+  /** Convert an input text file of tuples with variable-length fields into
+   * slotted pages, packing as many tuples into each page as fit.
+   *
+   * @see HeapPage#HeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    StringDictionary[] dicts = dictionaries(outFile, numFields, typeAr);
+
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+
+    ArrayList<byte[]> slots = new ArrayList<byte[]>();
+    int used = HeapPage.SLOTTED_HEADER_SIZE;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.isEmpty())
+            continue;
+        String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        ByteArrayOutputStream tupleBAOS = new ByteArrayOutputStream();
+        DataOutputStream tupleStream = new DataOutputStream(tupleBAOS);
+        for (int i = 0; i < numFields; i++) {
+            String s = i < values.length ? values[i].trim() : "";
+            if (typeAr[i] == Type.INT_TYPE) {
+                try {
+                    tupleStream.writeInt(Integer.parseInt(s));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                    tupleStream.writeInt(0);
+                }
+            } else if (typeAr[i] == Type.VARCHAR_TYPE) {
+                new VarcharField(s, Type.STRING_LEN).serialize(tupleStream);
+            } else if (typeAr[i] == Type.DICT_TYPE) {
+                tupleStream.writeInt(dicts[i].encode(s));
+            } else {
+                new StringField(s, Type.STRING_LEN).serialize(tupleStream);
+            }
+        }
+        tupleStream.flush();
+        byte[] tuple = tupleBAOS.toByteArray();
+
+        if (used + HeapPage.SLOT_ENTRY_SIZE + tuple.length > npagebytes && !slots.isEmpty()) {
+            os.write(HeapPage.createSlottedPageData(slots, npagebytes));
+            npages++;
+            slots.clear();
+            used = HeapPage.SLOTTED_HEADER_SIZE;
+        }
+        slots.add(tuple);
+        used += HeapPage.SLOT_ENTRY_SIZE + tuple.length;
+    }
+    // as for fixed-length pages, an empty file still gets one empty page
+    if (!slots.isEmpty() || npages == 0)
+        os.write(HeapPage.createSlottedPageData(slots, npagebytes));
+    br.close();
+    os.close();
+    closeDictionaries(dicts);
   }
 }
@@ -6,6 +6,10 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages of tables whose TupleDesc is variable-length (see
+ * {@link TupleDesc#isVariableLength}) use a slotted layout instead of fixed
+ * size slots, described at {@link #HeapPage}.
  *
  * @see HeapFile
  * @see BufferPool
@@ -13,11 +17,21 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /** Bytes taken by the slot count of a slotted page, and by each slot entry */
+    static final int SLOTTED_HEADER_SIZE = 2, SLOT_ENTRY_SIZE = 4;
+
     private final HeapPageId pid;
     private final TupleDesc td;
+    private final boolean slotted;
+    /** The slot bitmap of a fixed-length page; null for slotted pages */
     private final byte header[];
-    private final Tuple tuples[];
-    private final int numSlots;
+    /** The tuple inserted in each slot; null for empty slots and those read from disk */
+    private Tuple tuples[];
+    private int numSlots;
+    /** For slotted pages, the offset and length in data of the tuple read from disk into each slot, or -1 */
+    private int slotOffsets[], slotLengths[];
+    /** The page as read from disk; slots not in tuples are read from here */
+    private final byte data[];
     private boolean isDirty = false;
     private TransactionId dirtyId = null;
 
@@ -36,6 +50,17 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * If the TupleDesc is variable-length, the page is slotted instead.  It
+     * starts with the number of slots n as a 2-byte unsigned integer,
+     * followed by n slot entries of a 2-byte offset and a 2-byte length,
+     * all big-endian.  A length of 0 marks an empty slot.  The tuples are
+     * stored at the end of the page, each as its fields serialized one after
+     * the other, so that a VARCHAR field only takes the bytes it needs.
+     * <p>
+     * Tuples are not decoded: the tuples returned by the page are backed by
+     * data, so the page keeps a reference to data, which the caller must not
+     * modify afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -43,27 +68,43 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.slotted = td.isVariableLength();
+        int pageSize = BufferPool.getPageSize();
+        if (data.length < pageSize)
+            throw new IOException("short page: " + data.length + " bytes");
+        this.data = data;
+
+        if (!slotted) {
+            // read the header slots of this page; the records are read on demand
+            numSlots = getNumTuples();
+            header = Arrays.copyOf(data, getHeaderSize());
+        } else {
+            if (pageSize > 0x10000)
+                throw new IOException("page size " + pageSize + " too large for a slotted page");
+            header = null;
+            numSlots = readShort(0);
+            if (SLOTTED_HEADER_SIZE + numSlots * SLOT_ENTRY_SIZE > pageSize)
+                throw new IOException("corrupt slotted page: " + numSlots + " slots");
+            slotOffsets = new int[numSlots];
+            slotLengths = new int[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                int entry = SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE;
+                int off = readShort(entry), len = readShort(entry + 2);
+                if (off + len > pageSize)
+                    throw new IOException("corrupt slotted page: slot " + i + " overruns page");
+                slotOffsets[i] = len == 0 ? -1 : off;
+                slotLengths[i] = len;
+            }
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
 
+    private int readShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
     /** Retrieve the number of tuples on this page.
      @return the number of tuples on this page
      */
@@ -112,38 +153,125 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the offset in data of the tuple read from disk into the specified slot */
+    private int tupleOffset(int slotId) {
+        return slotted ? slotOffsets[slotId] : header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in the specified used slot: the tuple inserted there,
+     * or one backed by the page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, tupleOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * @return the tuple in the specified slot, with its RecordId, or null if
+     *         the slot is empty
+     */
+    public Tuple tupleAt(int slotId) {
+        return isSlotUsed(slotId) ? getTuple(slotId) : null;
+    }
+
+    /**
+     * Return true if the tuple in the specified used slot satisfies a
+     * predicate.  Slots that have not been decoded are tested against the
+     * page data, without creating Field objects.
+     */
+    private boolean matches(int slotId, CompiledPredicate pred) {
+        Tuple decoded = tuples[slotId];
+        if (decoded == null && !slotted)
+            return pred.matches(data, tupleOffset(slotId));
+        return pred.matches(decoded != null ? decoded : getTuple(slotId));
+    }
+
+    /** @return the serialized form of a tuple, as stored in a slotted page */
+    private static byte[] serialize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+            for (int j = 0; j < td.numFields(); j++)
+                writeField(dos, td, j, t.getField(j));
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Serialize a field as stored in the jth field of tuples of td, which
+     * may differ from field.serialize: string fields set by callers are
+     * written as VARCHAR or dictionary-encoded fields when td requires it.
+     */
+    static void writeField(DataOutputStream dos, TupleDesc td, int j, Field f) throws IOException {
+        Type type = td.getFieldType(j);
+        if (type == Type.VARCHAR_TYPE && !(f instanceof VarcharField)) {
+            f = new VarcharField(((StringField) f).getValue(), Type.STRING_LEN);
+        } else if (type == Type.DICT_TYPE) {
+            StringDictionary dict = td.getDictionary(j);
+            if (!(f instanceof DictStringField) || ((DictStringField) f).getDictionary() != dict) {
+                dos.writeInt(dict.encode(((StringField) f).getValue()));
+                return;
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        f.serialize(dos);
+    }
 
-        return t;
+    /** @return the number of bytes the tuples and slot entries of this slotted page take */
+    private int slottedBytesUsed() {
+        int used = SLOTTED_HEADER_SIZE + numSlots * SLOT_ENTRY_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            if (tuples[i] != null) {
+                for (int j = 0; j < td.numFields(); j++)
+                    used += td.getFieldType(j).getLen(tuples[i].getField(j));
+            } else if (slotOffsets[i] >= 0) {
+                used += slotLengths[i];
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Lay out a slotted page holding the specified serialized tuples.
+     *
+     * @param slots the serialized tuple in each slot, or null for an empty slot
+     * @param pageSize the number of bytes in a page
+     * @return the page data
+     * @throws IllegalArgumentException if the tuples do not fit on a page
+     */
+    static byte[] createSlottedPageData(List<byte[]> slots, int pageSize) {
+        byte[] page = new byte[pageSize];
+        int end = page.length;
+        writeShort(page, 0, slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            byte[] t = slots.get(i);
+            int entry = SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE;
+            if (t == null)
+                continue;
+            end -= t.length;
+            if (end < entry + SLOT_ENTRY_SIZE || t.length == 0)
+                throw new IllegalArgumentException("tuples do not fit on a page");
+            System.arraycopy(t, 0, page, end, t.length);
+            writeShort(page, entry, end);
+            writeShort(page, entry + 2, t.length);
+        }
+        if (end < SLOTTED_HEADER_SIZE + slots.size() * SLOT_ENTRY_SIZE)
+            throw new IllegalArgumentException("tuples do not fit on a page");
+        return page;
+    }
+
+    private static void writeShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >> 8);
+        b[off + 1] = (byte) v;
     }
 
     /**
@@ -158,6 +286,19 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted) {
+            ArrayList<byte[]> slots = new ArrayList<byte[]>(numSlots);
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] != null)
+                    slots.add(serialize(tuples[i]));
+                else if (slotOffsets[i] >= 0)
+                    slots.add(Arrays.copyOfRange(data, slotOffsets[i], slotOffsets[i] + slotLengths[i]));
+                else
+                    slots.add(null);
+            }
+            return createSlottedPageData(slots, BufferPool.getPageSize());
+        }
+
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -188,11 +329,21 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot still holding the tuple read from disk: copy it
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, tupleOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    writeField(dos, td, j, f);
 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -260,17 +411,45 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (!t.getTupleDesc().equals(td) || getNumEmptySlots() == 0) {
+        if (!t.getTupleDesc().equals(td) || !hasRoomFor(t)) {
             throw new DbException("the page is full (no empty slots) or tupledesc is mismatch.");
         }
-        for (int i = 0; i < tuples.length; i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i, true);
-                tuples[i] = t;
-                t.setRecordId(new RecordId(getId(), i));
-                break;
-            }
+        int i = firstEmptySlot();
+        if (i == numSlots) {
+            // slotted pages add a slot entry when all are in use
+            numSlots++;
+            tuples = Arrays.copyOf(tuples, numSlots);
+            slotOffsets = Arrays.copyOf(slotOffsets, numSlots);
+            slotLengths = Arrays.copyOf(slotLengths, numSlots);
+            slotOffsets[i] = -1;
         }
+        markSlotUsed(i, true);
+        tuples[i] = t;
+        t.setRecordId(new RecordId(getId(), i));
+    }
+
+    /**
+     * @return true if the specified tuple fits on this page.  For
+     *         fixed-length tuples this is true if there is an empty slot;
+     *         tuples of slotted pages also need enough free space for their
+     *         fields.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (!slotted)
+            return getNumEmptySlots() > 0;
+        int need = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            need += td.getFieldType(j).getLen(t.getField(j));
+        if (firstEmptySlot() == numSlots)
+            need += SLOT_ENTRY_SIZE;
+        return need <= BufferPool.getPageSize() - slottedBytesUsed();
+    }
+
+    private int firstEmptySlot() {
+        int i = 0;
+        while (i < numSlots && isSlotUsed(i))
+            i++;
+        return i;
     }
 
     /**
@@ -294,7 +473,9 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page.  For a slotted page,
+     * this is the number of tuples of the largest possible size that still
+     * fit on it.
      */
     public int getNumEmptySlots() {
         // some code goes here
@@ -304,7 +485,14 @@ public class HeapPage implements Page {
                 num++;
             }
         }
-        return num;
+        if (!slotted)
+            return num;
+
+        // up to num tuples reuse empty slot entries; the rest need new ones
+        int free = BufferPool.getPageSize() - slottedBytesUsed(), max = td.getSize();
+        if (free / max <= num)
+            return free / max;
+        return (free + num * SLOT_ENTRY_SIZE) / (max + SLOT_ENTRY_SIZE);
     }
 
     /**
@@ -312,6 +500,9 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {      // big-endian
         // some code goes here
+        if (slotted) {
+            return i >= 0 && i < numSlots && (tuples[i] != null || slotOffsets[i] >= 0);
+        }
         if (i/8 >= getHeaderSize()) {
             return false;
         }
@@ -324,6 +515,13 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        if (!value)
+            tuples[i] = null;
+        if (slotted) {
+            // a used slot holds a tuple in tuples, which the caller sets
+            slotOffsets[i] = -1;
+            return;
+        }
         int byteNum = i / 8, posInByte = i % 8;
         if (value) {
             header[byteNum] |= 1 << posInByte;
@@ -339,16 +537,46 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        return iterator(null, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy a
+     * predicate, presenting only some of their fields.  The predicate is
+     * evaluated against the page data, so tuples that fail it are never
+     * materialized.
+     *
+     * @param pred the predicate tuples must satisfy, compiled for this
+     *        page's TupleDesc; null to return all tuples
+     * @param fields the fields to return, in order; null for all fields
+     * @param outTd the TupleDesc of the returned tuples, one field per
+     *        entry of fields; ignored if fields is null
+     * @return an iterator over the matching tuples (calling remove on this
+     *        iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(final CompiledPredicate pred, final int[] fields, final TupleDesc outTd) {
         return new Iterator<Tuple>() {
-            private int index = 0;
+            private int index = advance(0);
+
+            /** @return the first used slot at or after i that satisfies pred */
+            private int advance(int i) {
+                while (i < numSlots && (!isSlotUsed(i) || (pred != null && !matches(i, pred))))
+                    i++;
+                return i;
+            }
+
             @Override
             public boolean hasNext() {
-                return index < numSlots && isSlotUsed(index);
+                return index < numSlots;
             }
 
             @Override
             public Tuple next() {
-                return tuples[index++];
+                if (index >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = fields == null ? getTuple(index) : Tuple.project(outTd, getTuple(index), fields);
+                index = advance(index + 1);
+                return t;
             }
 
             @Override
@@ -359,4 +587,3 @@ public class HeapPage implements Page {
     }
 
 }
-
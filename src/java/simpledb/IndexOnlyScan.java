@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an operator that reads some of the fields of the tuples
+ * of a HeapFile table whose value of an indexed field satisfies a
+ * predicate, from the entries of a covering {@link SecondaryIndex} alone.
+ * Unlike an {@link IndexScan}, it never reads the pages of the table, so
+ * every field it returns or tests must be stored in the index entries.
+ * Tuples are returned in the order of the indexed field.
+ * <p>
+ * Like a {@link SeqScan}, the scan may be given predicates over other
+ * fields to filter the tuples with and a subset of the table's fields to
+ * return.
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SecondaryIndex index;
+    private final String tableAlias;
+    private final IndexPredicate ipred;
+    private final Predicate[] predicates;
+    private final int[] fields;
+    private final TupleDesc td;
+    /** the fields of the index entries holding the returned fields */
+    private final int[] entryFields;
+    private transient DbFileIterator it;
+    private boolean isOpen = false;
+
+    /**
+     * Creates a scan of the tuples of a table matching a predicate over the
+     * field of one of its covering indexes.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the tuples from
+     * @param tableAlias
+     *            the alias of the indexed table; the returned tupleDesc has
+     *            fields named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate over the indexed field
+     * @param predicates
+     *            predicates over fields of the table that the returned
+     *            tuples must also satisfy, or null
+     * @param fields
+     *            the fields of the table to return, in order, or null to
+     *            return all of them
+     * @throws IllegalArgumentException if a field to test or return is not
+     *            stored in the index
+     */
+    public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred,
+            Predicate[] predicates, int[] fields) {
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+        this.predicates = predicates;
+        TupleDesc tableTd = index.getTable().getTupleDesc();
+        if (fields == null) {
+            fields = new int[tableTd.numFields()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = i;
+        }
+        this.fields = fields;
+
+        this.entryFields = new int[fields.length];
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            entryFields[i] = index.entryField(fields[i]);
+            if (entryFields[i] < 0)
+                throw new IllegalArgumentException("field " + fields[i] + " is not stored in the index");
+            types[i] = tableTd.getFieldType(fields[i]);
+            names[i] = (tableAlias == null ? "null" : tableAlias) + '.' +
+                    (tableTd.getFieldName(fields[i]) == null ? "null" : tableTd.getFieldName(fields[i]));
+        }
+        this.td = new TupleDesc(types, names);
+        this.it = entryIterator(tid);
+    }
+
+    private DbFileIterator entryIterator(TransactionId tid) {
+        final DbFileIterator entries = index.entryIterator(tid, ipred);
+        // the predicates, over the fields of the index entries
+        Predicate[] entryPreds = null;
+        if (predicates != null) {
+            entryPreds = new Predicate[predicates.length];
+            for (int i = 0; i < predicates.length; i++) {
+                Predicate p = predicates[i];
+                int f = index.entryField(p.getField());
+                if (f < 0)
+                    throw new IllegalArgumentException("field " + p.getField() + " is not stored in the index");
+                entryPreds[i] = new Predicate(f, p.getOp(), p.getOperand());
+            }
+        }
+        final CompiledPredicate pred = CompiledPredicate.compile(entryPreds, index.getFile().getTupleDesc());
+        final int pageField = index.getIncludedFields().length + 1;
+        final int tableId = index.getTable().getId();
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                entries.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                entries.rewind();
+            }
+
+            public void close() {
+                super.close();
+                entries.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (entries.hasNext()) {
+                    Tuple e = entries.next();
+                    if (pred != null && !pred.matches(e))
+                        continue;
+                    Tuple out = new Tuple(td);
+                    out.setRecordId(new RecordId(new HeapPageId(tableId, e.getInt(pageField)), e.getInt(pageField + 1)));
+                    for (int i = 0; i < entryFields.length; i++)
+                        out.setField(i, e.getField(entryFields[i]));
+                    return out;
+                }
+                return null;
+            }
+        };
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator reads tuples from */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /** @return the predicate over the indexed field */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return the predicates over other fields evaluated by this scan, or null if there are none */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    /** @return the fields of the table returned by this scan */
+    public int[] getFields() {
+        return fields;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * @return the TupleDesc of the returned fields of the indexed table,
+     *         with field names prefixed with the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -11,6 +11,8 @@ public class IndexPredicate implements Serializable {
     private static final long serialVersionUID = 1L;
     private final Predicate.Op op;
     private final Field fvalue;
+    private final Predicate.Op upperOp;
+    private final Field upperValue;
     /**
      * Constructor.
      *
@@ -24,6 +26,27 @@ public class IndexPredicate implements Serializable {
         // some code goes here
         this.op = op;
         this.fvalue = fvalue;
+        this.upperOp = null;
+        this.upperValue = null;
+    }
+
+    /**
+     * Constructor for a range predicate, which a field satisfies if it
+     * satisfies both a lower and an upper bound, so that an index scan for
+     * it can stop at the end of the range.
+     *
+     * @param op The lower bound operation; either Predicate.Op.GREATER_THAN
+     *   or Predicate.Op.GREATER_THAN_OR_EQ
+     * @param fvalue The lower bound.
+     * @param upperOp The upper bound operation; either Predicate.Op.LESS_THAN
+     *   or Predicate.Op.LESS_THAN_OR_EQ
+     * @param upperValue The upper bound.
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue, Predicate.Op upperOp, Field upperValue) {
+        this.op = op;
+        this.fvalue = fvalue;
+        this.upperOp = upperOp;
+        this.upperValue = upperValue;
     }
 
     public Field getField() {
@@ -36,6 +59,23 @@ public class IndexPredicate implements Serializable {
         return op;
     }
 
+    /** @return the upper bound operation of a range predicate, or null if this predicate has none */
+    public Predicate.Op getUpperOp() {
+        return upperOp;
+    }
+
+    /** @return the upper bound of a range predicate, or null if this predicate has none */
+    public Field getUpperField() {
+        return upperValue;
+    }
+
+    /** Return true if the specified field satisfies this predicate.
+        @param f The field to test.
+    */
+    public boolean matches(Field f) {
+        return f.compare(op, fvalue) && (upperOp == null || f.compare(upperOp, upperValue));
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -43,7 +83,9 @@ public class IndexPredicate implements Serializable {
     */
     public boolean equals(IndexPredicate ipd) {
         // some code goes here
-        return fvalue.equals(ipd.getField()) && op.equals(ipd.getOp());
+        return fvalue.equals(ipd.getField()) && op.equals(ipd.getOp()) &&
+            (upperOp == null ? ipd.getUpperOp() == null :
+             upperOp.equals(ipd.getUpperOp()) && upperValue.equals(ipd.getUpperField()));
     }
 
 }
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an operator that reads the tuples of a HeapFile table whose
+ * value of an indexed field satisfies a predicate, by looking them up in a
+ * {@link SecondaryIndex} and fetching each one from its page of the table.
+ * Tuples are returned in the order of the indexed field.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SecondaryIndex index;
+    private final String tableAlias;
+    private final IndexPredicate ipred;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+    private boolean isOpen = false;
+
+    /**
+     * Creates a scan of the tuples of a table matching a predicate over the
+     * field of one of its secondary indexes.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param tableAlias
+     *            the alias of the indexed table; the returned tupleDesc has
+     *            fields named tableAlias.fieldName, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate over the indexed field
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+        this.it = index.iterator(tid, ipred);
+        TupleDesc tableTd = index.getTable().getTupleDesc();
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < tableTd.numFields(); i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = (tableAlias == null ? "null" : tableAlias) + '.' +
+                    (tableTd.getFieldName(i) == null ? "null" : tableTd.getFieldName(i));
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator looks tuples up in */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /** @return the predicate over the indexed field */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * @return the TupleDesc of the indexed table, with field names prefixed
+     *         with the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
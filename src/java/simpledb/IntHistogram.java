@@ -4,6 +4,12 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int min, max;
+    private final int[] counts;
+    /** Number of distinct values covered by each bucket (at least 1) */
+    private final double width;
+    private int total = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -21,7 +27,54 @@ public class IntHistogram {
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        int n = (int) Math.max(1, Math.min(buckets, range));
+        this.counts = new int[n];
+        this.width = (double) range / n;
+    }
+
+    private int bucketOf(int v) {
+        int b = (int) (((long) v - min) / width);
+        return Math.min(Math.max(b, 0), counts.length - 1);
+    }
+
+    /** @return the smallest value falling into bucket b */
+    private long low(int b) {
+        return min + (long) Math.ceil(b * width);
+    }
+
+    /** @return the largest value falling into bucket b */
+    private long high(int b) {
+        if (b == counts.length - 1)
+            return max;
+        return min + (long) Math.ceil((b + 1) * width) - 1;
+    }
+
+    private long valuesIn(int b) {
+        return Math.max(1, high(b) - low(b) + 1);
+    }
+
+    /** @return the fraction of values equal to v */
+    private double equalFraction(int v) {
+        if (v < min || v > max)
+            return 0;
+        int b = bucketOf(v);
+        return (double) counts[b] / valuesIn(b) / total;
+    }
+
+    /** @return the fraction of values greater than v */
+    private double greaterFraction(int v) {
+        if (v < min)
+            return 1;
+        if (v >= max)
+            return 0;
+        int b = bucketOf(v);
+        double greater = counts[b] * (double) (high(b) - v) / valuesIn(b);
+        for (int i = b + 1; i < counts.length; i++)
+            greater += counts[i];
+        return greater / total;
     }
 
     /**
@@ -29,7 +82,10 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max)
+            return;
+        counts[bucketOf(v)]++;
+        total++;
     }
 
     /**
@@ -43,9 +99,33 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
+        if (total == 0)
+            return 0;
+        double sel;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            sel = equalFraction(v);
+            break;
+        case NOT_EQUALS:
+            sel = 1 - equalFraction(v);
+            break;
+        case GREATER_THAN:
+            sel = greaterFraction(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = greaterFraction(v) + equalFraction(v);
+            break;
+        case LESS_THAN:
+            sel = 1 - greaterFraction(v) - equalFraction(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = 1 - greaterFraction(v);
+            break;
+        default:
+            sel = 1;
+        }
+        return Math.min(1, Math.max(0, sel));
     }
     
     /**
@@ -58,15 +138,22 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (total == 0)
+            return 1.0;
+        // chance that two values drawn from the histogram are equal
+        double sel = 0;
+        for (int b = 0; b < counts.length; b++)
+            sel += (double) counts[b] * counts[b] / valuesIn(b);
+        return sel / ((double) total * total);
     }
     
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max + "]:");
+        for (int b = 0; b < counts.length; b++)
+            sb.append(' ').append(counts[b]);
+        return sb.toString();
     }
 }
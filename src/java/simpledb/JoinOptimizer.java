@@ -11,6 +11,14 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * Default number of joins above which {@link #orderJoins} switches from
+     * exhaustive dynamic programming to greedy ordering.
+     */
+    public static final int DEFAULT_MAX_EXHAUSTIVE_JOINS = 12;
+
+    private int maxExhaustiveJoins = DEFAULT_MAX_EXHAUSTIVE_JOINS;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -27,6 +35,27 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Set the largest number of joins that {@link #orderJoins} orders by
+     * exhaustive dynamic programming; larger join graphs are ordered greedily.
+     * 
+     * @param joins
+     *            the new threshold, at most {@link PlanCache#MAX_JOINS}
+     */
+    public void setMaxExhaustiveJoins(int joins) {
+        if (joins < 0 || joins > PlanCache.MAX_JOINS)
+            throw new IllegalArgumentException("threshold must be between 0 and "
+                    + PlanCache.MAX_JOINS);
+        maxExhaustiveJoins = joins;
+    }
+
+    /**
+     * @return the largest number of joins that are ordered exhaustively
+     */
+    public int getMaxExhaustiveJoins() {
+        return maxExhaustiveJoins;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -107,11 +136,10 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // Join is a nested-loops join: the outer is scanned once, the
+            // inner once per outer tuple, and the predicate is applied to
+            // every pair of tuples.
+            return cost1 + card1 * cost2 + (double) card1 * card2;
         }
     }
 
@@ -155,9 +183,27 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            // an equality join on a key produces at most one output tuple
+            // per tuple of the other side
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (double) card1 * card2 - Math.max(card1, card2);
+        } else {
+            // range joins pass a fixed fraction of the cross product
+            card = 0.3 * card1 * card2;
+        }
+        if (card > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return card <= 0 ? 1 : (int) card;
     }
 
     /**
@@ -197,6 +243,17 @@ public class JoinOptimizer {
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
      * 
+     * Join sets are enumerated as bitmasks over the positions of the joins in
+     * this optimizer's join list; because every proper subset of a set is
+     * numerically smaller than the set itself, a single pass in increasing
+     * order visits all subplans before the plans that extend them. Only
+     * connected subsets (no cross products) receive a plan.
+     * 
+     * Since that is exponential in the number of joins, join lists longer than
+     * {@link #getMaxExhaustiveJoins} are instead ordered greedily: starting
+     * from the cheapest single join, the plan is repeatedly extended with the
+     * connected join that keeps its estimated cost lowest.
+     * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
      *            base table names, not alias
@@ -217,175 +274,293 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        int n = joins.size();
+        if (n == 0)
+            return joins;
+
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        if (n > maxExhaustiveJoins) {
+            Vector<LogicalJoinNode> order = orderJoinsGreedily(g);
+            if (order == null)
+                return joins;
+            if (explain)
+                System.out.println("Greedy join order: " + order);
+            return order;
+        }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        PlanCache pc = new PlanCache(joins);
+        CostCard cc = new CostCard();
+        long all = (1L << n) - 1;
+        // relations[s] is the set of base relations touched by join set s
+        long[] relations = new long[1 << n];
+
+        for (long s = 1; s <= all; s++) {
+            int low = Long.numberOfTrailingZeros(s);
+            relations[(int) s] = relations[(int) (s & (s - 1))]
+                    | g.joinRelations[low];
+
+            double bestCostSoFar = Double.MAX_VALUE;
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                int j = Long.numberOfTrailingZeros(rest);
+                long news = s & ~(1L << j);
+                // possible that we have not cached an answer, if subset
+                // includes a cross product
+                if (!pc.hasPlan(news))
+                    continue;
+                long prevRelations = relations[(int) news];
+                if (computeCostAndCardOfSubplan(g, j, news == 0,
+                        (prevRelations & g.relationBit(g.rel1[j])) != 0,
+                        (prevRelations & g.relationBit(g.rel2[j])) != 0,
+                        pc.getCost(news), pc.getCard(news),
+                        (news & g.pkeyJoins) != 0, bestCostSoFar, cc)) {
+                    bestCostSoFar = cc.cost;
+                    pc.addPlan(s, cc.cost, cc.card, j, cc.swapped);
+                }
+            }
+        }
+
+        Vector<LogicalJoinNode> order = pc.getOrder(all);
+        if (order == null) {
+            // the joins do not connect all tables; leave the order alone and
+            // let the planner report the missing join
+            return joins;
+        }
+        if (explain)
+            printJoins(order, pc.getPositions(all), pc, stats, filterSelectivities);
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * Order the joins greedily, using O(n^2) cost estimates for n joins.
      * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * @return the joins in left-deep order, or null if they do not connect
+     *         all tables
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private Vector<LogicalJoinNode> orderJoinsGreedily(JoinGraph g) {
+        int n = g.joins.length;
+        boolean[] added = new boolean[n];
+        boolean[] inPlan = new boolean[g.numRelations];
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        double planCost = 0;
+        int planCard = 0;
+        boolean planPkey = false;
+        CostCard cc = new CostCard();
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        for (int step = 0; step < n; step++) {
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            int bestCard = 0;
+            boolean bestSwapped = false;
+            for (int j = 0; j < n; j++) {
+                if (added[j])
+                    continue;
+                if (computeCostAndCardOfSubplan(g, j, step == 0,
+                        inPlan[g.rel1[j]], g.rel2[j] >= 0 && inPlan[g.rel2[j]],
+                        planCost, planCard, planPkey, bestCost, cc)) {
+                    best = j;
+                    bestCost = cc.cost;
+                    bestCard = cc.card;
+                    bestSwapped = cc.swapped;
+                }
             }
+            if (best < 0)
+                return null;
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+            added[best] = true;
+            inPlan[g.rel1[best]] = true;
+            if (g.rel2[best] >= 0)
+                inPlan[g.rel2[best]] = true;
+            planCost = bestCost;
+            planCard = bestCard;
+            planPkey |= g.pkey1[best] || g.pkey2[best];
+            order.addElement(bestSwapped ? g.swappedJoins[best]
+                    : g.joins[best]);
+        }
+        return order;
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+    /**
+     * Statistics of the base relations and joins of this optimizer's join
+     * list, looked up once per call to {@link #orderJoins} so that the
+     * enumeration itself only does array accesses. Relations are numbered in
+     * order of first appearance, so a set of them fits in a long bitmask.
+     */
+    private class JoinGraph {
+        /** The joins, and the same joins with inner and outer swapped */
+        final LogicalJoinNode[] joins, swappedJoins;
+        /** Relation number of each side of a join; rel2 is -1 for subplans */
+        final int[] rel1, rel2;
+        /**
+         * Bitmask of the relations touched by each join; only meaningful for
+         * the first 64 relations, which covers every join list small enough
+         * to be ordered exhaustively
+         */
+        final long[] joinRelations;
+        /** Whether each side of a join is the primary key of its table */
+        final boolean[] pkey1, pkey2;
+        /** Bitmask of the first 64 joins with a primary key on either side */
+        long pkeyJoins;
+        /** Scan cost and filtered cardinality of each relation */
+        final double[] scanCost;
+        final int[] card;
+        final HashMap<String, TableStats> stats;
+
+        private final HashMap<String, Integer> relationIds = new HashMap<String, Integer>();
+        int numRelations = 0;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            int n = JoinOptimizer.this.joins.size();
+            joins = JoinOptimizer.this.joins.toArray(new LogicalJoinNode[n]);
+            swappedJoins = new LogicalJoinNode[n];
+            rel1 = new int[n];
+            rel2 = new int[n];
+            joinRelations = new long[n];
+            pkey1 = new boolean[n];
+            pkey2 = new boolean[n];
+            scanCost = new double[2 * n];
+            card = new int[2 * n];
+
+            for (int i = 0; i < n; i++) {
+                LogicalJoinNode j = joins[i];
+                swappedJoins[i] = j.swapInnerOuter();
+                rel1[i] = relation(j.t1Alias, stats, filterSelectivities);
+                pkey1[i] = isPkey(j.t1Alias, j.f1PureName);
+                if (j.t2Alias == null) {
+                    rel2[i] = -1;
+                } else {
+                    rel2[i] = relation(j.t2Alias, stats, filterSelectivities);
+                    pkey2[i] = isPkey(j.t2Alias, j.f2PureName);
+                }
+                joinRelations[i] = relationBit(rel1[i]) | relationBit(rel2[i]);
+                if ((pkey1[i] || pkey2[i]) && i < Long.SIZE)
+                    pkeyJoins |= 1L << i;
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        long relationBit(int r) {
+            return r < 0 || r >= Long.SIZE ? 0 : 1L << r;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
-
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+        private int relation(String alias, HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            Integer r = relationIds.get(alias);
+            if (r != null)
+                return r;
+            Integer tableId = p.getTableId(alias);
+            if (tableId == null)
+                throw new ParsingException("Unknown table " + alias);
+            String tableName = Database.getCatalog().getTableName(tableId);
+            TableStats s = stats.get(tableName);
+            if (s == null)
+                throw new ParsingException("No statistics for table "
+                        + tableName);
+            Double sel = filterSelectivities.get(alias);
+            if (sel == null)
+                throw new ParsingException("No filter selectivity for table "
+                        + alias);
+            r = numRelations++;
+            scanCost[r] = s.estimateScanCost();
+            card[r] = s.estimateTableCardinality(sel);
+            relationIds.put(alias, r);
+            return r;
+        }
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * This is a helper method that computes the cost and cardinality of joining
+     * join j to a previously planned set of joins, described by its cost,
+     * cardinality and the sides of j it already contains.
+     * 
+     * @param g
+     *            the statistics of the relations and joins being ordered
+     * @param j
+     *            the position of the join to add
+     * @param first
+     *            true if j is the first join of the plan, in which case both
+     *            of its sides are base relations
+     * @param t1InPrev
+     *            true if the previous plan already joins j.t1
+     * @param t2InPrev
+     *            true if the previous plan already joins j.t2
+     * @param prevCost
+     *            the estimated cost of the previous plan
+     * @param prevCard
+     *            the estimated cardinality of the previous plan
+     * @param prevPkey
+     *            true if the previous plan joins on a primary key
+     * @param bestCostSoFar
+     *            the best way to join the same set of joins so far (minimum of
+     *            previous invocations of computeCostAndCardOfSubplan for it)
+     * @param cc
+     *            filled in with the cost, cardinality and orientation of the
+     *            join when a better plan is found
+     * @return true if adding j is cheaper than bestCostSoFar; false if it is
+     *         not, or if it would require a cross product
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private boolean computeCostAndCardOfSubplan(JoinGraph g, int j,
+            boolean first, boolean t1InPrev, boolean t2InPrev,
+            double prevCost, int prevCard, boolean prevPkey,
+            double bestCostSoFar, CostCard cc) {
+        int r1 = g.rel1[j], r2 = g.rel2[j];
+        double t1cost, t2cost;
+        int t1card, t2card;
+        boolean leftPkey, rightPkey;
+
+        if (first) { // base case -- both are base relations
+            t1cost = g.scanCost[r1];
+            t1card = g.card[r1];
+            leftPkey = g.pkey1[j];
+
+            t2cost = r2 < 0 ? 0 : g.scanCost[r2];
+            t2card = r2 < 0 ? 0 : g.card[r2];
+            rightPkey = g.pkey2[j];
+        } else if (t1InPrev) {
+            // j.t1 is in the previous plan, which becomes the outer
+            t1cost = prevCost;
+            t1card = prevCard;
+            leftPkey = prevPkey;
+
+            t2cost = r2 < 0 ? 0 : g.scanCost[r2];
+            t2card = r2 < 0 ? 0 : g.card[r2];
+            rightPkey = g.pkey2[j];
+        } else if (t2InPrev) {
+            t2cost = prevCost;
+            t2card = prevCard;
+            rightPkey = prevPkey;
+
+            t1cost = g.scanCost[r1];
+            t1card = g.card[r1];
+            leftPkey = g.pkey1[j];
+        } else {
+            // don't consider this plan if neither j.t1 nor j.t2 is a
+            // table joined in the previous plan (cross product)
+            return false;
         }
-        return false;
+
+        double cost1 = estimateJoinCost(g.joins[j], t1card, t2card, t1cost,
+                t2cost);
+        double cost2 = estimateJoinCost(g.swappedJoins[j], t2card, t1card,
+                t2cost, t1cost);
+        boolean swap = cost2 < cost1;
+        double cost = swap ? cost2 : cost1;
+        if (cost >= bestCostSoFar)
+            return false;
+
+        if (swap)
+            cc.card = estimateJoinCardinality(g.swappedJoins[j], t2card,
+                    t1card, rightPkey, leftPkey, g.stats);
+        else
+            cc.card = estimateJoinCardinality(g.joins[j], t1card, t2card,
+                    leftPkey, rightPkey, g.stats);
+        cc.cost = cost;
+        cc.swapped = swap;
+        return true;
     }
 
     /**
@@ -404,20 +579,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -425,6 +586,9 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
+     * @param positions
+     *            the position of each join of js in the list of joins being
+     *            ordered, which identifies it in the PlanCache
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
      * @param stats
@@ -434,7 +598,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, int[] positions, PlanCache pc,
             HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
@@ -454,13 +618,14 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
+        long pathSoFar = 0;
         boolean neither;
 
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+        for (int k = 0; k < js.size(); k++) {
+            LogicalJoinNode j = js.elementAt(k);
+            pathSoFar |= 1L << positions[k];
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * LZCodec is a small LZ77-style compressor for pages.  It finds repeated
+ * 4-byte sequences with a hash table, and encodes a page as a series of
+ * literal runs each followed by a back-reference, so long runs of padding and
+ * repeated values take a few bytes.  It favors speed over compression ratio.
+ * <p>
+ * The compressed form is a sequence of tokens: the length of a literal run,
+ * the literal bytes, then (unless the output is complete) the length of a
+ * match minus {@link #MIN_MATCH} and its distance back into the output.  All
+ * numbers are unsigned varints, 7 bits per byte, least significant first.
+ */
+final class LZCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+
+    private LZCodec() {
+    }
+
+    private static int read4(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * @return the compressed form of the first len bytes of in
+     */
+    static byte[] compress(byte[] in, int len) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(len / 4 + 16);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0, i = 0;
+        while (i + MIN_MATCH <= len) {
+            int v = read4(in, i);
+            int h = hash(v);
+            int cand = table[h];
+            table[h] = i;
+            if (cand < 0 || read4(in, cand) != v) {
+                i++;
+                continue;
+            }
+            int m = MIN_MATCH;
+            while (i + m < len && in[cand + m] == in[i + m])
+                m++;
+            writeVarint(out, i - anchor);
+            out.write(in, anchor, i - anchor);
+            writeVarint(out, m - MIN_MATCH);
+            writeVarint(out, i - cand);
+            i += m;
+            anchor = i;
+        }
+        writeVarint(out, len - anchor);
+        out.write(in, anchor, len - anchor);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param in compressed data, as returned by {@link #compress}
+     * @param off the offset of the compressed data in in
+     * @param len the number of bytes the data decompresses to
+     * @return the decompressed data
+     * @throws IllegalArgumentException if in is not valid compressed data
+     */
+    static byte[] decompress(byte[] in, int off, int len) {
+        byte[] out = new byte[len];
+        int[] pos = { off };
+        int op = 0;
+        try {
+            while (true) {
+                int lit = readVarint(in, pos);
+                System.arraycopy(in, pos[0], out, op, lit);
+                pos[0] += lit;
+                op += lit;
+                if (op == len)
+                    return out;
+                int m = readVarint(in, pos) + MIN_MATCH;
+                int from = op - readVarint(in, pos);
+                if (from < 0 || op + m > len)
+                    throw new IllegalArgumentException("corrupt compressed data");
+                // copy a byte at a time: the match may overlap its output
+                for (int k = 0; k < m; k++)
+                    out[op++] = out[from + k];
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt compressed data");
+        }
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int v = 0, shift = 0, b;
+        do {
+            b = in[pos[0]++];
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+}
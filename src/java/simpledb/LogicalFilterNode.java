@@ -15,6 +15,10 @@ public class LogicalFilterNode {
     
     /* The constant on the right side of the filter */
     public String c;
+
+    /** The number of the parameter (a ? in the SQL text) that c stands for, or -1 if c is a literal.
+        c is null until a value is bound to the parameter. */
+    public int param = -1;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public String fieldPureName;
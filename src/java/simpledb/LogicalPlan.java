@@ -2,9 +2,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 
 /**
@@ -36,6 +39,13 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private boolean joinsOrdered = false;
+    /** For each table alias, the positions in filters of the filters its
+        index scan answers, as chosen by the first call to physicalPlan; null
+        until then */
+    private HashMap<String,int[]> indexFilterPositions = null;
+    private int maxExhaustiveJoins = JoinOptimizer.DEFAULT_MAX_EXHAUSTIVE_JOINS;
+    private int numParameters = 0;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -50,6 +60,17 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /** Set the largest number of joins this plan orders by exhaustive
+        dynamic programming; plans with more joins are ordered greedily.
+        @param joins the new threshold, at most {@link PlanCache#MAX_JOINS}
+        @see JoinOptimizer#setMaxExhaustiveJoins
+    */
+    public void setMaxExhaustiveJoins(int joins) {
+        if (joins < 0 || joins > PlanCache.MAX_JOINS)
+            throw new IllegalArgumentException("threshold must be between 0 and " + PlanCache.MAX_JOINS);
+        maxExhaustiveJoins = joins;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -105,6 +126,28 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a new filter to the logical plan whose constant is the next
+     *   parameter of the query, a ? in its text.  Parameters are numbered
+     *   from 0 in the order their filters are added.
+     *   @param field The name of the field over which the filter applies, as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or if field is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, null);
+        lf.param = numParameters++;
+        filters.addElement(lf);
+    }
+
+    /** Return the number of parameters of this plan, added via {@link #addParameterFilter}. */
+    int numParameters() {
+        return numParameters;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -216,6 +259,75 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Return the constants compared against by the filters of this plan, in
+        the order the filters were added via {@link #addFilter}.
+    */
+    String[] getFilterConstants() {
+        String[] constants = new String[filters.size()];
+        for (int i = 0; i < constants.length; i++)
+            constants[i] = filters.elementAt(i).c;
+        return constants;
+    }
+
+    /** Return the filters of this plan, in the order they were added via {@link #addFilter}. */
+    Vector<LogicalFilterNode> getFilters() {
+        return filters;
+    }
+
+    /** Return true if this plan joins with a subquery, whose physical plan is
+        bound to the transaction that parsed it.
+    */
+    boolean hasSubplanJoins() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
+    /** Return the ids of the tables scanned by this plan. */
+    java.util.Collection<Integer> getTableIds() {
+        return tableMap.values();
+    }
+
+    /** Return a copy of this plan in which the filters compare against new
+        constants.  If this plan has been through {@link #physicalPlan}, the
+        copy reads each table through the access path chosen then and
+        performs its joins in the order chosen then, rather than
+        re-optimizing them, so that the optimization can be reused by queries
+        differing only in their literals.
+        @param constants the new constant of each filter, in the order of {@link #getFilterConstants}
+        @throws IllegalArgumentException if there is not one constant per filter
+    */
+    LogicalPlan bindConstants(String[] constants) {
+        if (constants.length != filters.size())
+            throw new IllegalArgumentException("expected " + filters.size() + " constants, got " + constants.length);
+        LogicalPlan lp = new LogicalPlan();
+        lp.tables.addAll(tables);
+        lp.tableMap.putAll(tableMap);
+        lp.joins.addAll(joins);
+        lp.joinsOrdered = joinsOrdered;
+        lp.indexFilterPositions = indexFilterPositions;
+        lp.maxExhaustiveJoins = maxExhaustiveJoins;
+        for (int i = 0; i < constants.length; i++) {
+            LogicalFilterNode lf = filters.elementAt(i);
+            LogicalFilterNode bound = new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, constants[i]);
+            bound.param = lf.param;
+            lp.filters.addElement(bound);
+        }
+        lp.numParameters = numParameters;
+        lp.selectList.addAll(selectList);
+        lp.groupByField = groupByField;
+        lp.hasAgg = hasAgg;
+        lp.aggOp = aggOp;
+        lp.aggField = aggField;
+        lp.oByAsc = oByAsc;
+        lp.hasOrderBy = hasOrderBy;
+        lp.oByField = oByField;
+        lp.query = query;
+        return lp;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +383,227 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Build the constant a filter compares against, as a field of the given type. */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Pick the filter over a table that is best answered by an index scan,
+        if scanning the index for it is estimated to be cheaper than a
+        sequential scan of the whole table.  Filters on the key of a B+ tree
+        table are answered by a {@link BTreeScan}, and filters on a field of a
+        heap file with a {@link SecondaryIndex} by an {@link IndexScan}, or
+        by an {@link IndexOnlyScan} if the index covers the fields of the
+        table that the plan reads.  Equality filters on the key of a hash
+        index file are answered by a {@link HashIndexScan}.
+        @return the filter to push into the index scan, or null to scan the table sequentially
+    */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, DbFile file, TableStats s) {
+        TupleDesc td = file.getTupleDesc();
+        int keyField = file instanceof BTreeFile ? ((BTreeFile) file).keyField() : -1;
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyFields().length > 1)
+            keyField = -1;  // see chooseCompositeKeyFilters
+        int hashField = file instanceof HashIndexFile ? ((HashIndexFile) file).keyField() : -1;
+        LogicalFilterNode best = null;
+        double bestCost = s.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            SecondaryIndex index = Database.getCatalog().getIndex(table.t, field);
+            if (field != keyField && index == null && (field != hashField || lf.p != Predicate.Op.EQUALS))
+                continue;
+            double sel = s.estimateSelectivity(field, lf.p, filterConstant(lf, td.getFieldType(field)));
+            double cost;
+            if (field == keyField)
+                cost = s.estimateIndexScanCost(sel);
+            else if (field == hashField)
+                cost = s.estimateHashLookupCost(sel);
+            else if (index.covers(scannedFields(table.alias, td)))
+                cost = s.estimateIndexOnlyScanCost(index, sel);
+            else
+                cost = s.estimateSecondaryIndexCost(index, sel);
+            if (cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /** Pick the filters over a table keyed on several fields that are
+        answered by a single range scan of its B+ tree: equality filters on
+        its leading key fields, then at most a lower and an upper bound on the
+        next one, if scanning that range is estimated to be cheaper than a
+        sequential scan of the whole table.
+        @return the filters to push into the index scan, equality filters
+          first in key order, or null to scan the table sequentially
+    */
+    private List<LogicalFilterNode> chooseCompositeKeyFilters(LogicalScanNode table, BTreeFile file, TableStats s) {
+        TupleDesc td = file.getTupleDesc();
+        ArrayList<LogicalFilterNode> chosen = new ArrayList<LogicalFilterNode>();
+        double sel = 1.0;
+        for (int k : file.keyFields()) {
+            LogicalFilterNode eq = null, lower = null, upper = null;
+            for (LogicalFilterNode lf : filters) {
+                if (!lf.tableAlias.equals(table.alias))
+                    continue;
+                try {
+                    if (td.fieldNameToIndex(lf.fieldPureName) != k)
+                        continue;
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (lf.p == Predicate.Op.EQUALS && eq == null)
+                    eq = lf;
+                else if ((lf.p == Predicate.Op.GREATER_THAN || lf.p == Predicate.Op.GREATER_THAN_OR_EQ) && lower == null)
+                    lower = lf;
+                else if ((lf.p == Predicate.Op.LESS_THAN || lf.p == Predicate.Op.LESS_THAN_OR_EQ) && upper == null)
+                    upper = lf;
+            }
+            for (LogicalFilterNode lf : eq != null ? new LogicalFilterNode[] { eq } : new LogicalFilterNode[] { lower, upper }) {
+                if (lf != null) {
+                    chosen.add(lf);
+                    sel *= s.estimateSelectivity(k, lf.p, filterConstant(lf, td.getFieldType(k)));
+                }
+            }
+            if (eq == null)
+                break;
+        }
+        if (chosen.isEmpty() || s.estimateIndexScanCost(sel) >= s.estimateScanCost())
+            return null;
+        return chosen;
+    }
+
+    /** Build the predicate over the composite key of a B+ tree table that
+        selects the range of keys satisfying filters picked by
+        {@link #chooseCompositeKeyFilters}.  The values of the equality
+        filters make up a prefix of the key, which bounds a one-sided range
+        on the next key field from the other side.
+    */
+    private static IndexPredicate compositeKeyPredicate(List<LogicalFilterNode> lfs, TupleDesc td) {
+        ArrayList<Field> prefix = new ArrayList<Field>();
+        LogicalFilterNode lower = null, upper = null;
+        for (LogicalFilterNode lf : lfs) {
+            Field f = filterConstant(lf, td.getFieldType(td.fieldNameToIndex(lf.fieldPureName)));
+            if (lf.p == Predicate.Op.EQUALS)
+                prefix.add(f);
+            else if (lf.p == Predicate.Op.GREATER_THAN || lf.p == Predicate.Op.GREATER_THAN_OR_EQ)
+                lower = lf;
+            else
+                upper = lf;
+        }
+        CompositeField eq = new CompositeField(prefix.toArray(new Field[0]));
+        if (lower == null && upper == null)
+            return new IndexPredicate(Predicate.Op.EQUALS, eq);
+        CompositeField lo = lower == null ? null : extend(prefix, filterConstant(lower, td.getFieldType(td.fieldNameToIndex(lower.fieldPureName))));
+        CompositeField hi = upper == null ? null : extend(prefix, filterConstant(upper, td.getFieldType(td.fieldNameToIndex(upper.fieldPureName))));
+        if (lower != null && upper != null)
+            return new IndexPredicate(lower.p, lo, upper.p, hi);
+        if (lower != null)
+            return prefix.isEmpty() ? new IndexPredicate(lower.p, lo) : new IndexPredicate(lower.p, lo, Predicate.Op.LESS_THAN_OR_EQ, eq);
+        return prefix.isEmpty() ? new IndexPredicate(upper.p, hi) : new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, eq, upper.p, hi);
+    }
+
+    /** @return the composite field of the values of prefix followed by f */
+    private static CompositeField extend(List<Field> prefix, Field f) {
+        Field[] values = prefix.toArray(new Field[prefix.size() + 1]);
+        values[prefix.size()] = f;
+        return new CompositeField(values);
+    }
+
+    /** Return the fields of the table with the specified alias that are read
+        by the joins, select list, grouping, aggregate, or ordering of this
+        plan, in ascending order, or null if all of them are (or might be).
+        Fields used only by filters are not included, as filters are
+        evaluated by the scan of the table.
+    */
+    private int[] referencedFields(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.add(groupByField);
+        names.add(aggField);
+        if (hasOrderBy)
+            names.add(oByField);
+        boolean[] used = new boolean[td.numFields()];
+        for (LogicalJoinNode lj : joins) {
+            if (lj.t1Alias.equals(alias) && !markUsed(td, lj.f1PureName, used))
+                return null;
+            if (!(lj instanceof LogicalSubplanJoinNode) && lj.t2Alias.equals(alias)
+                    && !markUsed(td, lj.f2PureName, used))
+                return null;
+        }
+        for (String name : names) {
+            if (name == null)
+                continue;
+            if (name.startsWith("null."))
+                return null;
+            if (name.startsWith(alias + ".") && !markUsed(td, name.substring(alias.length() + 1), used))
+                return null;
+        }
+
+        int n = 0;
+        for (boolean u : used)
+            n += u ? 1 : 0;
+        if (n == used.length)
+            return null;
+        if (n == 0)  // a TupleDesc needs at least one field
+            return new int[] { 0 };
+        int[] fields = new int[n];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i])
+                fields[j++] = i;
+        }
+        return fields;
+    }
+
+    /** Return the fields of the table with the specified alias that a scan
+        of it must read: those that the plan reads, and those that its
+        filters test.
+    */
+    private int[] scannedFields(String alias, TupleDesc td) {
+        int[] referenced = referencedFields(alias, td);
+        boolean[] used = new boolean[td.numFields()];
+        for (int i = 0; i < used.length; i++)
+            used[i] = referenced == null;
+        if (referenced != null) {
+            for (int f : referenced)
+                used[f] = true;
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                markUsed(td, lf.fieldPureName, used);
+        }
+        int n = 0;
+        for (boolean u : used)
+            n += u ? 1 : 0;
+        int[] fields = new int[n];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i])
+                fields[j++] = i;
+        }
+        return fields;
+    }
+
+    /** Mark the field with the specified name as used; return false if td has no such field. */
+    private static boolean markUsed(TupleDesc td, String name, boolean[] used) {
+        try {
+            used[td.fieldNameToIndex(name)] = true;
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -285,68 +618,169 @@ public class LogicalPlan {
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.c == null)
+                throw new ParsingException("Parameter " + lf.param + " is not bound; parameters are only supported in prepared queries.");
+        }
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        // filters answered by an index scan rather than a Filter operator
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
+        // tables read by a SeqScan or an IndexOnlyScan, and the filters pushed down into each
+        HashMap<String,Vector<Predicate>> seqScanFilters = new HashMap<String,Vector<Predicate>>();
+        // tables read from a covering index alone, and the predicate over its indexed field
+        HashMap<String,SecondaryIndex> coveringIndexes = new HashMap<String,SecondaryIndex>();
+        HashMap<String,IndexPredicate> coveringPredicates = new HashMap<String,IndexPredicate>();
+
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbFile file;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                file = Database.getCatalog().getDatabaseFile(table.t);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            TableStats s = baseTableStats.get(baseTableName);
+
+            boolean composite = file instanceof BTreeFile && ((BTreeFile) file).keyFields().length > 1;
+            List<LogicalFilterNode> chosen = null;
+            if (indexFilterPositions != null) {
+                // reuse the access path chosen by the first physical plan
+                int[] positions = indexFilterPositions.get(table.alias);
+                if (positions.length > 0) {
+                    chosen = new ArrayList<LogicalFilterNode>();
+                    for (int i : positions)
+                        chosen.add(filters.elementAt(i));
+                }
+            }
+            else if (s != null && composite)
+                chosen = chooseCompositeKeyFilters(table, (BTreeFile) file, s);
+            else if (s != null) {
+                LogicalFilterNode lf = chooseIndexFilter(table, file, s);
+                if (lf != null)
+                    chosen = Collections.singletonList(lf);
+            }
+
+            if (composite) {
+                List<LogicalFilterNode> lfs = chosen;
+                if (lfs != null) {
+                    IndexPredicate ipred = compositeKeyPredicate(lfs, file.getTupleDesc());
+                    subplanMap.put(table.alias, new BTreeScan(t, file.getId(), table.alias, ipred));
+                    indexFilters.addAll(lfs);
+                    if (explain) {
+                        for (LogicalFilterNode lf : lfs)
+                            System.out.println("Using index scan on " + table.alias + " for " + lf.fieldQuantifiedName + " " + lf.p + " " + lf.c);
+                    }
+                }
+            }
+            else {
+                LogicalFilterNode lf = chosen == null ? null : chosen.get(0);
+                if (lf != null) {
+                    int field = file.getTupleDesc().fieldNameToIndex(lf.fieldPureName);
+                    IndexPredicate ipred = new IndexPredicate(lf.p, filterConstant(lf, file.getTupleDesc().getFieldType(field)));
+                    SecondaryIndex index = Database.getCatalog().getIndex(table.t, field);
+                    if (index != null && index.covers(scannedFields(table.alias, file.getTupleDesc()))) {
+                        // built once the table's other filters are known
+                        coveringIndexes.put(table.alias, index);
+                        coveringPredicates.put(table.alias, ipred);
+                    }
+                    else if (index != null)
+                        subplanMap.put(table.alias, new IndexScan(t, index, table.alias, ipred));
+                    else if (file instanceof HashIndexFile)
+                        subplanMap.put(table.alias, new HashIndexScan(t, file.getId(), table.alias, ipred));
+                    else
+                        subplanMap.put(table.alias, new BTreeScan(t, file.getId(), table.alias, ipred));
+                    indexFilters.add(lf);
+                    if (explain)
+                        System.out.println("Using " + (coveringIndexes.containsKey(table.alias) ? "index-only" : "index")
+                                + " scan on " + table.alias + " for " + lf.fieldQuantifiedName + " " + lf.p + " " + lf.c);
+                }
+            }
+            if (!subplanMap.containsKey(table.alias))
+                seqScanFilters.put(table.alias, new Vector<Predicate>());
+
+            statsMap.put(baseTableName, s);
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        if (indexFilterPositions == null) {
+            indexFilterPositions = new HashMap<String,int[]>();
+            for (LogicalScanNode table : tables) {
+                ArrayList<Integer> positions = new ArrayList<Integer>();
+                for (int i = 0; i < filters.size(); i++) {
+                    LogicalFilterNode lf = filters.elementAt(i);
+                    if (lf.tableAlias.equals(table.alias) && indexFilters.contains(lf))
+                        positions.add(i);
+                }
+                int[] ar = new int[positions.size()];
+                for (int i = 0; i < ar.length; i++)
+                    ar[i] = positions.get(i);
+                indexFilterPositions.put(table.alias, ar);
+            }
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
-            DbIterator subplan = subplanMap.get(lf.tableAlias);
-            if (subplan == null) {
+            if (!tableMap.containsKey(lf.tableAlias)) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
+            // fields are numbered the same way in the table and in its scan
             Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            int field;
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(lf.tableAlias));
             
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, td.getFieldType(field));
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            Predicate p = new Predicate(field, lf.p, f);
+            if (indexFilters.contains(lf)) {
+                // answered by the index scan
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            else if (seqScanFilters.containsKey(lf.tableAlias))
+                seqScanFilters.get(lf.tableAlias).add(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplanMap.get(lf.tableAlias)));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // push filters and the fields the rest of the plan needs into the SeqScans
+        for (Map.Entry<String,Vector<Predicate>> e : seqScanFilters.entrySet()) {
+            String alias = e.getKey();
+            int tableId = tableMap.get(alias);
+            Vector<Predicate> preds = e.getValue();
+            int[] fields = referencedFields(alias, Database.getCatalog().getTupleDesc(tableId));
+            Predicate[] predAr = preds.toArray(new Predicate[preds.size()]);
+            if (coveringIndexes.containsKey(alias))
+                subplanMap.put(alias, new IndexOnlyScan(t, coveringIndexes.get(alias), alias,
+                        coveringPredicates.get(alias), predAr, fields));
+            else
+                subplanMap.put(alias, new SeqScan(t, tableId, alias, predAr, fields));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
+        jo.setMaxExhaustiveJoins(maxExhaustiveJoins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinsOrdered) {
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = true;
+        }
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -35,6 +35,12 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /** @return true if e is a parameter, a ? in the text of a prepared query */
+    private static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException {
         if (wx.getOperator().equals("AND")) {
@@ -62,6 +68,17 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            if (isParameter(ops.elementAt(0)) || isParameter(ops.elementAt(1))) {
+                // a filter comparing a field against a parameter of a prepared query
+                ZExp other = isParameter(ops.elementAt(0)) ? ops.elementAt(1) : ops.elementAt(0);
+                if (!(other instanceof ZConstant)
+                        || ((ZConstant) other).getType() != ZConstant.COLUMNNAME)
+                    throw new simpledb.ParsingException(
+                            "Parameters may only be compared against a field.");
+                lp.addParameterFilter(((ZConstant) other).getValue(), op);
+                return;
+            }
+
             boolean op1const = ops.elementAt(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -276,9 +293,35 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
+        return handleQueryStatement(s, tId, null);
+    }
 
+    /**
+     * Plan a query statement, and remember its plan in the query plan cache
+     * under the specified SQL text.
+     * 
+     * @param sql
+     *            the text the statement was parsed from, or null to not
+     *            cache the plan
+     */
+    Query handleQueryStatement(ZQuery s, TransactionId tId, String sql)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        Query query = planQuery(lp, tId);
+        if (sql != null)
+            Database.getQueryPlanCache().addPlan(sql, lp);
+        return query;
+    }
+
+    /**
+     * Build the physical plan of a parsed (or cached) logical plan and wrap
+     * it in a Query.
+     */
+    Query planQuery(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
+        Query query = new Query(tId);
+
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -365,14 +408,19 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.VARCHAR_TYPE) {
+                        t.setField(i, new VarcharField(zc.getValue(),
+                                Type.STRING_LEN));
+                    } else if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.DICT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
+                    } else {
+                        StringField f = new StringField(zc.getValue(),
+                                Type.STRING_LEN);
+                        t.setField(i, f);
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
                             "Only string or int fields are supported.");
@@ -494,7 +542,7 @@ public class Parser {
 
     public void processNextStatement(String s) {
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")), s);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -502,9 +550,27 @@ public class Parser {
     }
 
     public void processNextStatement(InputStream is) {
+        processNextStatement(is, null);
+    }
+
+    /**
+     * Run the next statement of is.  If the text of the statement is known,
+     * a query whose plan is in the query plan cache is run without parsing
+     * it, and the plans of other queries are added to the cache.
+     * 
+     * @param sql
+     *            the text of the statement in is, or null if unknown
+     */
+    private void processNextStatement(InputStream is, String sql) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            LogicalPlan cachedPlan = null;
+            ZStatement s = null;
+            if (sql != null && !explain)
+                cachedPlan = Database.getQueryPlanCache().getPlan(sql);
+            if (cachedPlan == null) {
+                ZqlParser p = new ZqlParser(is);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +583,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (cachedPlan != null)
+                        query = planQuery(cachedPlan, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -525,7 +593,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), explain ? null : sql);
                     else {
                         System.out
                                 .println("Can't parse "
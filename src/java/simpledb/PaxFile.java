@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a heap file whose pages store their tuples column by column.
+ * It is organized like a {@link HeapFile}, with the same pages, page ids and
+ * capacity, but each page is a {@link PaxPage}, so scans that read some of a
+ * table's fields, like SeqScans with a projection, only decode those fields.
+ * Tables are stored as PaxFiles by adding "pax" after their schema in the
+ * catalog file.
+ *
+ * @see simpledb.PaxPage#PaxPage
+ * @see HeapFileEncoder#convertToPax
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the TupleDesc of the table, which must be fixed-length
+     * @throws IllegalArgumentException if td is variable-length
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+        if (td.isVariableLength())
+            throw new IllegalArgumentException("PAX files only store fixed-length tuples");
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages may be
+     * compressed.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public PaxFile(File f, TupleDesc td, boolean compressed) throws IOException {
+        super(f, td, compressed);
+        if (td.isVariableLength())
+            throw new IllegalArgumentException("PAX files only store fixed-length tuples");
+    }
+
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid) {
+        if (getId() == pid.getTableId()) {
+            try {
+                return new PaxPage((HeapPageId) pid, readPageData(pid.pageNumber()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        return new PaxPage((HeapPageId) pid, data);
+    }
+
+    Iterator<Tuple> pageTuples(Page page) {
+        return ((PaxPage) page).iterator();
+    }
+
+    Tuple slotTuple(Page page, int slot) {
+        return ((PaxPage) page).tupleAt(slot);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        PaxPage page = null;
+        for (int i = 0; i < numPages() && page == null; i++) {
+            PaxPage p = (PaxPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
+            if (p.getNumEmptySlots() > 0)
+                page = p;
+        }
+        if (page == null) {
+            page = new PaxPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+            writePage(page);
+        }
+        page = (PaxPage) Database.getBufferPool().getPage(tid, page.getId(), Permissions.READ_WRITE);
+        page.insertTuple(t);
+        getZoneMap().widen(page.getId().pageNumber(), t);
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        PageId pid = t.getRecordId() == null ? null : t.getRecordId().getPageId();
+        if (pid == null || pid.getTableId() != getId() || pid.pageNumber() >= numPages())
+            throw new DbException("the tuple cannot be deleted or is not a member of the file!");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a set of
+     * predicates, reading only some of their fields.  Each predicate is
+     * evaluated against the minipage of the field it tests, and only the
+     * returned fields of matching tuples are decoded.  As for HeapFiles,
+     * pages whose zones rule out the predicates are skipped.
+     *
+     * @see HeapFile#iterator(TransactionId, Predicate[], int[])
+     */
+    public DbFileIterator iterator(final TransactionId tid, final Predicate[] preds, final int[] fields) {
+        int n = preds == null ? 0 : preds.length;
+        final ZoneMap zones = n == 0 ? null : getZoneMap();
+        final CompiledPredicate[] compiled = new CompiledPredicate[n];
+        final int[] predFields = new int[n];
+        for (int i = 0; i < n; i++) {
+            compiled[i] = CompiledPredicate.compile(preds[i], getTupleDesc());
+            predFields[i] = preds[i].getField();
+        }
+        return new AbstractDbFileIterator() {
+            private int pNo = -1;
+            private Iterator<Tuple> pageIterator;
+            private final ReadAhead readAhead = new ReadAhead();
+
+            public void open() {
+                pNo = 0;
+                pageIterator = null;
+                readAhead.reset();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                pNo = -1;
+                pageIterator = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (pageIterator == null || !pageIterator.hasNext()) {
+                    if (pNo < 0 || pNo >= numPages())
+                        return null;
+                    readAhead.advance(pNo, zones, preds);
+                    PaxPage page = (PaxPage) nextPage(tid, pNo++, zones, preds);
+                    pageIterator = page == null ? null : page.iterator(compiled, predFields, fields);
+                }
+                return pageIterator.next();
+            }
+        };
+    }
+}
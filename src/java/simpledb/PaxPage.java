@@ -0,0 +1,337 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}.  It holds the same tuples a
+ * {@link HeapPage} of the same table would, but stores them column by column
+ * (the PAX layout): the values of each field of all the tuples on the page are
+ * kept together in a minipage.  A scan reading a few of a table's fields only
+ * touches and decodes those fields' minipages.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+    /** The offset in data of the minipage of each field */
+    private final int[] columnOffsets;
+    /** The page contents, updated in place by inserts and deletes */
+    private final byte[] data;
+
+    private TransactionId dirtyId = null;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * <p>
+     * A PaxPage holds as many tuples as a HeapPage of the same table, and
+     * starts with the same header bitmap of used slots.  The header is
+     * followed by one minipage per field, in field order.  The minipage of
+     * field j holds the value of field j of slot i at offset
+     * i * td.getFieldType(j).getLen() from its start, serialized as by
+     * {@link Field#serialize}.
+     *
+     * @throws IOException if data is shorter than a page, or the table's
+     *         TupleDesc is variable-length
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (td.isVariableLength())
+            throw new IOException("PAX pages only store fixed-length tuples");
+        if (data.length < BufferPool.getPageSize())
+            throw new IOException("short page: " + data.length + " bytes");
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.numSlots = numSlots(td, BufferPool.getPageSize());
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnOffsets = columnOffsets(td, numSlots);
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples of td a page of the specified size holds */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the offset of the minipage of each field of td in a page holding numSlots tuples */
+    static int[] columnOffsets(TupleDesc td, int numSlots) {
+        int[] offsets = new int[td.numFields()];
+        int headerSize = (numSlots + 7) / 8;
+        for (int j = 0; j < offsets.length; j++)
+            offsets[j] = headerSize + numSlots * td.getOffset(j);
+        return offsets;
+    }
+
+    /**
+     * Rearrange the data of a {@link HeapPage} of fixed-length tuples into
+     * the layout of a PaxPage holding the same tuples.
+     *
+     * @param heapData the data of a heap page
+     * @param td the TupleDesc of the page's tuples
+     * @return the data of the PaxPage
+     */
+    static byte[] fromHeapPageData(byte[] heapData, TupleDesc td) {
+        int n = numSlots(td, heapData.length);
+        int headerSize = (n + 7) / 8;
+        int[] columnOffsets = columnOffsets(td, n);
+        byte[] pax = new byte[heapData.length];
+        System.arraycopy(heapData, 0, pax, 0, headerSize);
+        for (int i = 0; i < n; i++) {
+            int row = headerSize + i * td.getSize();
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldType(j).getLen();
+                System.arraycopy(heapData, row + td.getOffset(j), pax, columnOffsets[j] + i * len, len);
+            }
+        }
+        return pax;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return a copy of the page's data, as described in the constructor
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("tuple is not on this page or its slot is already empty");
+        markSlotUsed(rid.tupleno(), false);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td) || getNumEmptySlots() == 0)
+            throw new DbException("the page is full (no empty slots) or tupledesc is mismatch.");
+        int i = 0;
+        while (isSlotUsed(i))
+            i++;
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getFieldType(j).getLen());
+                DataOutputStream dos = new DataOutputStream(baos);
+                HeapPage.writeField(dos, td, j, t.getField(j));
+                dos.flush();
+                byte[] b = baos.toByteArray();
+                System.arraycopy(b, 0, data, fieldOffset(i, j), b.length);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyId = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtyId;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int num = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                num++;
+        }
+        return num;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[i / 8] |= (byte) (1 << (i % 8));
+        else
+            data[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /** @return the offset in data of field j of the tuple in slot i */
+    private int fieldOffset(int i, int j) {
+        return columnOffsets[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /** Decode field j of the tuple in slot i */
+    private Field readField(int i, int j) {
+        int o = fieldOffset(i, j);
+        Type type = td.getFieldType(j);
+        if (type == Type.INT_TYPE)
+            return new IntField(CompiledPredicate.readInt(data, o));
+        if (type == Type.DICT_TYPE)
+            return td.getDictionary(j).field(CompiledPredicate.readInt(data, o));
+        try {
+            return type.parse(new DataInputStream(new ByteArrayInputStream(data, o, type.getLen())));
+        } catch (java.text.ParseException e) {
+            throw new IllegalStateException("unreadable field " + j + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the tuple in the specified slot, with its RecordId, or null if
+     *         the slot is empty
+     */
+    public Tuple tupleAt(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, readField(slot, j));
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy some
+     * predicates, decoding only some of their fields.  Each predicate tests a
+     * single field, so it is evaluated against that field's minipage alone:
+     * the raw value of field f of slot i sits where a row-wise tuple starting
+     * at columnOffset(f) + i * len(f) - td.getOffset(f) would keep it.
+     *
+     * @param preds predicates over single fields of this page's TupleDesc,
+     *        compiled with {@link CompiledPredicate#compile(Predicate, TupleDesc)};
+     *        null for none
+     * @param predFields the field each predicate tests
+     * @param fields the indexes of the fields to return, in order, or null
+     *        for all fields
+     * @return an iterator over the matching tuples, each a new Tuple with
+     *         the requested fields and the RecordId of its slot
+     */
+    public Iterator<Tuple> iterator(CompiledPredicate[] preds, int[] predFields, int[] fields) {
+        final int[] matching = matchingSlots(preds, predFields);
+        final int[] out = fields != null ? fields : allFields();
+        final TupleDesc outTd = fields != null ? HeapFile.projectTupleDesc(td, fields) : td;
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < matching.length;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int slot = matching[next++];
+                Tuple t = new Tuple(outTd);
+                for (int k = 0; k < out.length; k++)
+                    t.setField(k, readField(slot, out[k]));
+                t.setRecordId(new RecordId(pid, slot));
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int[] allFields() {
+        int[] all = new int[td.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return all;
+    }
+
+    /** Evaluate the predicates a column at a time over the used slots */
+    private int[] matchingSlots(CompiledPredicate[] preds, int[] predFields) {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        }
+        for (int p = 0; preds != null && p < preds.length; p++) {
+            int f = predFields[p], len = td.getFieldType(f).getLen();
+            int base = columnOffsets[f] - td.getOffset(f);
+            int kept = 0;
+            for (int k = 0; k < n; k++) {
+                if (preds[p].matches(data, base + slots[k] * len))
+                    slots[kept++] = slots[k];
+            }
+            n = kept;
+        }
+        return Arrays.copyOf(slots, n);
+    }
+}
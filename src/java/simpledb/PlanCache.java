@@ -1,50 +1,108 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.  Join sets are identified by a bitmask
+ * over the positions of the joins in the list handed to the optimizer, and
+ * plans are kept in flat arrays indexed by that mask.  Rather than one
+ * Vector per set, each entry only records the join that was added last (and
+ * whether its inner and outer were swapped); the full left-deep order is
+ * rebuilt by walking back through the smaller sets. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
+    /** Largest number of joins the plan table can be sized for */
+    public static final int MAX_JOINS = 20;
+
+    private final LogicalJoinNode[] joins;
+    private final double[] bestCosts;
+    private final int[] bestCardinalities;
+    private final byte[] lastJoins;
+    private final boolean[] swapped;
+
+    /** Create an empty plan table for every subset of the specified joins
+        @param joins the joins being ordered; bit i of a join set refers to joins.get(i)
+        @throws IllegalArgumentException if there are more than {@link #MAX_JOINS} joins
+    */
+    PlanCache(Vector<LogicalJoinNode> joins) {
+        if (joins.size() > MAX_JOINS)
+            throw new IllegalArgumentException("cannot cache plans for " + joins.size() + " joins");
+        this.joins = joins.toArray(new LogicalJoinNode[joins.size()]);
+        int size = 1 << this.joins.length;
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        lastJoins = new byte[size];
+        swapped = new boolean[size];
+        Arrays.fill(lastJoins, (byte) -1);
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
         @param s the set of joins for which a new ordering (plan) is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param lastJoin the join of s that is performed last; the rest of the plan is the best order for s without it
+        @param swap true if lastJoin is performed with its inner and outer swapped
+    */
+    void addPlan(long s, double cost, int card, int lastJoin, boolean swap) {
+        int i = (int) s;
+        bestCosts[i] = cost;
+        bestCardinalities[i] = card;
+        lastJoins[i] = (byte) lastJoin;
+        swapped[i] = swap;
+    }
+
+    /** @return true if a plan has been added for the specified join set */
+    boolean hasPlan(long s) {
+        return s == 0 || lastJoins[(int) s] >= 0;
+    }
+
+    /** Find the best join order in the cache for the specified plan
+        @param s the set of joins to look up the best order for
+        @return the best order for s in the cache, or null if there is none
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    Vector<LogicalJoinNode> getOrder(long s) {
+        if (!hasPlan(s))
+            return null;
+        LogicalJoinNode[] order = new LogicalJoinNode[Long.bitCount(s)];
+        for (int pos = order.length - 1; pos >= 0; pos--) {
+            int i = (int) s;
+            LogicalJoinNode j = joins[lastJoins[i]];
+            order[pos] = swapped[i] ? j.swapInnerOuter() : j;
+            s &= ~(1L << lastJoins[i]);
+        }
+        return new Vector<LogicalJoinNode>(Arrays.asList(order));
     }
-    
-    /** Find the best join order in the cache for the specified plan 
+
+    /** Find the positions of the joins of the best order in the cache for the specified plan
         @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @return the position in the list of joins of each join of {@link #getOrder}, in the same
+        order, or null if there is no plan for s
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    int[] getPositions(long s) {
+        if (!hasPlan(s))
+            return null;
+        int[] positions = new int[Long.bitCount(s)];
+        for (int pos = positions.length - 1; pos >= 0; pos--) {
+            positions[pos] = lastJoins[(int) s];
+            s &= ~(1L << positions[pos]);
+        }
+        return positions;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
+
+    /** Find the cost of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return bestCosts[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return bestCardinalities[(int) s];
     }
 }
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PreparedQuery is a SELECT statement that is parsed once and then executed
+ * many times with different parameter values.
+ * <p>
+ * Parameters are written as <tt>?</tt> in the SQL text and may stand for the
+ * constant of any WHERE clause filter, as in
+ * <tt>SELECT * FROM users u WHERE u.id = ?;</tt>.  Parameters are numbered
+ * from 0 in the order they appear, and must all be bound with
+ * {@link #bind} before {@link #execute}.
+ * <p>
+ * The access path of each table and the order of the joins are chosen the
+ * first time the query is executed, and reused by later executions, whatever
+ * their parameters.  Each execution still builds new operators from that
+ * plan, because operators belong to the transaction they are built for and
+ * hold the constants they compare against; building them is cheap next to
+ * parsing and join ordering.
+ * <p>
+ * A PreparedQuery keeps its parameter bindings, so an instance should not
+ * be shared between threads.
+ */
+public class PreparedQuery {
+    private final String sql;
+    private LogicalPlan plan;
+    /** For each filter of plan, the parameter it compares against, or -1 */
+    private final int[] filterParams;
+    private final String[] constants;
+    private final Type[] paramTypes;
+    private final Field[] params;
+    private boolean joinsOrdered = false;
+
+    private PreparedQuery(String sql, LogicalPlan plan, int[] filterParams, Type[] paramTypes) {
+        this.sql = sql;
+        this.plan = plan;
+        this.filterParams = filterParams;
+        this.constants = plan.getFilterConstants();
+        this.paramTypes = paramTypes;
+        this.params = new Field[paramTypes.length];
+    }
+
+    /**
+     * Parse a query with parameters.
+     *
+     * @param sql the text of a SELECT statement, with ? for each parameter
+     * @return the prepared query
+     * @throws ParsingException if the statement is invalid, contains a
+     *   subquery, or uses a parameter other than as a filter constant
+     */
+    public static PreparedQuery prepare(String sql) throws ParsingException {
+        // the parser tags the filters whose constant is a ?
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), sql);
+        if (lp.hasSubplanJoins())
+            throw new ParsingException("Subqueries are not supported in prepared queries.");
+        lp.setQuery(sql);
+
+        Vector<LogicalFilterNode> filters = lp.getFilters();
+        int[] filterParams = new int[filters.size()];
+        Type[] paramTypes = new Type[lp.numParameters()];
+        for (int i = 0; i < filterParams.length; i++) {
+            LogicalFilterNode lf = filters.elementAt(i);
+            filterParams[i] = lf.param;
+            if (lf.param < 0)
+                continue;
+            TupleDesc td = Database.getCatalog().getTupleDesc(lp.getTableId(lf.tableAlias));
+            try {
+                paramTypes[lf.param] = td.getFieldType(td.fieldNameToIndex(lf.fieldPureName));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+        }
+        return new PreparedQuery(sql, lp, filterParams, paramTypes);
+    }
+
+    /** @return the text this query was prepared from */
+    public String getQuery() {
+        return sql;
+    }
+
+    /** @return the number of parameters of this query */
+    public int numParameters() {
+        return params.length;
+    }
+
+    /**
+     * @return the type of the field parameter i is compared against
+     * @throws NoSuchElementException if there is no parameter i
+     */
+    public Type getParameterType(int i) throws NoSuchElementException {
+        if (i < 0 || i >= params.length)
+            throw new NoSuchElementException("no parameter " + i);
+        return paramTypes[i];
+    }
+
+    /**
+     * Bind a value to a parameter, replacing any previous value.
+     *
+     * @param i the number of the parameter, from 0
+     * @param value the value; its type must be that of the field the
+     *   parameter is compared against, or a StringField for a
+     *   dictionary-encoded field
+     * @throws NoSuchElementException if there is no parameter i
+     * @throws DbException if value has the wrong type
+     */
+    public void bind(int i, Field value) throws NoSuchElementException, DbException {
+        Type type = getParameterType(i);
+        if (value == null || type != value.getType()
+                && !(type == Type.DICT_TYPE && value instanceof StringField))
+            throw new DbException("parameter " + i + " requires a value of type " + paramTypes[i]);
+        params[i] = value;
+    }
+
+    /** Remove the values bound to all parameters. */
+    public void clearBindings() {
+        Arrays.fill(params, null);
+    }
+
+    /**
+     * Run the query with the currently bound parameters.  The returned
+     * Query has already been started; the caller should read its tuples
+     * with {@link Query#hasNext} and {@link Query#next} and then close it.
+     *
+     * @param tid the transaction to run the query in
+     * @return the running query
+     * @throws DbException if a parameter is not bound
+     */
+    public Query execute(TransactionId tid)
+            throws DbException, TransactionAbortedException, ParsingException {
+        String[] bound = constants.clone();
+        for (int i = 0; i < filterParams.length; i++) {
+            int param = filterParams[i];
+            if (param < 0)
+                continue;
+            if (params[param] == null)
+                throw new DbException("parameter " + param + " is not bound");
+            bound[i] = constantString(params[param]);
+        }
+
+        LogicalPlan lp = plan.bindConstants(bound);
+        DbIterator physicalPlan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        if (!joinsOrdered) {
+            // keep the access paths and join order chosen for the first execution
+            plan = lp.bindConstants(constants);
+            joinsOrdered = true;
+        }
+
+        Query query = new Query(physicalPlan, tid);
+        query.setLogicalPlan(lp);
+        try {
+            query.start();
+        } catch (java.io.IOException e) {
+            throw new DbException("could not start query: " + e.getMessage());
+        }
+        return query;
+    }
+
+    private static String constantString(Field f) {
+        if (f instanceof IntField)
+            return Integer.toString(((IntField) f).getValue());
+        return ((StringField) f).getValue();
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * QueryPlanCache remembers the optimized logical plans of recently run
+ * queries, so that a query whose shape has been seen before can skip SQL
+ * parsing and join ordering.
+ * <p>
+ * Queries are keyed by their SQL text with whitespace collapsed and every
+ * numeric or string literal replaced by a placeholder; the literals of a new
+ * query are then bound to the filters of the cached plan in the order they
+ * appear in the text.  Only plans whose filter constants line up exactly
+ * with the literals of the query (and that have no subqueries) are cached.
+ * <p>
+ * Entries are evicted in least-recently-used order once the cache is full,
+ * and are invalidated when the statistics of a table they read change or
+ * the table is replaced in the catalog.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+    /** Default maximum number of cached plans */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static class Entry {
+        final LogicalPlan template;
+        final Set<String> tables;
+
+        Entry(LogicalPlan template, Set<String> tables) {
+            this.template = template;
+            this.tables = tables;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+    private int capacity;
+    private long hits = 0, misses = 0;
+
+    /**
+     * Create an empty plan cache.
+     *
+     * @param capacity the maximum number of plans to keep
+     */
+    public QueryPlanCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > QueryPlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return a plan for the specified query if one with the same shape has
+     * been cached, with the literals of the query bound to its filters.
+     *
+     * @param sql the text of the query
+     * @return a new LogicalPlan whose joins are already ordered, or null if
+     *         no plan is cached for this query shape
+     */
+    public synchronized LogicalPlan getPlan(String sql) {
+        ArrayList<String> literals = new ArrayList<String>();
+        Entry e = entries.get(normalize(sql, literals));
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        LogicalPlan lp = e.template.bindConstants(literals.toArray(new String[literals.size()]));
+        lp.setQuery(sql);
+        return lp;
+    }
+
+    /**
+     * Cache the plan of a query.  The plan must have been through
+     * {@link LogicalPlan#physicalPlan}, so that its joins are in optimized
+     * order.  Plans whose filters cannot be matched with the literals of the
+     * query text are silently not cached.
+     *
+     * @param sql the text of the query
+     * @param lp the plan of the query
+     */
+    public synchronized void addPlan(String sql, LogicalPlan lp) {
+        if (capacity <= 0 || lp.hasSubplanJoins())
+            return;
+        ArrayList<String> literals = new ArrayList<String>();
+        String key = normalize(sql, literals);
+        String[] constants = lp.getFilterConstants();
+        if (constants.length != literals.size())
+            return;
+        for (int i = 0; i < constants.length; i++) {
+            if (!constants[i].equals(literals.get(i)))
+                return;
+        }
+
+        Set<String> tables = new HashSet<String>();
+        for (int tableId : lp.getTableIds()) {
+            try {
+                tables.add(Database.getCatalog().getTableName(tableId));
+            } catch (NoSuchElementException e) {
+                return;
+            }
+        }
+        entries.put(key, new Entry(lp.bindConstants(constants), tables));
+    }
+
+    /**
+     * Drop every cached plan that reads the specified table.
+     *
+     * @param tableName the name of the table whose statistics or definition changed
+     */
+    public synchronized void invalidateTable(String tableName) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().tables.contains(tableName))
+                it.remove();
+        }
+    }
+
+    /** Drop all cached plans. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** Change the maximum number of cached plans, evicting plans if necessary. */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > Math.max(capacity, 0)) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** @return the number of cached plans */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of lookups that found a cached plan */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that found no cached plan */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Compute the cache key of a query: the text with runs of whitespace
+     * collapsed and literals replaced by placeholders -- ? for numbers and
+     * '?' for strings, so that the two never share a plan.
+     *
+     * @param sql the text of the query
+     * @param literals receives the values of the literals, in text order,
+     *            without quotes
+     * @return the normalized text
+     */
+    static String normalize(String sql, List<String> literals) {
+        StringBuilder key = new StringBuilder(sql.length());
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                if (end < 0)
+                    end = n;
+                literals.add(sql.substring(i + 1, end));
+                key.append(c).append('?').append(c);
+                i = end + 1;
+            } else if (Character.isDigit(c) && !isIdentifierPart(key)) {
+                int end = i;
+                while (end < n && (Character.isDigit(sql.charAt(end)) || sql.charAt(end) == '.'))
+                    end++;
+                literals.add(sql.substring(i, end));
+                key.append('?');
+                i = end;
+            } else if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i)))
+                    i++;
+                if (key.length() > 0 && i < n)
+                    key.append(' ');
+            } else {
+                key.append(c);
+                i++;
+            }
+        }
+        return key.toString();
+    }
+
+    /** Return true if the last character of key continues an identifier (as in t1 or a.f2). */
+    private static boolean isIdentifierPart(StringBuilder key) {
+        if (key.length() == 0)
+            return false;
+        char c = key.charAt(key.length() - 1);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A SecondaryIndex is a B+ tree over one field of a {@link HeapFile} table.
+ * Unlike a {@link BTreeFile} table, which stores its tuples in the tree, the
+ * index stores an entry per tuple of the table holding the tuple's value of
+ * the indexed field and the page number and slot of its RecordId, so a
+ * table can be indexed on several fields at once.
+ * <p>
+ * The tree is keyed on the indexed field, the page number and the slot,
+ * using {@link CompositeField} keys, so every entry has a distinct key and
+ * the entry of a tuple is found by a single search however many tuples
+ * share its value.  Predicates over the indexed field search for the
+ * prefix of the keys holding it.  Index files written before entries were
+ * keyed this way must be deleted, and are rebuilt when the catalog is
+ * loaded.
+ * <p>
+ * Indexes are declared by annotating fields with "index" in the catalog
+ * file, or added with {@link Catalog#addIndex}.  The BufferPool keeps them
+ * up to date as tuples are inserted into and deleted from their table, and
+ * the planner answers selective filters on an indexed field with an
+ * {@link IndexScan}.
+ * <p>
+ * A covering index also stores the values of other fields of the table in
+ * its entries, its INCLUDE fields, so queries reading only the indexed
+ * field and those fields are answered from the index alone by an
+ * {@link IndexOnlyScan}, without fetching tuples from the table.
+ * <p>
+ * String-valued fields (strings, varchars and dictionary-encoded strings)
+ * are indexed as fixed-length strings, as B+ trees store fixed-length
+ * entries.  Only int and fixed-length string fields are stored losslessly,
+ * so only those can be read from the index alone.
+ */
+public class SecondaryIndex {
+
+    private final HeapFile table;
+    private final int field;
+    private final int[] include;
+    private final BTreeFile file;
+
+    /**
+     * Creates an index over a field of a table, stored in the specified file.
+     * The file is not populated; see {@link #build}.
+     *
+     * @param table the table to index
+     * @param field the index of the field to index in table's TupleDesc
+     * @param f the file storing the index
+     */
+    public SecondaryIndex(HeapFile table, int field, File f) {
+        this(table, field, new int[0], f);
+    }
+
+    /**
+     * Creates a covering index over a field of a table, whose entries also
+     * store the values of some other fields, stored in the specified file.
+     * The file is not populated; see {@link #build}.
+     *
+     * @param table the table to index
+     * @param field the index of the field to index in table's TupleDesc
+     * @param include the indexes of the fields to store in the entries
+     * @param f the file storing the index
+     */
+    public SecondaryIndex(HeapFile table, int field, int[] include, File f) {
+        this.table = table;
+        this.field = field;
+        this.include = include.clone();
+        TupleDesc td = table.getTupleDesc();
+        Type[] types = new Type[include.length + 3];
+        String[] names = new String[include.length + 3];
+        for (int i = 0; i <= include.length; i++) {
+            int tableField = i == 0 ? field : include[i - 1];
+            types[i] = td.getFieldType(tableField) == Type.INT_TYPE ? Type.INT_TYPE : Type.STRING_TYPE;
+            names[i] = td.getFieldName(tableField);
+        }
+        types[include.length + 1] = Type.INT_TYPE;
+        names[include.length + 1] = "page";
+        types[include.length + 2] = Type.INT_TYPE;
+        names[include.length + 2] = "slot";
+        this.file = new BTreeFile(f, new int[] { 0, include.length + 1, include.length + 2 },
+                new TupleDesc(types, names));
+    }
+
+    /** @return the B+ tree storing the entries of this index */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /** @return the id of the B+ tree storing the entries of this index */
+    public int getId() {
+        return file.getId();
+    }
+
+    /** @return the indexed table */
+    public HeapFile getTable() {
+        return table;
+    }
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the indexes of the fields of the table stored in the entries besides the indexed field */
+    public int[] getIncludedFields() {
+        return include.clone();
+    }
+
+    /**
+     * @return the index of the field of the entries of this index holding
+     *         the specified field of the table, or -1 if they don't store it
+     *         losslessly
+     */
+    public int entryField(int tableField) {
+        Type type = table.getTupleDesc().getFieldType(tableField);
+        if (type != Type.INT_TYPE && type != Type.STRING_TYPE)
+            return -1;
+        if (tableField == field)
+            return 0;
+        for (int i = 0; i < include.length; i++) {
+            if (include[i] == tableField)
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /** @return true if every one of the specified fields of the table can be read from the entries */
+    public boolean covers(int[] tableFields) {
+        for (int f : tableFields) {
+            if (entryField(f) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the value of a field of the table, as stored in the index */
+    private static Field stored(Field f) {
+        if (f.getType() == Type.INT_TYPE)
+            return f;
+        return new StringField(((StringField) f).getValue(), Type.STRING_LEN);
+    }
+
+    /** @return the value of the indexed field of t, as stored in the index */
+    private Field key(Tuple t) {
+        return stored(t.getField(field));
+    }
+
+    /** @return the predicate over the keys of the entries for a predicate over the indexed field */
+    private static IndexPredicate keyPredicate(IndexPredicate ipred) {
+        return new IndexPredicate(ipred.getOp(), new CompositeField(stored(ipred.getField())));
+    }
+
+    /** @return the index entry for a tuple of the table stored at rid */
+    private Tuple entry(Tuple t, RecordId rid) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, key(t));
+        for (int i = 0; i < include.length; i++)
+            e.setField(i + 1, stored(t.getField(include[i])));
+        e.setField(include.length + 1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(include.length + 2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /**
+     * Populate this index with an entry for each tuple of the table.  The
+     * index must be empty.
+     */
+    public void build(final TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        final DbFileIterator it = table.iterator(tid);
+        file.bulkLoad(tid, new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext())
+                    return null;
+                Tuple t = it.next();
+                return entry(t, t.getRecordId());
+            }
+        }, 1.0);
+    }
+
+    /**
+     * Add the entry for a tuple just inserted into the table.
+     *
+     * @param t the tuple, whose RecordId gives its place in the table
+     */
+    public void insert(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t, t.getRecordId()));
+    }
+
+    /**
+     * Remove the entry for a tuple about to be deleted from the table.
+     *
+     * @param t the tuple, whose RecordId gives its place in the table
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public void delete(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+        Field key = key(t);
+        RecordId rid = t.getRecordId();
+        int page = rid.getPageId().pageNumber(), slot = rid.tupleno();
+        CompositeField entryKey = new CompositeField(key, new IntField(page), new IntField(slot));
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, entryKey));
+        it.open();
+        try {
+            if (it.hasNext()) {
+                Database.getBufferPool().deleteTuple(tid, it.next());
+                return;
+            }
+        } finally {
+            it.close();
+        }
+        throw new DbException("no index entry for " + key + " at " + page + ":" + slot);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * satisfies a predicate, in the order of that field.  Each tuple is read
+     * from its page of the table through the BufferPool.
+     * <p>
+     * The entries are read from the index as the iterator goes.  Deleting
+     * the tuples it returns deletes their entries and may move others
+     * between the pages of the index; the B+ tree iterator then resumes
+     * after the key of the last entry it returned, which is unique, so it
+     * skips no entry and returns none twice.
+     *
+     * @param ipred the predicate over the indexed field
+     */
+    public DbFileIterator iterator(final TransactionId tid, IndexPredicate ipred) {
+        final DbFileIterator it = entryIterator(tid, ipred);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple e = it.next();
+                    Tuple t = table.fetchTuple(tid, new RecordId(new HeapPageId(table.getId(),
+                            e.getInt(include.length + 1)), e.getInt(include.length + 2)));
+                    if (t != null)
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the entries of this index whose indexed field
+     * satisfies a predicate, in the order of that field, without reading
+     * the table.  Entries hold the indexed field, then the included fields,
+     * then the page number and slot of their tuple.  As for
+     * {@link #iterator}, deleting their tuples does not make it skip any.
+     *
+     * @param ipred the predicate over the indexed field
+     */
+    public DbFileIterator entryIterator(TransactionId tid, IndexPredicate ipred) {
+        return file.indexIterator(tid, keyPredicate(ipred));
+    }
+}
@@ -6,6 +6,11 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be given predicates to filter the table with and a subset of
+ * its fields to return.  For HeapFiles these are pushed down to the pages,
+ * which test the predicates against the stored bytes and decode only the
+ * requested fields of qualifying tuples.
  */
 public class SeqScan implements DbIterator {
 
@@ -13,6 +18,10 @@ public class SeqScan implements DbIterator {
     private final TransactionId tId;
     private int tableId;
     private String tableAlias;
+    private Predicate[] predicates;
+    private int[] fields;
+    /** The schema of the output, computed on first use */
+    private transient TupleDesc td;
     private DbFileIterator dbFileIterator;
 
     /**
@@ -32,11 +41,80 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tId, int tableId, String tableAlias) {
+        this(tId, tableId, tableAlias, null, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples of the table
+     * satisfying a set of predicates, and only some of their fields.
+     *
+     * @param tId
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param predicates
+     *            predicates over the fields of the table (numbered as in
+     *            its TupleDesc in the catalog) that returned tuples must
+     *            satisfy; null or empty for none
+     * @param fields
+     *            the indexes of the fields of the table to return, in
+     *            order; null to return all fields
+     */
+    public SeqScan(TransactionId tId, int tableId, String tableAlias, Predicate[] predicates, int[] fields) {
         // some code goes here
         this.tId = tId;
         this.tableId = tableId;
         this.tableAlias = tableAlias;
-        this.dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tId);
+        this.predicates = predicates;
+        this.fields = fields;
+        this.dbFileIterator = fileIterator();
+    }
+
+    private DbFileIterator fileIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).iterator(tId, predicates, fields);
+        final DbFileIterator it = file.iterator(tId);
+        if ((predicates == null || predicates.length == 0) && fields == null)
+            return it;
+
+        // other files cannot evaluate predicates themselves
+        final CompiledPredicate pred = CompiledPredicate.compile(predicates, file.getTupleDesc());
+        final TupleDesc outTd = fields == null ? null : HeapFile.projectTupleDesc(file.getTupleDesc(), fields);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (pred != null && !pred.matches(t))
+                        continue;
+                    if (outTd == null)
+                        return t;
+                    Tuple out = new Tuple(outTd);
+                    out.setRecordId(t.getRecordId());
+                    for (int i = 0; i < fields.length; i++)
+                        out.setField(i, t.getField(fields[i]));
+                    return out;
+                }
+                return null;
+            }
+        };
     }
 
 
@@ -63,7 +141,24 @@ public class SeqScan implements DbIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * @return the predicates evaluated by this scan, or null if there are none
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @return the fields of the table returned by this scan, or null if it
+     *         returns all of them
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Reset the tableid, and tableAlias of this operator.  Any predicates
+     * and projection are dropped, as they refer to the fields of the old
+     * table.
      * @param tableId
      *            the table to scan.
      * @param tableAlias
@@ -78,7 +173,10 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableId = tableId;
         this.tableAlias = tableAlias;
-        this.dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tId);
+        this.predicates = null;
+        this.fields = null;
+        this.td = null;
+        this.dbFileIterator = fileIterator();
     }
 
 
@@ -96,10 +194,16 @@ public class SeqScan implements DbIterator {
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
+     *         If the scan returns a subset of the fields, only those are
+     *         included.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        if (this.td != null)
+            return this.td;
         TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        if (fields != null)
+            td = HeapFile.projectTupleDesc(td, fields);
         Type[] typeAr = new Type[td.numFields()];
         String[] fieldAr = new String[td.numFields()];
 
@@ -108,7 +212,8 @@ public class SeqScan implements DbIterator {
             fieldAr[i] = (tableAlias == null ? "null" : tableAlias) + '.' +
                     (td.getFieldName(i) == null ? "null" : td.getFieldName(i));
         }
-        return new TupleDesc(typeAr, fieldAr);
+        this.td = new TupleDesc(typeAr, fieldAr);
+        return this.td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -4,8 +4,8 @@ import java.io.*;
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file; convertpax writes it with PAX pages
+        if(args[0].equals("convert") || args[0].equals("convertpax")) {
         try {
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
@@ -34,6 +34,10 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (s.toLowerCase().equals("varchar"))
+                                ts[index++]=Type.VARCHAR_TYPE;
+                        else if (s.toLowerCase().equals("dict"))
+                                ts[index++]=Type.DICT_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -43,12 +47,32 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (args[0].equals("convertpax"))
+                HeapFileEncoder.convertToPax(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("compress")) {
+            // store the pages of a heap file compressed, for "compressed" tables
+            if (args.length != 3) {
+                System.err.println("Usage: compress <heap file> <compressed file>");
+                return;
+            }
+            CompressedPageStore.compressFile(new File(args[1]), new File(args[2]),
+                    BufferPool.getPageSize(), BufferPool.getPageSize());
+        } else if (args[0].equals("converthash")) {
+            // load a heap file of int fields into a file for "hash" tables
+            if (args.length != 5) {
+                System.err.println("Usage: converthash <heap file> <hash file> <columns> <key field>");
+                return;
+            }
+            HeapFile source = Utility.openHeapFile(Integer.parseInt(args[3]), new File(args[1]));
+            HashIndexFile.convert(source, new File(args[2]), Integer.parseInt(args[4]));
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
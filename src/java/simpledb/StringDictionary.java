@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * StringDictionary maps the distinct values of a dictionary-encoded string
+ * column ({@link Type#DICT_TYPE}) to dense int codes.  Pages store the code of
+ * each value, so equality tests compare ints, and the string is only looked
+ * up when a field is read.
+ * <p>
+ * The dictionary of column i of a table stored in file f is kept in the file
+ * f.dict&lt;i&gt;, as the number of values followed by the values in code
+ * order.  Codes are never reassigned: new values are appended to the file as
+ * they are added, before any page referring to them can be written.  There is
+ * a single instance per dictionary file, so tuples of a table loaded twice
+ * still share codes, until it is evicted when its table leaves the
+ * {@link Catalog} or its file is deleted.
+ */
+public class StringDictionary {
+
+    private static final HashMap<String, StringDictionary> instances = new HashMap<String, StringDictionary>();
+
+    private final File file;
+    private final ArrayList<String> values = new ArrayList<String>();
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    // the dictionary file, opened when the first value is added, and its length
+    private RandomAccessFile out = null;
+    private long length;
+
+    private StringDictionary(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int n = dis.readInt();
+                for (int i = 0; i < n; i++) {
+                    String s = dis.readUTF();
+                    codes.put(s, values.size());
+                    values.add(s);
+                }
+            } finally {
+                dis.close();
+            }
+        }
+    }
+
+    /**
+     * @return the dictionary of the specified column of the table stored in
+     *         dataFile, read from disk the first time it is requested
+     * @throws IOException if the dictionary file cannot be read
+     */
+    public static synchronized StringDictionary forColumn(File dataFile, int column) throws IOException {
+        File f = new File(dataFile.getAbsolutePath() + ".dict" + column);
+        String key = f.getCanonicalPath();
+        StringDictionary dict = instances.get(key);
+        if (dict != null && dict.size() > 0 && !f.exists()) {
+            // the file was deleted, with the table; its codes are stale
+            dict.close();
+            dict = null;
+        }
+        if (dict == null) {
+            dict = new StringDictionary(f);
+            instances.put(key, dict);
+        }
+        return dict;
+    }
+
+    /**
+     * Close the dictionary file; it is reopened if a value is added.
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Close the dictionary file, and stop returning this instance from
+     * {@link #forColumn}, which reads the file again.  Used when the table
+     * of the dictionary is dropped, as its file may be rewritten.
+     */
+    public void evict() throws IOException {
+        close();
+        synchronized (StringDictionary.class) {
+            if (instances.get(file.getCanonicalPath()) == this)
+                instances.remove(file.getCanonicalPath());
+        }
+    }
+
+    /** @return the number of values in the dictionary */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /** @return the value with the specified code */
+    public synchronized String decode(int code) {
+        return values.get(code);
+    }
+
+    /** @return the field of a column using this dictionary holding the specified code */
+    public DictStringField field(int code) {
+        return new DictStringField(this, code, decode(code));
+    }
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Return the code of s, adding s to the dictionary if it is not in it.
+     *
+     * @throws IOException if a new value cannot be written to the dictionary file
+     */
+    public synchronized int encode(String s) throws IOException {
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        Integer code = codes.get(s);
+        if (code != null)
+            return code;
+        code = values.size();
+        values.add(s);
+        codes.put(s, code);
+        write();
+        return code;
+    }
+
+    /**
+     * Append the last value to the dictionary file and update its count.  The
+     * file stays open, so adding a value costs two writes.
+     */
+    private void write() throws IOException {
+        if (out == null) {
+            out = new RandomAccessFile(file, "rw");
+            length = out.length();
+            if (length < 4) {
+                out.setLength(0);
+                out.writeInt(0);
+                length = 4;
+            }
+        }
+        out.seek(length);
+        out.writeUTF(values.get(values.size() - 1));
+        length = out.getFilePointer();
+        out.seek(0);
+        out.writeInt(values.size());
+    }
+}
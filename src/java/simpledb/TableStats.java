@@ -23,6 +23,7 @@ public class TableStats {
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        Database.getQueryPlanCache().invalidateTable(tablename);
     }
     
     public static void setStatsMap(HashMap<String,TableStats> s)
@@ -31,6 +32,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            Database.getQueryPlanCache().clear();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -66,6 +68,14 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final DbFile file;
+    private final TupleDesc td;
+    private final int ioCostPerPage;
+    private int numTuples = 0;
+    private final int numPages;
+    private final IntHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,14 +87,67 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        this.ioCostPerPage = ioCostPerPage;
+        int n = td.numFields();
+        intHistograms = new IntHistogram[n];
+        stringHistograms = new StringHistogram[n];
+
+        // the first scan finds the range of each integer field, which the
+        // second needs to size the histograms
+        int[] mins = new int[n], maxs = new int[n];
+        java.util.Arrays.fill(mins, Integer.MAX_VALUE);
+        java.util.Arrays.fill(maxs, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                numTuples++;
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) t.getField(i)).getValue();
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    intHistograms[i] = new IntHistogram(NUM_HIST_BINS, Math.min(mins[i], maxs[i]), maxs[i]);
+                else
+                    stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < n; i++) {
+                    if (intHistograms[i] != null)
+                        intHistograms[i].addValue(((IntField) t.getField(i)).getValue());
+                    else
+                        stringHistograms[i].addValue(((StringField) t.getField(i)).getValue());
+                }
+            }
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+        } finally {
+            it.close();
+        }
+
+        if (file instanceof HeapFile)
+            numPages = ((HeapFile) file).numPages();
+        else if (file instanceof BTreeFile)
+            numPages = ((BTreeFile) file).numPages();
+        else if (file instanceof HashIndexFile)
+            numPages = ((HashIndexFile) file).numPages();
+        else
+            numPages = (int) Math.ceil((double) numTuples * td.getSize() / BufferPool.getPageSize());
     }
 
     /**
@@ -100,8 +163,86 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering a predicate with the given selectivity
+     * on the key of a clustered B+ tree: descending from the root to the first
+     * matching leaf, then reading the matching fraction of the leaf pages.
+     * 
+     * @param selectivity
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost of the index scan, or
+     *         Double.MAX_VALUE if this table is not a B+ tree
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        if (!(file instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        BTreeFile bf = (BTreeFile) file;
+        return (treeHeight(bf, numPages) + Math.ceil(selectivity * numPages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering an equality predicate with the given
+     * selectivity on the key of a hash index file: reading its meta page,
+     * then the pages of the key's bucket, which hold at least the matching
+     * fraction of the table.
+     * 
+     * @param selectivity
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost of the lookup, or
+     *         Double.MAX_VALUE if this table is not a hash index file
+     */
+    public double estimateHashLookupCost(double selectivity) {
+        if (!(file instanceof HashIndexFile))
+            return Double.MAX_VALUE;
+        return (1 + Math.max(1, Math.ceil(selectivity * numPages))) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering a predicate with the given selectivity
+     * through a secondary index of this table: descending the index, reading
+     * the matching fraction of its leaf pages, then fetching each matching
+     * tuple from the table.  The tuples are in no particular order, so each
+     * fetch is counted as a page read.
+     * 
+     * @param index
+     *            A secondary index of this table
+     * @param selectivity
+     *            The selectivity of the predicate on the indexed field
+     * @return The estimated cost of the index scan
+     */
+    public double estimateSecondaryIndexCost(SecondaryIndex index, double selectivity) {
+        int indexPages = index.getFile().numPages();
+        return (treeHeight(index.getFile(), indexPages) + Math.ceil(selectivity * indexPages)
+                + Math.ceil(selectivity * numTuples)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering a predicate with the given selectivity
+     * from the entries of a covering index of this table alone: descending
+     * the index and reading the matching fraction of its leaf pages,
+     * without fetching any tuples from the table.
+     * 
+     * @param index
+     *            A secondary index of this table
+     * @param selectivity
+     *            The selectivity of the predicate on the indexed field
+     * @return The estimated cost of the index-only scan
+     */
+    public double estimateIndexOnlyScanCost(SecondaryIndex index, double selectivity) {
+        int indexPages = index.getFile().numPages();
+        return (treeHeight(index.getFile(), indexPages) + Math.ceil(selectivity * indexPages)) * ioCostPerPage;
+    }
+
+    /** @return the estimated number of levels of a B+ tree of the given number of pages */
+    private static double treeHeight(BTreeFile bf, int pages) {
+        int keySize = 0;
+        for (int k : bf.keyFields())
+            keySize += bf.getTupleDesc().getFieldType(k).getLen();
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keySize + BTreePage.INDEX_SIZE));
+        return Math.max(1, Math.ceil(Math.log(Math.max(pages, 1)) / Math.log(fanout)));
     }
 
     /**
@@ -114,8 +255,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.ceil(numTuples * selectivityFactor);
     }
 
     /**
@@ -129,8 +269,18 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double eq = intHistograms[field] != null ? intHistograms[field].avgSelectivity()
+                : stringHistograms[field].avgSelectivity();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        default:
+            // on average, a range predicate passes about half the tuples
+            return 0.5;
+        }
     }
 
     /**
@@ -147,16 +297,16 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (intHistograms[field] != null)
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -8,14 +10,40 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * To avoid allocating a Field per value, a tuple need not hold its fields
+ * itself.  It can instead be backed by
+ * <ul>
+ * <li>the serialized tuple in a page buffer ({@link #Tuple(TupleDesc, byte[], int)}),
+ *     whose fields are decoded when they are read;
+ * <li>a selection of the fields of another tuple ({@link #project}); or
+ * <li>the fields of two other tuples, one after the other ({@link #concat}).
+ * </ul>
+ * Such tuples copy their fields into a Field array of their own the first
+ * time one of them is changed with {@link #setField}.  Integer fields can be
+ * read without creating a Field object with {@link #getInt}.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
-    private Field[] fields;
     private RecordId rid;
 
+    /** The fields of this tuple, or null if it is backed by a buffer or other tuples */
+    private Field[] fields;
+
+    /** The buffer holding this serialized tuple at offset off, or null */
+    private byte[] data;
+    private int off;
+
+    /**
+     * The tuples this one presents the fields of, or null: if right is set,
+     * the fields of left followed by those of right; otherwise the fields
+     * of left listed in map
+     */
+    private Tuple left, right;
+    private int[] map;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -30,6 +58,67 @@ public class Tuple implements Serializable {
         rid = null;
     }
 
+    /**
+     * Create a tuple backed by its serialized form in a buffer, which must
+     * not be modified while the tuple is in use.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param data
+     *            the buffer holding the tuple, as written by
+     *            {@link Field#serialize} for each of its fields in order
+     * @param off
+     *            the offset of the tuple in data
+     */
+    public Tuple(TupleDesc td, byte[] data, int off) {
+        this.td = td;
+        this.data = data;
+        this.off = off;
+    }
+
+    /**
+     * Create a tuple presenting some of the fields of another.
+     *
+     * @param td
+     *            the schema of the new tuple, with one field per entry of
+     *            fields
+     * @param t
+     *            the tuple to take fields from; it should not be modified
+     *            while the new tuple is in use
+     * @param fields
+     *            the index in t of each field of the new tuple; not copied
+     * @return the new tuple, with the RecordId of t
+     */
+    public static Tuple project(TupleDesc td, Tuple t, int[] fields) {
+        Tuple p = new Tuple(td, t, null);
+        p.map = fields;
+        p.rid = t.rid;
+        return p;
+    }
+
+    /**
+     * Create a tuple presenting the fields of one tuple followed by those of
+     * another, as for the output of a join.
+     *
+     * @param td
+     *            the schema of the new tuple, as from
+     *            {@link TupleDesc#merge} of the schemas of t1 and t2
+     * @param t1
+     *            the tuple with the first fields
+     * @param t2
+     *            the tuple with the last fields
+     * @return the new tuple
+     */
+    public static Tuple concat(TupleDesc td, Tuple t1, Tuple t2) {
+        return new Tuple(td, t1, t2);
+    }
+
+    private Tuple(TupleDesc td, Tuple left, Tuple right) {
+        this.td = td;
+        this.left = left;
+        this.right = right;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -68,9 +157,22 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+        if (fields == null)
+            materialize();
         fields[i] = f;
     }
 
+    /** Copy the fields of this tuple into a Field array of its own. */
+    private void materialize() {
+        Field[] fs = new Field[td.numFields()];
+        for (int i = 0; i < fs.length; i++)
+            fs[i] = getField(i);
+        fields = fs;
+        data = null;
+        left = right = null;
+        map = null;
+    }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
      *
@@ -79,7 +181,92 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        if (fields != null)
+            return fields[i];
+        if (data != null)
+            return readField(i);
+        if (right != null) {
+            int n = left.td.numFields();
+            return i < n ? left.getField(i) : right.getField(i - n);
+        }
+        return left.getField(map[i]);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an integer field
+     *         that has been set
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        if (fields != null)
+            return ((IntField) fields[i]).getValue();
+        if (data != null)
+            return CompiledPredicate.readInt(data, fieldOffset(i));
+        if (right != null) {
+            int n = left.td.numFields();
+            return i < n ? left.getInt(i) : right.getInt(i - n);
+        }
+        return left.getInt(map[i]);
+    }
+
+    /**
+     * @return the code in dict of the value of the ith field, which must be
+     *         a string field that has been set, or -1 if dict does not
+     *         contain the value.  Reading a dictionary-encoded field of dict
+     *         from a page does not decode it.
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getCode(int i, StringDictionary dict) {
+        if (fields != null) {
+            Field f = fields[i];
+            if (f instanceof DictStringField && ((DictStringField) f).getDictionary() == dict)
+                return ((DictStringField) f).getCode();
+            return dict.lookup(((StringField) f).getValue());
+        }
+        if (data != null) {
+            if (td.getDictionary(i) == dict)
+                return CompiledPredicate.readInt(data, fieldOffset(i));
+            return dict.lookup(((StringField) readField(i)).getValue());
+        }
+        if (right != null) {
+            int n = left.td.numFields();
+            return i < n ? left.getCode(i, dict) : right.getCode(i - n, dict);
+        }
+        return left.getCode(map[i], dict);
+    }
+
+    /** @return the offset in data of the ith field of this buffer-backed tuple */
+    private int fieldOffset(int i) {
+        if (!td.isVariableLength())
+            return off + td.getOffset(i);
+        int o = off;
+        for (int j = 0; j < i; j++)
+            o += td.getFieldType(j).getLen(data, o);
+        return o;
+    }
+
+    /** Decode the ith field from the buffer backing this tuple. */
+    private Field readField(int i) {
+        int o = fieldOffset(i);
+        Type type = td.getFieldType(i);
+        if (type == Type.INT_TYPE)
+            return new IntField(CompiledPredicate.readInt(data, o));
+        if (type == Type.DICT_TYPE)
+            return td.getDictionary(i).field(CompiledPredicate.readInt(data, o));
+        try {
+            return type.parse(new DataInputStream(new ByteArrayInputStream(data, o, type.getLen(data, o))));
+        } catch (java.text.ParseException e) {
+            throw new IllegalStateException("unreadable field " + i + ": " + e.getMessage());
+        }
+    }
+
+    /** Serialize the fields themselves rather than the buffer or tuples behind them. */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        if (fields == null)
+            materialize();
+        out.defaultWriteObject();
     }
 
     /**
@@ -93,8 +280,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder sb = new StringBuilder();
-        for (Field f : fields) {
-            sb.append(" " + f.toString());
+        for (int i = 0; i < td.numFields(); i++) {
+            sb.append(" " + getField(i));
         }
         return sb.substring(1);
     }
@@ -111,12 +298,12 @@ public class Tuple implements Serializable {
 
             @Override
             public boolean hasNext() {
-                return index < fields.length;
+                return index < td.numFields();
             }
 
             @Override
             public Field next() {
-                return fields[index++];
+                return getField(index++);
             }
         };
     }
@@ -129,5 +316,8 @@ public class Tuple implements Serializable {
         // some code goes here
         this.td = td;
         this.fields = new Field[td.numFields()];
+        data = null;
+        left = right = null;
+        map = null;
     }
 }
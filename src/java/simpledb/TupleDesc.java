@@ -5,6 +5,10 @@ import java.util.*;
 
 /**
  * TupleDesc describes the schema of a tuple.
+ * <p>
+ * TupleDescs are immutable.  The size of a tuple, the offset of each field
+ * and the index of each field name are computed once, when the TupleDesc
+ * is created, so that looking them up is cheap.
  */
 public class TupleDesc implements Serializable {
 
@@ -25,9 +29,19 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The dictionary of a DICT_TYPE field, or null
+         * */
+        public final transient StringDictionary dictionary;
+
         public TDItem(Type t, String n) {
+            this(t, n, null);
+        }
+
+        public TDItem(Type t, String n, StringDictionary dictionary) {
             this.fieldName = n;
             this.fieldType = t;
+            this.dictionary = dictionary;
         }
 
         public String toString() {
@@ -35,7 +49,14 @@ public class TupleDesc implements Serializable {
         }
     }
 
-    private TDItem[] fields;
+    private final TDItem[] fields;
+    /** Byte offset of each field in a serialized tuple */
+    private final int[] offsets;
+    private final int size;
+    private final boolean variableLength;
+    /** The index of the first field with each name */
+    private final HashMap<String, Integer> nameToIndex;
+    private final int hashCode;
     private static final long serialVersionUID = 1L;
 
     /**
@@ -73,11 +94,52 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         // some code goes here
-        fields = new TDItem[typeAr.length];
+        this(items(typeAr, fieldAr, null));
+    }
+
+    /**
+     * Create a new TupleDesc with dictionary-encoded fields.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param dictAr
+     *            array specifying the dictionary of each DICT_TYPE field;
+     *            entries for other fields are null.
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, StringDictionary[] dictAr) {
+        this(items(typeAr, fieldAr, dictAr));
+    }
+
+    private static TDItem[] items(Type[] typeAr, String[] fieldAr, StringDictionary[] dictAr) {
+        TDItem[] items = new TDItem[typeAr.length];
         for (int i = 0; i < typeAr.length; i++) {
-            String fieldName = i < fieldAr.length ? fieldAr[i] : null;
-            fields[i] = new TDItem(typeAr[i], fieldName);
+            String fieldName = fieldAr != null && i < fieldAr.length ? fieldAr[i] : null;
+            items[i] = new TDItem(typeAr[i], fieldName, dictAr != null ? dictAr[i] : null);
         }
+        return items;
+    }
+
+    private TupleDesc(TDItem[] items) {
+        fields = items;
+        offsets = new int[items.length];
+        nameToIndex = new HashMap<String, Integer>();
+        int off = 0, hash = 1;
+        boolean var = false;
+        for (int i = 0; i < items.length; i++) {
+            var |= items[i].fieldType.isVariableLength();
+            offsets[i] = off;
+            off += items[i].fieldType.getLen();
+            hash = 31 * hash + items[i].fieldType.ordinal();
+            if (items[i].fieldName != null && !nameToIndex.containsKey(items[i].fieldName))
+                nameToIndex.put(items[i].fieldName, i);
+        }
+        size = off;
+        variableLength = var;
+        hashCode = hash;
     }
 
     /**
@@ -90,10 +152,7 @@ public class TupleDesc implements Serializable {
      */
     public TupleDesc(Type[] typeAr) {
         // some code goes here
-        fields = new TDItem[typeAr.length];
-        for (int i = 0; i < typeAr.length; i++) {
-            fields[i] = new TDItem(typeAr[i], null);
-        }
+        this(typeAr, null);
     }
 
     /**
@@ -141,6 +200,18 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * Gets the dictionary of the ith field of this TupleDesc.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the dictionary of the ith field if it is a DICT_TYPE field with
+     *         a known dictionary, or null
+     */
+    public StringDictionary getDictionary(int i) {
+        return fields[i].dictionary;
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -152,30 +223,44 @@ public class TupleDesc implements Serializable {
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
         // some code goes here
-        if (name == null) {
+        Integer i = name == null ? null : nameToIndex.get(name);
+        if (i == null) {
             throw new NoSuchElementException();
         }
-        for (int i = 0; i < numFields(); i++) {
-            if (name.equals(fields[i].fieldName)) {
-                return i;
-            }
-        }
-        throw new NoSuchElementException();
+        return i;
     }
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it is variable-length, in which case this is the
+     *         largest size of its tuples.
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
-        for (TDItem t : fields) {
-            size += t.fieldType.getLen();
-        }
         return size;
     }
 
+    /**
+     * @return true if some field of this TupleDesc has a variable-length
+     *         type, so that its tuples vary in size
+     * @see Type#isVariableLength
+     */
+    public boolean isVariableLength() {
+        return variableLength;
+    }
+
+    /**
+     * @param i
+     *            The index of a field. It must be a valid index.
+     * @return the offset in bytes of the ith field from the start of a
+     *         serialized tuple with this TupleDesc, if it is not
+     *         variable-length
+     */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -188,19 +273,9 @@ public class TupleDesc implements Serializable {
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
         // some code goes here
-        int i = 0;
-        int num = td1.numFields() + td2.numFields();
-        Type[] typeAr = new Type[num];
-        String[] fieldAr = new String[num];
-        for (TDItem t : td1.fields) {
-            typeAr[i] = t.fieldType;
-            fieldAr[i++] = t.fieldName;
-        }
-        for (TDItem t : td2.fields) {
-            typeAr[i] = t.fieldType;
-            fieldAr[i++] = t.fieldName;
-        }
-        return new TupleDesc(typeAr, fieldAr);
+        TDItem[] items = Arrays.copyOf(td1.fields, td1.fields.length + td2.fields.length);
+        System.arraycopy(td2.fields, 0, items, td1.fields.length, td2.fields.length);
+        return new TupleDesc(items);
     }
 
     /**
@@ -218,7 +293,11 @@ public class TupleDesc implements Serializable {
             return false;
         }
         TupleDesc other = (TupleDesc) o;
-        if (getSize() != other.getSize()) {
+        if (this == other) {
+            return true;
+        }
+        if (size != other.size || hashCode != other.hashCode
+                || fields.length != other.fields.length) {
             return false;
         }
         for (int i = 0; i < numFields(); i++) {
@@ -232,7 +311,7 @@ public class TupleDesc implements Serializable {
     public int hashCode() {
         // If you want to use TupleDesc as keys for HashMap, implement this so
         // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        return hashCode;
     }
 
     /**
@@ -42,15 +42,91 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, VARCHAR_TYPE() {
+        /** @return the largest number of bytes a field of this type can need */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public int getLen(byte[] data, int off) {
+            return 4 + CompiledPredicate.readInt(data, off);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+    }, DICT_TYPE() {
+        /** Fields are stored as their int code in the column's {@link StringDictionary} */
+        @Override
+        public int getLen() {
+            return 4;
+        }
+
+        /**
+         * Dictionary-encoded fields cannot be decoded without the column's
+         * dictionary; they are read through {@link TupleDesc#getDictionary}.
+         */
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            throw new ParseException("dictionary-encoded field read without its dictionary", 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
    * @return the number of bytes required to store a field of this type.
+   *   For variable-length types, this is the largest number of bytes a
+   *   field can need.
    */
     public abstract int getLen();
 
+  /**
+   * @return true if fields of this type are stored in a varying number of
+   *   bytes, so that tuples containing them need a variable-length layout
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return the number of bytes required to store the specified field,
+   *   which must be of this type
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes taken by the serialized field of this
+   *   type that starts at offset off of data
+   */
+    public int getLen(byte[] data, int off) {
+        return getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
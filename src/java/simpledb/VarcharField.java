@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single String of variable length, up to a
+ * maximum.  Unlike a {@link StringField}, it is serialized without padding,
+ * so it only takes as many bytes as its value needs.
+ *
+ * @see Type#VARCHAR_TYPE
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * Write this string to dos: four bytes of string length followed by the
+	 * string itself.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		String s = getValue();
+		dos.writeInt(s.length());
+		dos.writeBytes(s);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+
+		return Type.VARCHAR_TYPE;
+	}
+}
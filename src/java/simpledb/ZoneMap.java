@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps, for each page of a {@link HeapFile}, the smallest and
+ * largest value of each integer field of the tuples on the page.  A scan with
+ * range predicates uses it to skip pages that cannot hold a matching tuple,
+ * so filters on clustered columns (ids, timestamps) read few pages.
+ * <p>
+ * The zone of a page is recomputed whenever the page is written to disk,
+ * and widened when a tuple is inserted into it in the buffer pool, so it
+ * always covers both the page on disk and the page in memory.  Deleting a
+ * tuple does not narrow the zone until the page is written.  Pages without a
+ * known zone, like those of files written by {@link HeapFileEncoder}, are
+ * always read; a filtered scan records the zones of the clean pages it reads.
+ * <p>
+ * Zones are persisted in the file f.zonemap next to the heap file f: the
+ * number of integer fields k, then for each page a known flag followed by k
+ * (min, max) pairs.  The zone of a page is persisted as unknown, and forced
+ * to disk, before the page is written, and recorded again after, so a crash
+ * in between leaves the page unknown rather than with a zone narrower than
+ * its tuples.  Zones persisted before the heap file was last modified, as
+ * when it is rewritten by another program, are all dropped.
+ */
+public class ZoneMap {
+
+    private final File file;
+    /** The integer fields the zone map covers */
+    private final int[] intFields;
+    /** For each field of the table, its index in intFields or -1 */
+    private final int[] zoneIndex;
+    private boolean[] known = new boolean[0];
+    private int[][] mins = new int[0][], maxs = new int[0][];
+    /** The zone map file, kept open once written to */
+    private RandomAccessFile out;
+
+    /**
+     * Open the zone map of the table with the specified TupleDesc stored in
+     * dataFile, reading any zones persisted earlier.
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.file = new File(dataFile.getAbsolutePath() + ".zonemap");
+        zoneIndex = new int[td.numFields()];
+        int k = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            zoneIndex[i] = td.getFieldType(i) == Type.INT_TYPE ? k++ : -1;
+        intFields = new int[k];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (zoneIndex[i] >= 0)
+                intFields[zoneIndex[i]] = i;
+        }
+        read(dataFile);
+    }
+
+    private int entrySize() {
+        return 4 + 8 * intFields.length;
+    }
+
+    private void read(File dataFile) {
+        if (!file.exists() || intFields.length == 0)
+            return;
+        boolean stale = false;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            stale = dis.readInt() != intFields.length || dataFile.lastModified() > file.lastModified();
+            if (stale)
+                return;
+            int n = (int) ((file.length() - 4) / entrySize());
+            ensureCapacity(n);
+            for (int p = 0; p < n; p++) {
+                known[p] = dis.readInt() != 0;
+                for (int z = 0; z < intFields.length; z++) {
+                    mins[p][z] = dis.readInt();
+                    maxs[p][z] = dis.readInt();
+                }
+            }
+        } catch (IOException e) {
+            // an unreadable zone map only costs page skipping
+            Arrays.fill(known, false);
+        } finally {
+            // written for another schema or older data; start over
+            if (stale)
+                file.delete();
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        if (known.length >= pages)
+            return;
+        int old = known.length;
+        known = Arrays.copyOf(known, pages);
+        mins = Arrays.copyOf(mins, pages);
+        maxs = Arrays.copyOf(maxs, pages);
+        for (int p = old; p < pages; p++) {
+            mins[p] = new int[intFields.length];
+            maxs[p] = new int[intFields.length];
+        }
+    }
+
+    /** @return true if the zone of the specified page is known */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < known.length && known[pageNo];
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy all of
+     *         preds, according to its zone; true if some might, or the zone
+     *         is not known
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] preds) {
+        if (preds == null || !isKnown(pageNo))
+            return true;
+        for (Predicate p : preds) {
+            int z = zoneIndex[p.getField()];
+            if (z < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int min = mins[pageNo][z], max = maxs[pageNo][z];
+            if (min > max)
+                return false;   // no tuples
+            int c = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                if (c < min || c > max)
+                    return false;
+                break;
+            case NOT_EQUALS:
+                if (min == c && max == c)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (min >= c)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (min > c)
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (max <= c)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (max < c)
+                    return false;
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Widen the zone of a page to cover a tuple inserted into it.
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        if (!isKnown(pageNo))
+            return;
+        for (int z = 0; z < intFields.length; z++) {
+            int v = t.getInt(intFields[z]);
+            mins[pageNo][z] = Math.min(mins[pageNo][z], v);
+            maxs[pageNo][z] = Math.max(maxs[pageNo][z], v);
+        }
+    }
+
+    /**
+     * Set the zone of a page to exactly cover the specified tuples, and
+     * persist it.
+     *
+     * @param pageNo the page
+     * @param tuples all the tuples on the page
+     */
+    public synchronized void update(int pageNo, Iterator<Tuple> tuples) throws IOException {
+        if (intFields.length == 0)
+            return;
+        ensureCapacity(pageNo + 1);
+        int[] min = mins[pageNo], max = maxs[pageNo];
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.fill(max, Integer.MIN_VALUE);
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            for (int z = 0; z < intFields.length; z++) {
+                int v = t.getInt(intFields[z]);
+                if (v < min[z])
+                    min[z] = v;
+                if (v > max[z])
+                    max[z] = v;
+            }
+        }
+        known[pageNo] = true;
+        write(pageNo);
+    }
+
+    /**
+     * Forget the zone of a page about to be written, and persist it as
+     * unknown before returning, so that no zone on disk is narrower than
+     * the page if the write is interrupted.  {@link #update} records the
+     * zone of the written page.
+     */
+    public synchronized void invalidate(int pageNo) throws IOException {
+        if (!isKnown(pageNo))
+            return;
+        known[pageNo] = false;
+        write(pageNo);
+        out.getChannel().force(false);
+    }
+
+    /** Close the zone map file; it is reopened if a zone is written again */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void write(int pageNo) throws IOException {
+        if (out == null)
+            out = new RandomAccessFile(file, "rw");
+        if (out.length() < 4) {
+            out.setLength(0);
+            out.writeInt(intFields.length);
+        }
+        out.seek(4 + (long) pageNo * entrySize());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(known[pageNo] ? 1 : 0);
+        for (int z = 0; z < intFields.length; z++) {
+            dos.writeInt(mins[pageNo][z]);
+            dos.writeInt(maxs[pageNo][z]);
+        }
+        out.write(baos.toByteArray());
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	/** Scan a B+ tree, checking that its keys are in order, and return its tuples */
+	private ArrayList<ArrayList<Integer>> scan(BTreeFile bf) throws Exception {
+		ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int prev = Integer.MIN_VALUE;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertTrue(t.getInt(0) >= prev);
+			prev = t.getInt(0);
+			result.add(BTreeUtility.tupleToList(t));
+		}
+		it.close();
+		return result;
+	}
+
+	private static void sort(ArrayList<ArrayList<Integer>> tuples) {
+		Collections.sort(tuples, new Comparator<ArrayList<Integer>>() {
+			public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+				int c = a.get(0).compareTo(b.get(0));
+				return c != 0 ? c : a.get(1).compareTo(b.get(1));
+			}
+		});
+	}
+
+	/**
+	 * Loading a batch larger than a sort run into a tree merges it with the
+	 * tuples already there into a valid tree
+	 */
+	@Test public void loadIntoExistingTree() throws Exception {
+		ArrayList<ArrayList<Integer>> existing = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, null, existing, 0);
+		ArrayList<ArrayList<Integer>> batch = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, batch);
+
+		bf.bulkLoad(tid, hf.iterator(tid), 0.8, 700);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(existing);
+		expected.addAll(batch);
+		sort(expected);
+		ArrayList<ArrayList<Integer>> actual = scan(bf);
+		sort(actual);
+		assertEquals(expected, actual);
+
+		// the loaded tree takes ordinary inserts and deletes
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { -1, -1 }));
+		IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(-1));
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		assertTrue(it.hasNext());
+		Database.getBufferPool().deleteTuple(tid, it.next());
+		it.close();
+		assertEquals(8000, scan(bf).size());
+	}
+
+	/** A lower fill factor leaves more room in the pages of the loaded tree */
+	@Test public void fillFactor() throws Exception {
+		ArrayList<ArrayList<Integer>> batch = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, batch);
+
+		File full = File.createTempFile("full", ".dat");
+		full.deleteOnExit();
+		BTreeFile bfFull = BTreeUtility.createEmptyBTreeFile(full.getAbsolutePath(), 2, 0);
+		bfFull.bulkLoad(tid, hf.iterator(tid), 1.0);
+		File half = File.createTempFile("half", ".dat");
+		half.deleteOnExit();
+		BTreeFile bfHalf = BTreeUtility.createEmptyBTreeFile(half.getAbsolutePath(), 2, 0);
+		bfHalf.bulkLoad(tid, hf.iterator(tid), 0.5);
+
+		BTreeChecker.checkRep(bfFull, tid, new HashMap<PageId, Page>(), true);
+		BTreeChecker.checkRep(bfHalf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(10000, scan(bfFull).size());
+		assertEquals(10000, scan(bfHalf).size());
+		int leaves = (10000 + BTreeUtility.getNumTuplesPerPage(2) - 1) / BTreeUtility.getNumTuplesPerPage(2);
+		assertTrue(bfFull.numPages() <= leaves + 2);
+		assertTrue(bfHalf.numPages() >= 2 * (leaves - 1));
+	}
+
+	/** Fill factors outside [0.5, 1] are rejected */
+	@Test(expected = IllegalArgumentException.class)
+	public void badFillFactor() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+		bf.bulkLoad(tid, bf.iterator(tid), 0.3);
+	}
+
+	/** A load that fails before it starts releases the tree for other threads */
+	@Test(timeout = 10000)
+	public void failedLoadReleasesTree() throws Exception {
+		// the temporary file goes next to the tree's file, in a missing directory
+		final BTreeFile bf = new BTreeFile(new File("missing-dir-" + UUID.randomUUID(), "tree.dat"), 0, Utility.getTupleDesc(2));
+		final DbFileIterator empty = new AbstractDbFileIterator() {
+			public void open() {}
+			public void rewind() {}
+			protected Tuple readNext() {
+				return null;
+			}
+		};
+		for (int i = 0; i < 2; i++) {
+			final boolean[] failed = new boolean[1];
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						bf.bulkLoad(tid, empty, 1.0);
+					} catch (java.io.IOException e) {
+						failed[0] = true;
+					} catch (Exception e) {
+						// not expected; failed[0] stays false
+					}
+				}
+			};
+			t.start();
+			t.join();
+			assertTrue(failed[0]);
+		}
+	}
+
+	/**
+	 * The sort runs are written next to the tree's file and deleted, both
+	 * after a load and after a load that fails once runs are written
+	 */
+	@Test public void runsDeleted() throws Exception {
+		File dir = File.createTempFile("bulkload", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		dir.deleteOnExit();
+		File file = new File(dir, "tree.dat");
+		file.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+		final DbFileIterator source = hf.iterator(tid);
+		final Tuple bad = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+		// the tuples of hf, then one with the wrong TupleDesc
+		DbFileIterator failing = new AbstractDbFileIterator() {
+			private boolean failed = false;
+
+			public void open() throws DbException, TransactionAbortedException {
+				source.open();
+			}
+
+			public void rewind() {}
+
+			public void close() {
+				super.close();
+				source.close();
+			}
+
+			protected Tuple readNext() throws DbException, TransactionAbortedException {
+				if (source.hasNext())
+					return source.next();
+				if (failed)
+					return null;
+				failed = true;
+				return bad;
+			}
+		};
+		try {
+			bf.bulkLoad(tid, failing, 1.0, 500);
+			fail("expected DbException");
+		} catch (DbException e) {
+			// the tuple with the wrong TupleDesc
+		}
+		assertEquals(Arrays.asList("tree.dat"), Arrays.asList(dir.list()));
+
+		bf.bulkLoad(tid, hf.iterator(tid), 1.0, 500);
+		assertEquals(3000, scan(bf).size());
+		assertEquals(Arrays.asList("tree.dat"), Arrays.asList(dir.list()));
+	}
+
+	/** JUnit suite target */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		// small pages, so that the trees have several levels
+		BufferPool.setPageSize(1024);
+		Database.reset();
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/** Create an empty B+ tree of three int fields keyed on fields 1 and 2 */
+	private BTreeFile createEmpty() throws Exception {
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, new int[] { 1, 2 }, Utility.getTupleDesc(3));
+		Database.getCatalog().addTable(bf);
+		return bf;
+	}
+
+	private static CompositeField key(int... values) {
+		Field[] fields = new Field[values.length];
+		for (int i = 0; i < values.length; i++)
+			fields[i] = new IntField(values[i]);
+		return new CompositeField(fields);
+	}
+
+	/** Count the tuples returned by an index scan, checking that they are in key order */
+	private int count(BTreeFile bf, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		int n = 0;
+		Field prev = null;
+		while (it.hasNext()) {
+			Field key = bf.getKey(it.next());
+			assertTrue(ipred.matches(key));
+			assertTrue(prev == null || prev.compare(Op.LESS_THAN_OR_EQ, key));
+			prev = key;
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/** Count the tuples with the given value of field 1 and a value of field 2 satisfying op v */
+	private static int expected(List<ArrayList<Integer>> tuples, int first, Op op, int v) {
+		int n = 0;
+		for (ArrayList<Integer> t : tuples) {
+			if (t.get(1) == first && new IntField(t.get(2)).compare(op, new IntField(v)))
+				n++;
+		}
+		return n;
+	}
+
+	/** Check the prefix and range searches of a tree holding the given tuples */
+	private void checkSearches(BTreeFile bf, List<ArrayList<Integer>> tuples) throws Exception {
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		for (int first : new int[] { 0, 7, 19 }) {
+			int all = expected(tuples, first, Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE);
+			assertEquals(all, count(bf, new IndexPredicate(Op.EQUALS, key(first))));
+			assertEquals(expected(tuples, first, Op.EQUALS, 5), count(bf, new IndexPredicate(Op.EQUALS, key(first, 5))));
+			assertEquals(expected(tuples, first, Op.GREATER_THAN, 5),
+					count(bf, new IndexPredicate(Op.GREATER_THAN, key(first, 5), Op.LESS_THAN_OR_EQ, key(first))));
+			assertEquals(expected(tuples, first, Op.LESS_THAN, 12),
+					count(bf, new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(first), Op.LESS_THAN, key(first, 12))));
+			assertEquals(all - expected(tuples, first, Op.LESS_THAN, 3) - expected(tuples, first, Op.GREATER_THAN_OR_EQ, 8),
+					count(bf, new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(first, 3), Op.LESS_THAN, key(first, 8))));
+		}
+		int below = 0;
+		for (ArrayList<Integer> t : tuples)
+			below += t.get(1) < 4 ? 1 : 0;
+		assertEquals(below, count(bf, new IndexPredicate(Op.LESS_THAN, key(4))));
+		assertEquals(tuples.size(), count(bf, new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(Integer.MIN_VALUE))));
+	}
+
+	/**
+	 * A tree keyed on two fields stays valid through inserts and deletes and
+	 * answers searches for a prefix of its key, and for a range of the
+	 * second key field within a value of the first
+	 */
+	@Test public void insertAndDelete() throws Exception {
+		BTreeFile bf = createEmpty();
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		Random rand = new Random(46);
+		for (int i = 0; i < 3000; i++) {
+			int[] values = new int[] { i, rand.nextInt(20), rand.nextInt(20) };
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(values));
+			tuples.add(BTreeUtility.tupleToList(BTreeUtility.getBTreeTuple(values)));
+		}
+		checkSearches(bf, tuples);
+
+		// deletes move tuples between pages, so look each one up by its key
+		Iterator<ArrayList<Integer>> ti = tuples.iterator();
+		while (ti.hasNext()) {
+			ArrayList<Integer> values = ti.next();
+			if (values.get(0) % 3 != 0)
+				continue;
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(values.get(1), values.get(2))));
+			it.open();
+			Tuple t = it.next();
+			while (t.getInt(0) != values.get(0))
+				t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+			ti.remove();
+		}
+		checkSearches(bf, tuples);
+	}
+
+	/** Bulk loading a tree keyed on two fields sorts on both of them */
+	@Test public void bulkLoad() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 20, null, tuples);
+		BTreeFile bf = createEmpty();
+		bf.bulkLoad(tid, hf.iterator(tid), 1.0, 700);
+		checkSearches(bf, tuples);
+	}
+
+	/**
+	 * The planner answers equality filters on the leading key fields and a
+	 * range filter on the next one with one scan of the tree
+	 */
+	@Test public void plannerUsesKeyPrefix() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 20, null, tuples);
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, new int[] { 1, 2 }, Utility.getTupleDesc(3, "f"));
+		Database.getCatalog().addTable(bf, "ct");
+		bf.bulkLoad(tid, hf.iterator(tid), 1.0);
+		TableStats.setTableStats("ct", new TableStats(bf.getId(), TableStats.IOCOSTPERPAGE));
+
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(bf.getId(), "ct");
+		lp.addFilter("ct.f1", Op.EQUALS, "7");
+		lp.addFilter("ct.f2", Op.GREATER_THAN, "15");
+		lp.addProjectField("null.*", null);
+		DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertTrue(plan instanceof Project && ((Project) plan).getChildren()[0] instanceof BTreeScan);
+		plan.open();
+		int n = 0;
+		while (plan.hasNext()) {
+			Tuple t = plan.next();
+			assertEquals(7, t.getInt(1));
+			assertTrue(t.getInt(2) > 15);
+			n++;
+		}
+		plan.close();
+		assertEquals(expected(tuples, 7, Op.GREATER_THAN, 15), n);
+	}
+
+	/** JUnit suite target */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
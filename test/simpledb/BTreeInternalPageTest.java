@@ -313,6 +313,39 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), which must agree with a
+	 * linear scan of the entries, also when deletes leave empty slots
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		for (int round = 0; round < 2; round++) {
+			assertEquals(page.iterator().next().getLeftChild(), page.findChild(null));
+			for (int key = 0; key < 70000; key += 97) {
+				IntField f = new IntField(key);
+				BTreePageId expected = null;
+				Iterator<BTreeEntry> it = page.iterator();
+				while (it.hasNext()) {
+					BTreeEntry e = it.next();
+					expected = e.getRightChild();
+					if (e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f)) {
+						expected = e.getLeftChild();
+						break;
+					}
+				}
+				assertEquals(expected, page.findChild(f));
+			}
+
+			// delete every third entry and search again
+			List<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext())
+				entries.add(it.next());
+			for (int i = 0; i < entries.size(); i += 3)
+				page.deleteKeyAndRightChild(entries.get(i));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
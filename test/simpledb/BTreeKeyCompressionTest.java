@@ -0,0 +1,222 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeKeyCompressionTest extends SimpleDbTestBase {
+	private static final String PREFIX = "http://www.example.com/items/";
+
+	private TransactionId tid;
+	private TupleDesc td;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	private BTreeFile createStringBTreeFile() throws Exception {
+		File f = File.createTempFile("strindex", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		return bf;
+	}
+
+	private Tuple tuple(String key, int value) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new StringField(key, Type.STRING_LEN));
+		t.setField(1, new IntField(value));
+		return t;
+	}
+
+	/** Scan a B+ tree, checking that its keys are in order, and return the number of tuples */
+	private int scan(BTreeFile bf) throws Exception {
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		Field prev = null;
+		while (it.hasNext()) {
+			Field key = it.next().getField(0);
+			assertTrue(prev == null || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, key));
+			prev = key;
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/** Collect the keys of the internal pages of a B+ tree, and return its height */
+	private int internalKeys(BTreeFile bf, BTreePageId pid, List<String> keys) throws Exception {
+		if (pid.pgcateg() == BTreePageId.LEAF)
+			return 1;
+		BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		int height = 0;
+		while (it.hasNext()) {
+			e = it.next();
+			keys.add(((StringField) e.getKey()).getValue());
+			height = internalKeys(bf, e.getLeftChild(), keys);
+		}
+		internalKeys(bf, e.getRightChild(), keys);
+		return height + 1;
+	}
+
+	/**
+	 * An internal page keyed on strings with a common prefix holds many more
+	 * entries than fit uncompressed, and reads back what it wrote
+	 */
+	@Test public void internalPageCapacity() throws Exception {
+		BTreeFile bf = createStringBTreeFile();
+		BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL),
+				BTreeInternalPage.createEmptyPageData(), 0);
+		assertTrue(page.hasCompressedKeys());
+		int uncompressed = (BufferPool.getPageSize() - 9) / (Type.STRING_TYPE.getLen() + 4);
+
+		int n = 0;
+		while (page.hasRoomFor(new StringField(PREFIX + (100000 + n), Type.STRING_LEN))) {
+			page.insertEntry(new BTreeEntry(new StringField(PREFIX + (100000 + n), Type.STRING_LEN),
+					new BTreePageId(bf.getId(), n + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), n + 3, BTreePageId.LEAF)));
+			n++;
+		}
+		assertTrue(n > 8 * uncompressed);
+		assertTrue(page.getUsedSpace() <= page.getCapacity());
+
+		BTreeInternalPage copy = new BTreeInternalPage(page.getId(), page.getPageData(), 0);
+		assertEquals(n, copy.getNumEntries());
+		Iterator<BTreeEntry> it = page.iterator(), copyIt = copy.iterator();
+		while (it.hasNext()) {
+			BTreeEntry e = it.next(), c = copyIt.next();
+			assertEquals(e.getKey(), c.getKey());
+			assertEquals(e.getLeftChild(), c.getLeftChild());
+			assertEquals(e.getRightChild(), c.getRightChild());
+		}
+		assertFalse(copyIt.hasNext());
+		assertEquals(page.getUsedSpace(), copy.getUsedSpace());
+	}
+
+	/**
+	 * Separators are the shortest prefixes that split their pages; they work
+	 * with both halves of the keys they separate
+	 */
+	@Test public void separatorKey() {
+		Field a = new StringField(PREFIX + "apple", Type.STRING_LEN);
+		Field b = new StringField(PREFIX + "banana", Type.STRING_LEN);
+		Field sep = BTreeFile.separatorKey(a, b);
+		assertEquals(new StringField(PREFIX + "b", Type.STRING_LEN), sep);
+		assertTrue(a.compare(Predicate.Op.LESS_THAN, sep));
+		assertTrue(sep.compare(Predicate.Op.LESS_THAN_OR_EQ, b));
+
+		// a key that is a prefix of the next one
+		Field c = new StringField(PREFIX + "b", Type.STRING_LEN);
+		assertEquals(new StringField(PREFIX + "ba", Type.STRING_LEN), BTreeFile.separatorKey(c, b));
+		assertEquals(b, BTreeFile.separatorKey(b, b));
+		assertEquals(new IntField(7), BTreeFile.separatorKey(new IntField(3), new IntField(7)));
+	}
+
+	/**
+	 * A string-keyed tree built by inserts is short and valid, holds short
+	 * separators, and stays valid as its tuples are deleted
+	 */
+	@Test public void insertAndDelete() throws Exception {
+		BTreeFile bf = createStringBTreeFile();
+		Random rand = new Random(44);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		int n = 12000;
+		for (int i = 0; i < n; i++) {
+			Tuple t = tuple(PREFIX + rand.nextInt(1000000), i);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+			tuples.add(t);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(n, scan(bf));
+
+		// an uncompressed tree of thousands of leaves would need three internal levels
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		ArrayList<String> keys = new ArrayList<String>();
+		assertEquals(3, internalKeys(bf, rootPtr.getRootId(), keys));
+		double keyLength = 0, separatorLength = 0;
+		for (Tuple t : tuples)
+			keyLength += ((StringField) t.getField(0)).getValue().length();
+		for (String k : keys)
+			separatorLength += k.length();
+		assertTrue(separatorLength / keys.size() < keyLength / n - 1);
+
+		// lookups go through the separators
+		for (int i = 0; i < 100; i++) {
+			Field key = tuples.get(rand.nextInt(n)).getField(0);
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+			it.open();
+			assertTrue(it.hasNext());
+			assertEquals(key, it.next().getField(0));
+			it.close();
+		}
+
+		// delete tuples as found in the tree, since splits move them
+		Collections.shuffle(tuples, rand);
+		for (int i = 0; i < n / 2; i++) {
+			Field key = tuples.get(i).getField(0);
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(n - n / 2, scan(bf));
+	}
+
+	/**
+	 * A string-keyed tree can be bulk loaded with compressed internal pages,
+	 * whose root holds the hundreds of leaves that would need two internal
+	 * levels uncompressed
+	 */
+	@Test public void bulkLoad() throws Exception {
+		BTreeFile bf = createStringBTreeFile();
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < 10000; i++)
+			tuples.add(tuple(PREFIX + (i * 7919 % 10000), i));
+		final Iterator<Tuple> source = tuples.iterator();
+		bf.bulkLoad(tid, new AbstractDbFileIterator() {
+			public void open() {
+			}
+
+			public void rewind() {
+			}
+
+			protected Tuple readNext() {
+				return source.hasNext() ? source.next() : null;
+			}
+		}, 1.0);
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(10000, scan(bf));
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		assertEquals(2, internalKeys(bf, rootPtr.getRootId(), new ArrayList<String>()));
+	}
+
+	/** JUnit suite target */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyCompressionTest.class);
+	}
+}
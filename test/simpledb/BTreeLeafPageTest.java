@@ -336,6 +336,34 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.insertTuple() into a page whose deletes
+	 * left empty slots between its tuples
+	 */
+	@Test public void addTupleWithGaps() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		List<Tuple> tuples = new ArrayList<Tuple>();
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 0; i < tuples.size(); i += 2)
+			page.deleteTuple(tuples.get(i));
+		int free = page.getNumEmptySlots();
+
+		Random r = new Random(7);
+		for (int i = 0; i < free; i++) {
+			page.insertTuple(BTreeUtility.getBTreeTuple(r.nextInt(70000), 2));
+			assertEquals(free - i - 1, page.getNumEmptySlots());
+		}
+		it = page.iterator();
+		Tuple prev = it.next();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertTrue(prev.getField(0).compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(0)));
+			prev = t;
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeReadAheadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/** Counts the readPage operations on each page, and those done by read-ahead threads. */
+	private static class InstrumentedBTreeFile extends BTreeFile {
+		final ConcurrentHashMap<PageId, AtomicInteger> reads = new ConcurrentHashMap<PageId, AtomicInteger>();
+		final AtomicInteger readAheadReads = new AtomicInteger();
+
+		InstrumentedBTreeFile(File f, int key, TupleDesc td) {
+			super(f, key, td);
+		}
+
+		public Page readPage(PageId pid) {
+			reads.computeIfAbsent(pid, k -> new AtomicInteger()).incrementAndGet();
+			if (Thread.currentThread().getName().equals("read-ahead"))
+				readAheadReads.incrementAndGet();
+			return super.readPage(pid);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	/** Create a B+ tree with many leaves, and empty the buffer pool */
+	private InstrumentedBTreeFile createFile(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+		return createFile(tuples, 1000);
+	}
+
+	/**
+	 * Create a B+ tree with many leaves, and replace the buffer pool with one
+	 * of the specified size
+	 */
+	private InstrumentedBTreeFile createFile(ArrayList<ArrayList<Integer>> tuples, int poolPages) throws Exception {
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+		InstrumentedBTreeFile bf = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(bf);
+		Database.resetBufferPool(poolPages);
+		return bf;
+	}
+
+	/** @return the number of tuples returned by it */
+	private static int count(DbFileIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * A scan reads its leaves ahead, in the background, and reads no page
+	 * more than once
+	 */
+	@Test public void scanReadsAhead() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		InstrumentedBTreeFile bf = createFile(tuples);
+		assertEquals(tuples.size(), count(bf.iterator(tid)));
+		assertTrue(bf.readAheadReads.get() > 0);
+		for (AtomicInteger n : bf.reads.values())
+			assertEquals(1, n.get());
+	}
+
+	/**
+	 * A range search reads ahead the leaves it will read, and no others
+	 */
+	@Test public void rangeSearchReadsAhead() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		InstrumentedBTreeFile bf = createFile(tuples);
+		int v = BTreeUtility.MAX_RAND_VALUE / 2, expected = 0;
+		for (ArrayList<Integer> t : tuples)
+			expected += t.get(0) > v ? 1 : 0;
+		assertEquals(expected, count(bf.indexIterator(tid, new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(v)))));
+		assertTrue(bf.readAheadReads.get() > 0);
+		for (AtomicInteger n : bf.reads.values())
+			assertEquals(1, n.get());
+
+		// the search stops in the first leaf holding a key of at least v
+		Database.resetBufferPool(1000);
+		bf.reads.clear();
+		expected = 0;
+		for (ArrayList<Integer> t : tuples)
+			expected += t.get(0) < v ? 1 : 0;
+		assertEquals(expected, count(bf.indexIterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(v)))));
+		HashSet<PageId> read = new HashSet<PageId>(bf.reads.keySet());
+		HashSet<PageId> needed = new HashSet<PageId>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			needed.add(t.getRecordId().getPageId());
+			if (t.getInt(0) >= v)
+				break;
+		}
+		it.close();
+		for (PageId pid : read) {
+			if (((BTreePageId) pid).pgcateg() == BTreePageId.LEAF)
+				assertTrue(needed.contains(pid));
+		}
+	}
+
+	/**
+	 * A range search over more leaves than the buffer pool holds, which has
+	 * no second tier, still reads each leaf once: leaves are not read ahead
+	 * into a full pool, where they would be dropped
+	 */
+	@Test public void smallPoolReadsLeavesOnce() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		InstrumentedBTreeFile bf = createFile(tuples, 8);
+		int v = BTreeUtility.MAX_RAND_VALUE / 4, expected = 0;
+		for (ArrayList<Integer> t : tuples)
+			expected += t.get(0) > v ? 1 : 0;
+		assertEquals(expected, count(bf.indexIterator(tid, new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(v)))));
+		assertTrue(bf.readAheadReads.get() > 0);
+		int leaves = 0;
+		for (Map.Entry<PageId, AtomicInteger> e : bf.reads.entrySet()) {
+			if (((BTreePageId) e.getKey()).pgcateg() == BTreePageId.LEAF) {
+				assertEquals(1, e.getValue().get());
+				leaves++;
+			}
+		}
+		assertTrue(leaves > 3 * 8);
+	}
+
+	/** Pages that cannot be read ahead are ignored */
+	@Test public void unreadablePageIgnored() throws Exception {
+		InstrumentedBTreeFile bf = createFile(new ArrayList<ArrayList<Integer>>());
+		BTreePageId missing = new BTreePageId(bf.getId(), 100000, BTreePageId.LEAF);
+		Database.getBufferPool().prefetch(missing);
+		try {
+			Database.getBufferPool().getPage(tid, missing, Permissions.READ_ONLY);
+			fail("page past the end of the file");
+		} catch (IllegalArgumentException e) {
+			// expected: read again on demand, and failed again
+		}
+		assertEquals(2, bf.reads.get(missing).get());
+	}
+
+	/** JUnit suite target */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeReadAheadTest.class);
+	}
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+    private static final int[] INTS = { Integer.MIN_VALUE, -5, 0, 1, 7, Integer.MAX_VALUE };
+    private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "zz" };
+
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+    @After public void enable() {
+        CompiledPredicate.setEnabled(true);
+    }
+
+    private Tuple tuple(String s, int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField(s, Type.STRING_LEN));
+        t.setField(1, new IntField(i));
+        return t;
+    }
+
+    /** @return t serialized, preceded by some padding */
+    private byte[] bytes(Tuple t) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(0);
+        t.getField(0).serialize(dos);
+        t.getField(1).serialize(dos);
+        return baos.toByteArray();
+    }
+
+    /** Check that p compiles to a predicate agreeing with Predicate.filter */
+    private void check(Predicate p) throws Exception {
+        CompiledPredicate c = CompiledPredicate.compile(p, td);
+        for (String s : STRINGS) {
+            for (int i : INTS) {
+                Tuple t = tuple(s, i);
+                assertEquals(p + " on " + t, p.filter(t), c.matches(t));
+                assertEquals(p + " on raw " + t, p.filter(t), c.matches(bytes(t), 4));
+            }
+        }
+    }
+
+    /**
+     * Compiled predicates accept exactly the tuples Predicate.filter does
+     */
+    @Test public void matchesInterpreter() throws Exception {
+        for (boolean enabled : new boolean[] { true, false }) {
+            CompiledPredicate.setEnabled(enabled);
+            for (Predicate.Op op : Predicate.Op.values()) {
+                for (int i : INTS)
+                    check(new Predicate(1, op, new IntField(i)));
+                for (String s : STRINGS)
+                    check(new Predicate(0, op, new StringField(s, Type.STRING_LEN)));
+            }
+        }
+    }
+
+    /**
+     * Conjunctions require every predicate to hold
+     */
+    @Test public void conjunction() throws Exception {
+        CompiledPredicate c = CompiledPredicate.compile(new Predicate[] {
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new Predicate(0, Predicate.Op.EQUALS, new StringField("ab", Type.STRING_LEN)) }, td);
+        assertTrue(c.matches(tuple("ab", 0)));
+        assertTrue(c.matches(bytes(tuple("ab", 7)), 4));
+        assertFalse(c.matches(tuple("ab", -5)));
+        assertFalse(c.matches(bytes(tuple("abc", 7)), 4));
+        assertNull(CompiledPredicate.compile(new Predicate[0], td));
+    }
+
+    /**
+     * Compiled join predicates agree with JoinPredicate.filter
+     */
+    @Test public void joinMatchesInterpreter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int f : new int[] { 0, 1 }) {
+                JoinPredicate p = new JoinPredicate(f, op, f);
+                CompiledJoinPredicate c = CompiledJoinPredicate.compile(p, td, td);
+                for (int i : INTS) {
+                    for (int j : INTS) {
+                        Tuple t1 = tuple(STRINGS[Math.abs(i % STRINGS.length)], i);
+                        Tuple t2 = tuple(STRINGS[Math.abs(j % STRINGS.length)], j);
+                        assertEquals(p.filter(t1, t2), c.matches(t1, t2));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompiledPredicateTest.class);
+    }
+}
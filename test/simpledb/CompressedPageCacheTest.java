@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount++;
+            return super.readPage(pid);
+        }
+    }
+
+    private static byte[] pageOf(int value) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < 64; i++)
+            data[i] = (byte) (value + i);
+        return data;
+    }
+
+    /**
+     * The cache returns what was put in it, once, and evicts the least
+     * recently used pages to stay within its bound
+     */
+    @Test public void boundedLru() {
+        HeapPageId a = new HeapPageId(1, 0), b = new HeapPageId(1, 1), c = new HeapPageId(1, 2);
+        CompressedPageCache probe = new CompressedPageCache(Long.MAX_VALUE);
+        probe.put(a, pageOf(0));
+        long entrySize = probe.bytesUsed();
+        assertTrue(entrySize < BufferPool.getPageSize() / 4);
+
+        CompressedPageCache cache = new CompressedPageCache(2 * entrySize);
+        cache.put(a, pageOf(0));
+        cache.put(b, pageOf(1));
+        cache.put(a, pageOf(0));  // a is now the most recently used
+        cache.put(c, pageOf(2));
+        assertEquals(2, cache.size());
+        assertTrue(cache.bytesUsed() <= 2 * entrySize);
+        assertNull(cache.take(b));
+        assertArrayEquals(pageOf(2), cache.take(c));
+        assertArrayEquals(pageOf(0), cache.take(a));
+        assertNull(cache.take(a));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytesUsed());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        CompressedPageCache disabled = new CompressedPageCache(0);
+        disabled.put(a, pageOf(0));
+        assertNull(disabled.take(a));
+    }
+
+    /**
+     * Rescanning a file larger than the BufferPool rebuilds evicted pages
+     * from the second tier instead of reading them from disk, and sees the
+     * changes made to them before they were evicted
+     */
+    @Test public void rescanFromSecondTier() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 10, null, tuples);
+        InstrumentedHeapFile hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() > 4);
+        Database.resetBufferPool(4, 1 << 20);
+
+        // modify every page so evictions write them back
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { -i, -i });
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.deleteTuple(p.iterator().next());
+            p.insertTuple(t);
+            p.markDirty(true, tid);
+        }
+        int reads = hf.readCount;
+        assertEquals(hf.numPages(), reads);
+
+        CompressedPageCache secondTier = Database.getBufferPool().getSecondTier();
+        assertEquals(hf.numPages() - 4, secondTier.size());
+        int count = 0;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getInt(0) <= 0 && t.getInt(0) == t.getInt(1))
+                count++;
+            else
+                assertTrue(t.getInt(0) >= 0);
+        }
+        it.close();
+        assertTrue(count >= hf.numPages());
+        assertEquals(reads, hf.readCount);
+        assertTrue(secondTier.getHits() >= hf.numPages() - 4);
+
+        // a discarded page is reread from disk
+        Database.getBufferPool().flushAllPages();
+        for (int i = 0; i < hf.numPages(); i++)
+            Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(reads + 1, hf.readCount);
+    }
+
+    /**
+     * A BufferPool keeps no evicted pages unless given a second tier
+     */
+    @Test public void secondTierOffByDefault() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 10, null, tuples);
+        InstrumentedHeapFile hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(4);
+
+        TransactionId tid = new TransactionId();
+        int reads = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            reads = hf.readCount;
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                it.next();
+            it.close();
+            if (pass == 0)
+                assertEquals(hf.numPages(), hf.readCount);
+        }
+        // the rescan reads every page that is not in the pool from disk again
+        assertTrue(hf.readCount - reads >= hf.numPages() - 4);
+        assertEquals(0, Database.getBufferPool().getSecondTier().size());
+        assertEquals(0, Database.getBufferPool().getSecondTier().getHits());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageStoreTest extends SimpleDbTestBase {
+
+    private static File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        new File(f.getAbsolutePath() + ".pagemap").deleteOnExit();
+        new File(f.getAbsolutePath() + ".pagemap.log").deleteOnExit();
+        new File(f.getAbsolutePath() + ".zonemap").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * LZCodec restores random, repetitive and empty data exactly
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        Random r = new Random(1);
+        byte[] random = new byte[5000];
+        r.nextBytes(random);
+        byte[] repetitive = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < 1000; i++)
+            repetitive[i] = (byte) (i % 13);
+        for (byte[] in : new byte[][] { random, repetitive, new byte[0], new byte[] { 1, 2, 3 } }) {
+            byte[] packed = LZCodec.compress(in, in.length);
+            assertArrayEquals(in, LZCodec.decompress(packed, 0, in.length));
+        }
+        assertTrue(LZCodec.compress(repetitive, repetitive.length).length < repetitive.length / 10);
+    }
+
+    /**
+     * A compressed heap file holds the same tuples in fewer bytes, and
+     * supports inserts
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File raw = SystemTestUtil.createRandomHeapFileUnopened(3, 3000, 10, null, tuples);
+        File f = tempFile("compressed");
+        CompressedPageStore.compressFile(raw, f, BufferPool.getPageSize(), BufferPool.getPageSize());
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3), true);
+        assertTrue(hf.isCompressed());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(raw.length() / BufferPool.getPageSize(), hf.numPages());
+        assertTrue(f.length() < raw.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // fill the file past its last page and reread it from disk
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> added = new ArrayList<Integer>();
+            for (int j = 0; j < 3; j++)
+                added.add(i);
+            tuples.add(added);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(3), true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Padded strings compress several times over
+     */
+    @Test public void paddedStrings() throws Exception {
+        File in = File.createTempFile("strings", ".txt");
+        in.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        String[] status = { "shipped", "pending", "returned", "lost" };
+        for (int i = 0; i < 2000; i++)
+            bw.write(i + "," + status[i % status.length] + "\n");
+        bw.close();
+        File raw = tempFile("raw");
+        HeapFileEncoder.convert(in, raw, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File f = tempFile("compressed");
+        CompressedPageStore.compressFile(raw, f, BufferPool.getPageSize(), BufferPool.getPageSize());
+        assertTrue(f.length() * 5 < raw.length());
+
+        CompressedPageStore store = new CompressedPageStore(f);
+        for (int p = 0; p < store.numPages(); p++) {
+            byte[] expected = new byte[BufferPool.getPageSize()];
+            RandomAccessFile raf = new RandomAccessFile(raw, "r");
+            raf.seek((long) p * expected.length);
+            raf.readFully(expected);
+            raf.close();
+            assertArrayEquals(expected, store.read(p, expected.length));
+        }
+    }
+
+    /**
+     * Pages that grow out of their space move into space freed by others
+     * rather than to the end of the file, and the page map read back finds
+     * the latest version of each page and the free space
+     */
+    @Test public void rewritesReuseSpace() throws Exception {
+        File f = tempFile("rewritten");
+        f.delete();
+        int pageSize = BufferPool.getPageSize(), pages = 50, rounds = 20;
+        Random r = new Random(39);
+        byte[][] expected = new byte[pages][];
+        CompressedPageStore store = new CompressedPageStore(f);
+        for (int round = 0; round < rounds; round++) {
+            // every page compresses worse than before, so each write moves it
+            for (int p = 0; p < pages; p++) {
+                byte[] data = new byte[pageSize];
+                for (int i = 0; i < 100 * (round + 1); i++)
+                    data[i] = (byte) r.nextInt();
+                store.write(p, data);
+                expected[p] = data;
+            }
+        }
+        // appending every moved page would take pages * 100 * (1 + ... + rounds) bytes
+        assertTrue(f.length() < 3L * pages * 100 * rounds);
+        assertFalse(new File(f.getAbsolutePath() + ".pagemap.tmp").exists());
+
+        CompressedPageStore reopened = new CompressedPageStore(f);
+        assertEquals(pages, reopened.numPages());
+        for (int p = 0; p < pages; p++)
+            assertArrayEquals(expected[p], reopened.read(p, pageSize));
+
+        // the space freed by the last round is found again from the page map
+        long length = f.length();
+        reopened.write(pages, expected[0]);
+        assertEquals(length, f.length());
+        assertArrayEquals(expected[0], new CompressedPageStore(f).read(pages, pageSize));
+    }
+
+    /**
+     * A write appends one entry to the map log instead of rewriting the page
+     * map, the log is folded into the map once it is long, and a record cut
+     * short by a crash leaves its page at its old place
+     */
+    @Test public void writesLogMapEntries() throws Exception {
+        File f = tempFile("logged");
+        f.delete();
+        File map = new File(f.getAbsolutePath() + ".pagemap");
+        File log = new File(f.getAbsolutePath() + ".pagemap.log");
+        int pageSize = BufferPool.getPageSize(), pages = 200;
+        Random r = new Random(40);
+        byte[][] expected = new byte[pages][];
+        CompressedPageStore store = new CompressedPageStore(f);
+        for (int p = 0; p < pages; p++) {
+            byte[] data = new byte[pageSize];
+            for (int i = 0; i < 100; i++)
+                data[i] = (byte) r.nextInt();
+            store.write(p, data);
+            expected[p] = data;
+        }
+        // each write added a record to the log
+        assertFalse(map.exists());
+        assertEquals(24L * pages, log.length());
+
+        // once the log has a record per page, the next write folds it into the map
+        expected[1] = new byte[pageSize];
+        store.write(1, expected[1]);
+        assertEquals(16L * pages, map.length());
+        assertFalse(log.exists());
+        byte[] last = new byte[pageSize];
+        last[0] = 1;
+        store.write(0, last);
+        assertEquals(16L * pages, map.length());
+        assertEquals(24, log.length());
+        store.close();
+
+        CompressedPageStore reopened = new CompressedPageStore(f);
+        assertEquals(pages, reopened.numPages());
+        assertArrayEquals(last, reopened.read(0, pageSize));
+        for (int p = 1; p < pages; p++)
+            assertArrayEquals(expected[p], reopened.read(p, pageSize));
+        reopened.close();
+
+        // a torn record: the page number and part of the entry
+        long logLength = log.length();
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        raf.seek(logLength);
+        raf.writeInt(1);
+        raf.writeLong(0);
+        raf.writeInt(7);
+        raf.writeInt(7);
+        raf.writeInt(0);
+        raf.close();
+        reopened = new CompressedPageStore(f);
+        assertArrayEquals(expected[1], reopened.read(1, pageSize));
+        reopened.close();
+    }
+
+    /**
+     * A compressed B+ tree file supports inserts and scans
+     */
+    @Test public void bTreeFile() throws Exception {
+        File f = tempFile("btree");
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            int key = (i * 7919) % 2000;
+            Database.getBufferPool().insertTuple(tid, bf.getId(), Utility.getHeapTuple(new int[] { key, i }));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(key);
+            t.add(i);
+            tuples.add(t);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        assertTrue(bf.numPages() > 2);
+        assertTrue(f.length() < (long) bf.numPages() * BufferPool.getPageSize());
+        BTreeFile reopened = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageStoreTest.class);
+    }
+}
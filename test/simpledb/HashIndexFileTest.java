@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    /** Counts the readPage operations */
+    private static class InstrumentedHashIndexFile extends HashIndexFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        InstrumentedHashIndexFile(File f, int key, TupleDesc td) {
+            super(f, key, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        // small pages, so that the buckets split and overflow
+        BufferPool.setPageSize(1024);
+        Database.reset();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    /** Create an empty hash index file of two int fields hashed on field 0 */
+    private InstrumentedHashIndexFile createEmpty(String name) throws Exception {
+        File f = File.createTempFile("hashindex", ".dat");
+        f.deleteOnExit();
+        InstrumentedHashIndexFile hf = new InstrumentedHashIndexFile(f, 0, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /** Insert tuples (key, i) with random keys below maxKey, recording how many have each key */
+    private void insert(HashIndexFile hf, int n, int maxKey, Map<Integer, Integer> counts) throws Exception {
+        Random rand = new Random(50);
+        for (int i = 0; i < n; i++) {
+            int key = rand.nextInt(maxKey);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { key, i }));
+            counts.merge(key, 1, Integer::sum);
+        }
+    }
+
+    /** @return the tuples returned by it */
+    private static List<Tuple> read(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /** Check that lookups and scans of the file find the recorded tuples */
+    private void check(HashIndexFile hf, Map<Integer, Integer> counts, int maxKey) throws Exception {
+        int total = 0;
+        for (int key = 0; key < maxKey; key++) {
+            List<Tuple> found = read(hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key))));
+            for (Tuple t : found)
+                assertEquals(key, t.getInt(0));
+            assertEquals(counts.getOrDefault(key, 0).intValue(), found.size());
+            total += found.size();
+        }
+        assertEquals(total, read(hf.iterator(tid)).size());
+        assertEquals(total, read(hf.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0)))).size());
+    }
+
+    /**
+     * Lookups find every tuple with their key as buckets split and overflow,
+     * and after deletes, whose emptied overflow pages are reused
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HashIndexFile hf = createEmpty("h");
+        assertEquals(0, read(hf.iterator(tid)).size());
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        insert(hf, 6000, 500, counts);
+        int pages = hf.numPages();
+        // at least a bucket per page of tuples, and overflow pages for the duplicate keys
+        int perPage = HashBucketPage.getMaxTuples(hf.getTupleDesc());
+        assertTrue(pages > 6000 / perPage);
+        check(hf, counts, 500);
+
+        for (int key = 0; key < 500; key += 3) {
+            for (Tuple t : read(hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)))))
+                Database.getBufferPool().deleteTuple(tid, t);
+            counts.remove(key);
+        }
+        check(hf, counts, 500);
+
+        for (Tuple t : read(hf.iterator(tid)))
+            Database.getBufferPool().deleteTuple(tid, t);
+        counts.clear();
+        check(hf, counts, 500);
+        insert(hf, 6000, 500, counts);
+        check(hf, counts, 500);
+        assertEquals(pages, hf.numPages());
+    }
+
+    /** A lookup reads the meta page and the pages of a single bucket */
+    @Test public void lookupReadsOneBucket() throws Exception {
+        InstrumentedHashIndexFile hf = createEmpty("h");
+        insert(hf, 20000, Integer.MAX_VALUE, new HashMap<Integer, Integer>());
+        List<Tuple> all = read(hf.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.reads.set(0);
+
+        for (int i = 0; i < 100; i++) {
+            int key = all.get(i * 100).getInt(0);
+            List<Tuple> found = read(hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key))));
+            assertTrue(found.size() >= 1);
+        }
+        assertTrue(hf.numPages() > 100);
+        // mostly one page per bucket: the meta page stays cached
+        assertTrue(hf.reads.get() < 1 + 100 * 2);
+    }
+
+    /**
+     * The planner answers an equality filter on the key of a hash index file
+     * with a lookup, and other filters with a scan
+     */
+    @Test public void plannerUsesHashIndex() throws Exception {
+        HashIndexFile hf = createEmpty("ht");
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        insert(hf, 6000, 500, counts);
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.setTableStats("ht", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ht");
+        lp.addFilter("ht.f0", Op.EQUALS, "42");
+        lp.addProjectField("null.*", null);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(plan instanceof Project && ((Project) plan).getChildren()[0] instanceof HashIndexScan);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            assertEquals(42, plan.next().getInt(0));
+            n++;
+        }
+        plan.close();
+        assertEquals(counts.get(42).intValue(), n);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ht");
+        lp.addFilter("ht.f0", Op.LESS_THAN, "5");
+        lp.addProjectField("null.*", null);
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(((Project) plan).getChildren()[0] instanceof HashIndexScan);
+    }
+
+    /**
+     * convert loads the tuples of a heap file into a hash index file, which
+     * can be reopened, and only empty files and hash index files of this
+     * version have its format
+     */
+    @Test public void convertHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples)
+            counts.merge(t.get(0), 1, Integer::sum);
+
+        File f = File.createTempFile("hashindex", ".dat");
+        f.deleteOnExit();
+        assertTrue(new HashIndexFile(f, 0, source.getTupleDesc()).hasHashFormat());
+        HashIndexFile hf = HashIndexFile.convert(source, f, 0);
+        check(hf, counts, 500);
+        assertTrue(hf.hasHashFormat());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.reset();
+        HashIndexFile reopened = new HashIndexFile(f, 0, source.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "h");
+        assertTrue(reopened.hasHashFormat());
+        check(reopened, counts, 500);
+
+        assertFalse(new HashIndexFile(source.getFile(), 0, source.getTupleDesc()).hasHashFormat());
+
+        // a file of another version is rejected
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(4);
+            raf.writeInt(HashMetaPage.VERSION + 1);
+        }
+        assertFalse(new HashIndexFile(f, 0, source.getTupleDesc()).hasHashFormat());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileReadAheadTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    /** Counts the readPage operations on each page, and those done by read-ahead threads. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final ConcurrentHashMap<PageId, AtomicInteger> reads = new ConcurrentHashMap<PageId, AtomicInteger>();
+        final AtomicInteger readAheadReads = new AtomicInteger();
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            reads.computeIfAbsent(pid, k -> new AtomicInteger()).incrementAndGet();
+            if (Thread.currentThread().getName().equals("read-ahead"))
+                readAheadReads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    @Before public void setUp() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        Database.reset();
+    }
+
+    /** Create a table clustered on its first field, and empty the buffer pool */
+    private InstrumentedHeapFile createFile(int rows) throws Exception {
+        return createFile(rows, 1000);
+    }
+
+    /**
+     * Create a table clustered on its first field, and replace the buffer
+     * pool with one of the specified size
+     */
+    private InstrumentedHeapFile createFile(int rows, int poolPages) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        new File(f.getAbsolutePath() + ".zonemap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        InstrumentedHeapFile hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(poolPages);
+        return hf;
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A scan reads its pages ahead, in the background, and reads no page
+     * more than once
+     */
+    @Test public void scanReadsAhead() throws Exception {
+        InstrumentedHeapFile hf = createFile(20000);
+        assertEquals(20000, count(hf.iterator(tid)));
+        assertEquals(hf.numPages(), hf.reads.size());
+        assertTrue(hf.readAheadReads.get() > 0);
+        for (AtomicInteger n : hf.reads.values())
+            assertEquals(1, n.get());
+    }
+
+    /**
+     * A scan of a table larger than the buffer pool, which has no second
+     * tier, still reads each page once: pages are not read ahead into a
+     * full pool, where they would be dropped
+     */
+    @Test public void smallPoolReadsOnce() throws Exception {
+        InstrumentedHeapFile hf = createFile(20000, 8);
+        assertTrue(hf.numPages() > 4 * 8);
+        assertEquals(20000, count(hf.iterator(tid)));
+        assertEquals(hf.numPages(), hf.reads.size());
+        assertTrue(hf.readAheadReads.get() > 0);
+        for (AtomicInteger n : hf.reads.values())
+            assertEquals(1, n.get());
+    }
+
+    /** A scan starts by reading a few pages ahead */
+    @Test public void windowStartsSmall() throws Exception {
+        InstrumentedHeapFile hf = createFile(20000);
+        assertTrue(hf.numPages() > 2 * HeapFile.MIN_READ_AHEAD);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        // wait for the pages read ahead
+        for (int p = 1; p <= HeapFile.MIN_READ_AHEAD; p++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        it.close();
+        for (PageId pid : hf.reads.keySet())
+            assertTrue(pid.pageNumber() <= HeapFile.MIN_READ_AHEAD);
+    }
+
+    /** Pages whose zones rule out a filtered scan are not read ahead */
+    @Test public void zonesLimitReadAhead() throws Exception {
+        InstrumentedHeapFile hf = createFile(20000);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)) };
+        assertEquals(100, count(hf.iterator(tid, preds, null)));
+
+        // the first scan recorded the zones
+        Database.resetBufferPool(1000);
+        hf.reads.clear();
+        assertEquals(100, count(hf.iterator(tid, preds, null)));
+        assertEquals(1, hf.reads.size());
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileReadAheadTest.class);
+    }
+}
@@ -121,6 +121,38 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator() with pushed-down predicates and projection
+     */
+    @Test
+    public void testIteratorPushdown() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 20, null, tuples);
+
+        // the file stores tuples in the order they were generated
+        Iterator<ArrayList<Integer>> expected = tuples.iterator();
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+            new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)) };
+        DbFileIterator it = f.iterator(tid, preds, new int[] { 2, 0 });
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> e = expected.next();
+            while (!(e.get(0) < 10 && e.get(1) != 3))
+                e = expected.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertNotNull(t.getRecordId());
+            assertEquals(new IntField(e.get(2)), t.getField(0));
+            assertEquals(new IntField(e.get(0)), t.getField(1));
+        }
+        it.close();
+        while (expected.hasNext()) {
+            ArrayList<Integer> e = expected.next();
+            assertFalse(e.get(0) < 10 && e.get(1) != 3);
+        }
+    }
+
     /**
      * JUnit suite target
      */
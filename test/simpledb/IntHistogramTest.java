@@ -0,0 +1,65 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IntHistogramTest {
+
+    /**
+     * Selectivities of a uniform histogram match the fraction of values
+     */
+    @Test public void uniform() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int v = 1; v <= 100; v++)
+            h.addValue(v);
+
+        assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, 42), 0.001);
+        assertEquals(0.99, h.estimateSelectivity(Op.NOT_EQUALS, 42), 0.001);
+        assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN, 50), 0.02);
+        assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 50), 0.02);
+        assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN, 26), 0.02);
+        assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 76), 0.02);
+    }
+
+    /**
+     * Values outside the range of the histogram
+     */
+    @Test public void outOfRange() {
+        IntHistogram h = new IntHistogram(10, 1, 10);
+        for (int v = 1; v <= 10; v++)
+            h.addValue(v);
+
+        assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, -5), 0.0);
+        assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 55), 0.0);
+        assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN, -5), 0.0);
+        assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 55), 0.0);
+        assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN, 55), 0.0);
+        assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, -5), 0.0);
+    }
+
+    /**
+     * Skewed data is reflected in the estimates
+     */
+    @Test public void skewed() {
+        IntHistogram h = new IntHistogram(10, 0, 99);
+        for (int i = 0; i < 90; i++)
+            h.addValue(5);
+        for (int v = 10; v < 20; v++)
+            h.addValue(v);
+
+        assertTrue(h.estimateSelectivity(Op.LESS_THAN, 10) > 0.8);
+        assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 20) < 0.01);
+        assertTrue(h.avgSelectivity() > h.estimateSelectivity(Op.EQUALS, 15));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHistogramTest.class);
+    }
+}
@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+    private static final int NUM_TABLES = 11;
+
+    private final HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    private Random rand;
+
+    /**
+     * Create tables of different sizes, some with a primary key
+     */
+    @Before public void setUp() throws Exception {
+        rand = new Random(26);
+        for (int i = 0; i < NUM_TABLES; i++) {
+            File f = SystemTestUtil.createRandomHeapFileUnopened(2, 50 + rand.nextInt(2000), 10000, null,
+                    new ArrayList<ArrayList<Integer>>());
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+            String name = "t" + i;
+            Database.getCatalog().addTable(hf, name, i % 3 == 0 ? "f0" : "");
+            stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        }
+    }
+
+    /**
+     * A query joining up to numJoins + 1 tables, connected by a random tree
+     * of joins plus joins between other pairs of tables already connected
+     *
+     * @param joins filled in with the joins of the query
+     */
+    private LogicalPlan randomQuery(int numJoins, HashMap<String, Double> selectivities,
+            Vector<LogicalJoinNode> joins) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        int tables = Math.min(numJoins + 1 - rand.nextInt(2), NUM_TABLES);
+        for (int i = 0; i < tables; i++) {
+            lp.addScan(Database.getCatalog().getTableId("t" + i), "t" + i);
+            selectivities.put("t" + i, 0.05 + 0.95 * rand.nextDouble());
+        }
+        // joins are identified by the tables they join, so join each pair once
+        HashSet<String> pairs = new HashSet<String>();
+        while (joins.size() < numJoins) {
+            int a = joins.size() + 1 < tables ? joins.size() + 1 : rand.nextInt(tables);
+            int b = rand.nextInt(Math.min(a, tables - 1) + 1);
+            if (a == b || !pairs.add(Math.min(a, b) + "," + Math.max(a, b)))
+                continue;
+            Predicate.Op op = rand.nextInt(4) == 0 ? Predicate.Op.GREATER_THAN : Predicate.Op.EQUALS;
+            joins.addElement(new LogicalJoinNode("t" + a, "t" + b, "f" + rand.nextInt(2), "f" + rand.nextInt(2), op));
+        }
+        return lp;
+    }
+
+    /** The estimated cost and cardinality of a plan, and whether it joins on a primary key */
+    private static class Estimate {
+        double cost;
+        int card;
+        boolean pkey;
+        Set<String> tables = new HashSet<String>();
+    }
+
+    private boolean isPkey(LogicalPlan lp, String alias, String field) {
+        return Database.getCatalog().getPrimaryKey(lp.getTableId(alias)).equals(field);
+    }
+
+    private double scanCost(LogicalPlan lp, String alias) {
+        return stats.get(Database.getCatalog().getTableName(lp.getTableId(alias))).estimateScanCost();
+    }
+
+    private int card(LogicalPlan lp, String alias, HashMap<String, Double> selectivities) {
+        return stats.get(Database.getCatalog().getTableName(lp.getTableId(alias)))
+            .estimateTableCardinality(selectivities.get(alias));
+    }
+
+    /**
+     * Estimate a left-deep plan extended with join j, as the join-at-a-time
+     * enumerator estimated it: the plan so far replaces j.t1 if it contains
+     * it, and j.t2 otherwise, and then j is performed either as it is or
+     * with its inner and outer swapped
+     *
+     * @return the estimate, or null if j does not join a table of the plan
+     */
+    private Estimate extend(JoinOptimizer jo, LogicalPlan lp, HashMap<String, Double> selectivities,
+            Estimate prev, LogicalJoinNode j, boolean swap) {
+        double t1cost, t2cost;
+        int t1card, t2card;
+        boolean leftPkey, rightPkey;
+        if (prev == null) {
+            t1cost = scanCost(lp, j.t1Alias);
+            t1card = card(lp, j.t1Alias, selectivities);
+            leftPkey = isPkey(lp, j.t1Alias, j.f1PureName);
+            t2cost = scanCost(lp, j.t2Alias);
+            t2card = card(lp, j.t2Alias, selectivities);
+            rightPkey = isPkey(lp, j.t2Alias, j.f2PureName);
+        } else if (prev.tables.contains(j.t1Alias)) {
+            t1cost = prev.cost;
+            t1card = prev.card;
+            leftPkey = prev.pkey;
+            t2cost = scanCost(lp, j.t2Alias);
+            t2card = card(lp, j.t2Alias, selectivities);
+            rightPkey = isPkey(lp, j.t2Alias, j.f2PureName);
+        } else if (prev.tables.contains(j.t2Alias)) {
+            t2cost = prev.cost;
+            t2card = prev.card;
+            rightPkey = prev.pkey;
+            t1cost = scanCost(lp, j.t1Alias);
+            t1card = card(lp, j.t1Alias, selectivities);
+            leftPkey = isPkey(lp, j.t1Alias, j.f1PureName);
+        } else {
+            return null;
+        }
+        Estimate e = new Estimate();
+        if (swap) {
+            LogicalJoinNode j2 = j.swapInnerOuter();
+            e.cost = jo.estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+            e.card = jo.estimateJoinCardinality(j2, t2card, t1card, rightPkey, leftPkey, stats);
+        } else {
+            e.cost = jo.estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+            e.card = jo.estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey, stats);
+        }
+        e.pkey = (prev != null && prev.pkey) || isPkey(lp, j.t1Alias, j.f1PureName)
+            || isPkey(lp, j.t2Alias, j.f2PureName);
+        if (prev != null)
+            e.tables.addAll(prev.tables);
+        e.tables.add(j.t1Alias);
+        e.tables.add(j.t2Alias);
+        return e;
+    }
+
+    /**
+     * @return the estimate of a left-deep order of joins, each as given or
+     *         swapped, or null if it has a cross product
+     */
+    private Estimate estimate(JoinOptimizer jo, LogicalPlan lp, HashMap<String, Double> selectivities,
+            Vector<LogicalJoinNode> joins, List<LogicalJoinNode> order) {
+        Estimate e = null;
+        for (LogicalJoinNode o : order) {
+            for (LogicalJoinNode j : joins) {
+                boolean same = j.f1QuantifiedName.equals(o.f1QuantifiedName) && j.f2QuantifiedName.equals(o.f2QuantifiedName);
+                boolean swapped = j.f1QuantifiedName.equals(o.f2QuantifiedName) && j.f2QuantifiedName.equals(o.f1QuantifiedName);
+                if (same || swapped) {
+                    e = extend(jo, lp, selectivities, e, j, !same);
+                    break;
+                }
+            }
+            if (e == null)
+                return null;
+        }
+        return e;
+    }
+
+    /**
+     * Order joins with the original enumerator, over sets of joins of
+     * increasing size, each mapped to its best plan by a HashMap.  The joins
+     * of a set are tried in list order, and only a cheaper plan replaces
+     * the best so far, so plans of equal cost are chosen as by the bitmask
+     * enumeration
+     */
+    @SuppressWarnings("unchecked")
+    private Vector<LogicalJoinNode> referenceOrder(JoinOptimizer jo, LogicalPlan lp,
+            Vector<LogicalJoinNode> joins, HashMap<String, Double> selectivities) {
+        HashMap<Set<LogicalJoinNode>, Vector<LogicalJoinNode>> best = new HashMap<Set<LogicalJoinNode>, Vector<LogicalJoinNode>>();
+        HashMap<Set<LogicalJoinNode>, Estimate> bestEstimates = new HashMap<Set<LogicalJoinNode>, Estimate>();
+        best.put(new HashSet<LogicalJoinNode>(), new Vector<LogicalJoinNode>());
+        for (int size = 1; size <= joins.size(); size++) {
+            for (Set<LogicalJoinNode> s : jo.enumerateSubsets(joins, size)) {
+                for (LogicalJoinNode j : joins) {
+                    if (!s.contains(j))
+                        continue;
+                    Set<LogicalJoinNode> rest = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) s).clone();
+                    rest.remove(j);
+                    Vector<LogicalJoinNode> prevOrder = best.get(rest);
+                    if (prevOrder == null)
+                        continue;
+                    Estimate prev = bestEstimates.get(rest);
+                    // either orientation, keeping the cheaper
+                    Estimate e1 = extend(jo, lp, selectivities, prev, j, false);
+                    Estimate e2 = extend(jo, lp, selectivities, prev, j, true);
+                    if (e1 == null)
+                        continue;
+                    boolean swap = e2.cost < e1.cost;
+                    Estimate e = swap ? e2 : e1;
+                    if (bestEstimates.containsKey(s) && bestEstimates.get(s).cost <= e.cost)
+                        continue;
+                    Vector<LogicalJoinNode> order = (Vector<LogicalJoinNode>) prevOrder.clone();
+                    order.addElement(swap ? j.swapInnerOuter() : j);
+                    best.put(s, order);
+                    bestEstimates.put(s, e);
+                }
+            }
+        }
+        return best.get(new HashSet<LogicalJoinNode>(joins));
+    }
+
+    /** @return the joins of a plan, as the optimizer was given them */
+    private static List<String> unordered(List<LogicalJoinNode> order) {
+        ArrayList<String> joins = new ArrayList<String>();
+        for (LogicalJoinNode j : order) {
+            String a = j.f1QuantifiedName, b = j.f2QuantifiedName;
+            joins.add(a.compareTo(b) < 0 ? a + "," + b : b + "," + a);
+        }
+        Collections.sort(joins);
+        return joins;
+    }
+
+    /**
+     * The bitmask enumeration finds plans of the same estimated cost as the
+     * original set-based enumeration for queries of 3 to 10 joins, in the
+     * same order
+     */
+    @Test public void matchesSetEnumeration() throws Exception {
+        for (int numJoins = 3; numJoins <= 10; numJoins++) {
+            for (int q = 0; q < 3; q++) {
+                HashMap<String, Double> selectivities = new HashMap<String, Double>();
+                Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+                LogicalPlan lp = randomQuery(numJoins, selectivities, joins);
+                JoinOptimizer jo = new JoinOptimizer(lp, joins);
+
+                Vector<LogicalJoinNode> order = jo.orderJoins(stats, selectivities, false);
+                Vector<LogicalJoinNode> expected = referenceOrder(jo, lp, joins, selectivities);
+                assertNotNull(expected);
+                assertEquals(joins.size(), order.size());
+                assertEquals(unordered(joins), unordered(order));
+
+                Estimate e = estimate(jo, lp, selectivities, joins, order);
+                assertNotNull("plan has a cross product: " + order, e);
+                double expectedCost = estimate(jo, lp, selectivities, joins, expected).cost;
+                assertEquals(expectedCost, e.cost, expectedCost * 1e-9);
+                assertEquals(expected.toString(), order.toString());
+            }
+        }
+    }
+
+    /**
+     * Above the exhaustive threshold, joins are ordered greedily into a plan
+     * that performs every join once, without cross products; the threshold
+     * of one optimizer does not affect others
+     */
+    @Test public void greedyOrdering() throws Exception {
+        for (int numJoins = 3; numJoins <= 14; numJoins++) {
+            HashMap<String, Double> selectivities = new HashMap<String, Double>();
+            Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+            LogicalPlan lp = randomQuery(numJoins, selectivities, joins);
+
+            JoinOptimizer greedy = new JoinOptimizer(lp, joins);
+            greedy.setMaxExhaustiveJoins(2);
+            Vector<LogicalJoinNode> order = greedy.orderJoins(stats, selectivities, false);
+            assertEquals(unordered(joins), unordered(order));
+            Estimate e = estimate(greedy, lp, selectivities, joins, order);
+            assertNotNull("plan has a cross product: " + order, e);
+
+            JoinOptimizer jo = new JoinOptimizer(lp, joins);
+            assertEquals(JoinOptimizer.DEFAULT_MAX_EXHAUSTIVE_JOINS, jo.getMaxExhaustiveJoins());
+            if (numJoins <= jo.getMaxExhaustiveJoins()) {
+                JoinOptimizer exhaustive = new JoinOptimizer(lp, joins);
+                exhaustive.setMaxExhaustiveJoins(numJoins);
+                assertEquals(exhaustive.orderJoins(stats, selectivities, false).toString(),
+                        jo.orderJoins(stats, selectivities, false).toString());
+            } else {
+                // ordered greedily by default
+                assertEquals(order.toString(), jo.orderJoins(stats, selectivities, false).toString());
+            }
+        }
+    }
+
+    /**
+     * Joins that do not connect all tables are left in their original order
+     */
+    @Test public void disconnectedJoins() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < 4; i++) {
+            lp.addScan(Database.getCatalog().getTableId("t" + i), "t" + i);
+            selectivities.put("t" + i, 1.0);
+        }
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.addElement(new LogicalJoinNode("t0", "t1", "f0", "f0", Predicate.Op.EQUALS));
+        joins.addElement(new LogicalJoinNode("t2", "t3", "f0", "f0", Predicate.Op.EQUALS));
+        assertEquals(joins, new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
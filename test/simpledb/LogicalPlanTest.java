@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private BTreeFile bf;
+
+    /**
+     * Set up a B+ tree table "bt" keyed on its first field, with statistics
+     */
+    @Before public void setUp() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 5000, 10000, null, tuples, 0);
+        bf = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(bf, "bt");
+        TableStats.setTableStats("bt", new TableStats(bf.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    private LogicalPlan scanWithFilter(String field, Predicate.Op op, String constant) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "bt");
+        lp.addFilter(field, op, constant);
+        lp.addProjectField("null.*", null);
+        return lp;
+    }
+
+    /** @return the operator at the bottom of a chain of single-child operators */
+    private DbIterator leaf(DbIterator it) {
+        while (it instanceof Operator && ((Operator) it).getChildren().length > 0)
+            it = ((Operator) it).getChildren()[0];
+        return it;
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int expected(int field, Predicate.Op op, int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(v)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * A selective predicate on the key uses the index
+     */
+    @Test public void selectiveKeyPredicateUsesIndex() throws Exception {
+        int v = tuples.get(7).get(0);
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            DbIterator plan = scanWithFilter("bt.f0", op, Integer.toString(v > 200 ? 200 : v))
+                .physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+            assertTrue(leaf(plan) instanceof BTreeScan);
+            assertEquals(expected(0, op, v > 200 ? 200 : v), count(plan));
+        }
+    }
+
+    /**
+     * Unselective predicates, and predicates on other fields, scan the table
+     */
+    @Test public void unselectivePredicateScans() throws Exception {
+        DbIterator plan = scanWithFilter("bt.f0", Predicate.Op.GREATER_THAN, "100")
+            .physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(expected(0, Predicate.Op.GREATER_THAN, 100), count(plan));
+
+        plan = scanWithFilter("bt.f1", Predicate.Op.EQUALS, "5")
+            .physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(expected(1, Predicate.Op.EQUALS, 5), count(plan));
+    }
+
+    /**
+     * A selective predicate on a field of a heap file with a secondary index
+     * uses the index; unselective ones scan the table
+     */
+    @Test public void secondaryIndexPredicate() throws Exception {
+        ArrayList<ArrayList<Integer>> heapTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 10000, null, heapTuples, "f");
+        Database.getCatalog().addTable(hf, "ht");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        Database.getCatalog().addIndex(hf.getId(), "f1", idx);
+        TableStats.setTableStats("ht", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        tuples = heapTuples;
+
+        int v = tuples.get(3).get(1);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ht");
+        lp.addFilter("ht.f1", Predicate.Op.EQUALS, Integer.toString(v));
+        lp.addFilter("ht.f0", Predicate.Op.GREATER_THAN, "-1");
+        lp.addProjectField("null.*", null);
+        DbIterator plan = lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof IndexScan);
+        assertEquals(expected(1, Predicate.Op.EQUALS, v), count(plan));
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ht");
+        lp.addFilter("ht.f1", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("null.*", null);
+        plan = lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(expected(1, Predicate.Op.GREATER_THAN, 100), count(plan));
+    }
+
+    /**
+     * A selective predicate on an indexed field is answered from a covering
+     * index alone when it stores every field the query reads or tests
+     */
+    @Test public void coveringIndexPredicate() throws Exception {
+        ArrayList<ArrayList<Integer>> heapTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 10000, null, heapTuples, "f");
+        Database.getCatalog().addTable(hf, "ct");
+        File idx = File.createTempFile("index", ".idx");
+        idx.deleteOnExit();
+        Database.getCatalog().addIndex(hf.getId(), "f1", new String[] { "f2" }, idx);
+        TableStats.setTableStats("ct", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        int v = heapTuples.get(3).get(1);
+        int n = 0;
+        for (ArrayList<Integer> t : heapTuples)
+            n += t.get(1) == v && t.get(2) >= 0 ? 1 : 0;
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ct");
+        lp.addFilter("ct.f1", Predicate.Op.EQUALS, Integer.toString(v));
+        lp.addFilter("ct.f2", Predicate.Op.GREATER_THAN_OR_EQ, "0");
+        lp.addProjectField("ct.f2", null);
+        DbIterator plan = lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof IndexOnlyScan);
+        assertEquals(n, count(plan));
+
+        // f0 is not in the index, so its tuples are fetched from the table
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "ct");
+        lp.addFilter("ct.f1", Predicate.Op.EQUALS, Integer.toString(v));
+        lp.addProjectField("ct.f0", null);
+        plan = lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof IndexScan);
+        tuples = heapTuples;
+        assertEquals(expected(1, Predicate.Op.EQUALS, v), count(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogicalPlanTest.class);
+    }
+}
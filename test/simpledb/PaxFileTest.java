@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private PaxFile pf;
+    private TransactionId tid;
+
+    /**
+     * Store a random table in a PAX file
+     */
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(6, 2000, 50, null, tuples);
+        TupleDesc td = Utility.getTupleDesc(6);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        byte[] page = new byte[BufferPool.getPageSize()];
+        for (long off = 0; off < raf.length(); off += page.length) {
+            raf.seek(off);
+            raf.readFully(page);
+            raf.seek(off);
+            raf.write(PaxPage.fromHeapPageData(page, td));
+        }
+        raf.close();
+        pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A full scan returns every tuple of the table
+     */
+    @Test public void scan() throws Exception {
+        assertEquals(Utility.getTupleDesc(6), pf.getTupleDesc());
+        SystemTestUtil.matchTuples(pf, tuples);
+    }
+
+    /**
+     * Pushed-down predicates and projections read the right fields
+     */
+    @Test public void pushdown() throws Exception {
+        Predicate[] preds = new Predicate[] {
+            new Predicate(4, Predicate.Op.LESS_THAN, new IntField(20)),
+            new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)) };
+        DbFileIterator it = pf.iterator(tid, preds, new int[] { 5, 1 });
+        it.open();
+        Iterator<ArrayList<Integer>> expected = tuples.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> e = expected.next();
+            while (!(e.get(4) < 20 && e.get(1) != 3))
+                e = expected.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals(new IntField(e.get(5)), t.getField(0));
+            assertEquals(new IntField(e.get(1)), t.getField(1));
+            assertNotNull(t.getRecordId());
+        }
+        it.close();
+        while (expected.hasNext()) {
+            ArrayList<Integer> e = expected.next();
+            assertFalse(e.get(4) < 20 && e.get(1) != 3);
+        }
+    }
+
+    /**
+     * Inserted tuples can be read back and deleted
+     */
+    @Test public void insertAndDelete() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 100, 101, 102, 103, 104, 105 });
+        Database.getBufferPool().insertTuple(tid, pf.getId(), t);
+        ArrayList<Integer> added = new ArrayList<Integer>();
+        for (int i = 100; i < 106; i++)
+            added.add(i);
+        tuples.add(added);
+        SystemTestUtil.matchTuples(pf, tid, tuples);
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        tuples.remove(tuples.size() - 1);
+        SystemTestUtil.matchTuples(pf, tid, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+    private ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+
+    @Before public void setUp() throws Exception {
+        addTable("t1", t1Tuples);
+        addTable("t2", t2Tuples);
+    }
+
+    private void addTable(String name, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 200, 10, null, tuples);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    private int count(Query q) throws Exception {
+        int n = 0;
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        q.close();
+        return n;
+    }
+
+    /**
+     * A point lookup can be run repeatedly with different parameters
+     */
+    @Test public void pointLookup() throws Exception {
+        PreparedQuery pq = PreparedQuery.prepare("SELECT t1.f0 FROM t1 WHERE t1.f1 = ?;");
+        assertEquals(1, pq.numParameters());
+        assertEquals(Type.INT_TYPE, pq.getParameterType(0));
+
+        for (int v = 0; v < 10; v++) {
+            int expected = 0;
+            for (ArrayList<Integer> t : t1Tuples) {
+                if (t.get(1) == v)
+                    expected++;
+            }
+            pq.bind(0, new IntField(v));
+            assertEquals(expected, count(pq.execute(new TransactionId())));
+        }
+    }
+
+    /**
+     * Parameters and literals can be mixed in a join query
+     */
+    @Test public void join() throws Exception {
+        PreparedQuery pq = PreparedQuery.prepare(
+                "SELECT * FROM t1, t2 WHERE t1.f0 = t2.f0 AND t1.f1 < ? AND t2.f1 > 4 AND t2.f0 >= ?;");
+        assertEquals(2, pq.numParameters());
+        pq.bind(0, new IntField(3));
+        pq.bind(1, new IntField(2));
+
+        int expected = 0;
+        for (ArrayList<Integer> a : t1Tuples) {
+            for (ArrayList<Integer> b : t2Tuples) {
+                if (a.get(0).equals(b.get(0)) && a.get(1) < 3 && b.get(1) > 4 && b.get(0) >= 2)
+                    expected++;
+            }
+        }
+        assertEquals(expected, count(pq.execute(new TransactionId())));
+    }
+
+    /**
+     * The access path chosen for the first execution is reused by later
+     * ones, even where another would have been chosen for their parameters
+     */
+    @Test public void reusesAccessPath() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 2000, 1000, null, tuples, 1);
+        BTreeFile bf = new BTreeFile(f.getFile(), 1, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(bf, "t3");
+        TableStats.setTableStats("t3", new TableStats(bf.getId(), TableStats.IOCOSTPERPAGE));
+
+        PreparedQuery pq = PreparedQuery.prepare("SELECT * FROM t3 WHERE t3.f1 > ?;");
+        for (int v : new int[] { 990, 0 }) {
+            int expected = 0;
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(1) > v)
+                    expected++;
+            }
+            pq.bind(0, new IntField(v));
+            Query q = pq.execute(new TransactionId());
+            DbIterator scan = ((Operator) q.getPhysicalPlan()).getChildren()[0];
+            assertTrue(scan instanceof BTreeScan);
+            assertEquals(expected, count(q));
+        }
+
+        // a query planned afresh scans the table for the unselective value
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), "SELECT * FROM t3 WHERE t3.f1 > 0;");
+        DbIterator plan = lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof BTreeScan);
+    }
+
+    /**
+     * Parameters must be bound, with values of the right type
+     */
+    @Test public void badBindings() throws Exception {
+        PreparedQuery pq = PreparedQuery.prepare("SELECT t1.f0 FROM t1 WHERE t1.f1 = ?;");
+        try {
+            pq.execute(new TransactionId());
+            fail("expected DbException for unbound parameter");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            pq.bind(0, new StringField("x", Type.STRING_LEN));
+            fail("expected DbException for wrong parameter type");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Parameters are told apart from literals of any value, and are only
+     * accepted as the constant of a filter of a prepared query
+     */
+    @Test public void parametersNotLiterals() throws Exception {
+        StringBuilder sql = new StringBuilder("SELECT t1.f0 FROM t1 WHERE t1.f1 = ?");
+        for (long v = 1000000000L; v <= Integer.MAX_VALUE; v += 100000000L)
+            sql.append(" AND t1.f0 <> ").append(v);
+        PreparedQuery pq = PreparedQuery.prepare(sql + ";");
+        assertEquals(1, pq.numParameters());
+        int expected = 0;
+        for (ArrayList<Integer> t : t1Tuples) {
+            if (t.get(1) == 3)
+                expected++;
+        }
+        pq.bind(0, new IntField(3));
+        assertEquals(expected, count(pq.execute(new TransactionId())));
+
+        try {
+            PreparedQuery.prepare("SELECT t1.f0 FROM t1 WHERE ? = 3;");
+            fail("expected ParsingException for a parameter not compared against a field");
+        } catch (ParsingException e) {
+            // expected
+        }
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), "SELECT t1.f0 FROM t1 WHERE t1.f1 = ?;");
+        try {
+            lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+            fail("expected ParsingException for an unbound parameter");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedQueryTest.class);
+    }
+}
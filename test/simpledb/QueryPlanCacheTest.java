@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+    private static final String JOIN_QUERY =
+        "SELECT * FROM t1, t2 WHERE t1.f0 = t2.f0 AND t1.f1 > %d;";
+
+    private QueryPlanCache cache;
+
+    /**
+     * Set up two small tables, t1 and t2, with statistics
+     */
+    @Before public void setUp() throws Exception {
+        for (String name : new String[] { "t1", "t2" }) {
+            File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 10, null, null);
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+            Database.getCatalog().addTable(hf, name);
+            TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        }
+        cache = Database.getQueryPlanCache();
+        cache.clear();
+    }
+
+    /**
+     * Unit test for QueryPlanCache.normalize()
+     */
+    @Test public void normalize() {
+        ArrayList<String> literals = new ArrayList<String>();
+        String key = QueryPlanCache.normalize(
+                "SELECT t1.f0  FROM t1\n WHERE t1.f1 = 42 AND t1.f0 > 'abc';", literals);
+        assertEquals("SELECT t1.f0 FROM t1 WHERE t1.f1 = ? AND t1.f0 > '?';", key);
+        assertEquals(Arrays.asList("42", "abc"), literals);
+
+        literals.clear();
+        assertEquals(key, QueryPlanCache.normalize(
+                "SELECT t1.f0 FROM t1 WHERE t1.f1 = 7 AND t1.f0 > 'x';", literals));
+        assertEquals(Arrays.asList("7", "x"), literals);
+    }
+
+    /**
+     * Queries differing only in their literals share a cached plan
+     */
+    @Test public void reusePlan() throws Exception {
+        Parser p = new Parser();
+        p.processNextStatement(String.format(JOIN_QUERY, 3));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHits());
+
+        p.processNextStatement(String.format(JOIN_QUERY, 5));
+        assertEquals(1, cache.getHits());
+
+        LogicalPlan lp = cache.getPlan(String.format(JOIN_QUERY, 9));
+        assertNotNull(lp);
+        assertArrayEquals(new String[] { "9" }, lp.getFilterConstants());
+        assertNotNull(lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false));
+    }
+
+    /**
+     * New statistics for a table drop the plans reading it
+     */
+    @Test public void invalidateOnStats() throws Exception {
+        new Parser().processNextStatement(String.format(JOIN_QUERY, 3));
+        assertEquals(1, cache.size());
+        int id = Database.getCatalog().getTableId("t2");
+        TableStats.setTableStats("t2", new TableStats(id, TableStats.IOCOSTPERPAGE));
+        assertEquals(0, cache.size());
+        assertNull(cache.getPlan(String.format(JOIN_QUERY, 3)));
+    }
+
+    /**
+     * The least recently used plan is evicted when the cache is full
+     */
+    @Test public void evictLeastRecentlyUsed() throws Exception {
+        cache.setCapacity(1);
+        Parser p = new Parser();
+        p.processNextStatement(String.format(JOIN_QUERY, 3));
+        p.processNextStatement("SELECT t1.f0 FROM t1 WHERE t1.f1 = 2;");
+        assertEquals(1, cache.size());
+        assertNull(cache.getPlan(String.format(JOIN_QUERY, 3)));
+        assertNotNull(cache.getPlan("SELECT t1.f0 FROM t1 WHERE t1.f1 = 4;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+    }
+}
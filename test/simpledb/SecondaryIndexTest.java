@@ -0,0 +1,349 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static File indexFile() throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** @return the number of tuples returned by it, checking that they satisfy ipred on field */
+    private int count(DbFileIterator it, int field, IndexPredicate ipred) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(t.getField(field).compare(ipred.getOp(), ipred.getField()));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** @return the number of tuples of a table satisfying ipred on field, by a full scan */
+    private int expected(HeapFile hf, int field, IndexPredicate ipred) throws Exception {
+        int n = 0;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            if (it.next().getField(field).compare(ipred.getOp(), ipred.getField()))
+                n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Indexes on two fields of the same table are built from its tuples and
+     * kept up to date as tuples are inserted and deleted
+     */
+    @Test public void maintainedOnInsertAndDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples, "f");
+        SecondaryIndex idx0 = Database.getCatalog().addIndex(hf.getId(), "f0", indexFile());
+        SecondaryIndex idx1 = Database.getCatalog().addIndex(hf.getId(), "f1", indexFile());
+        assertEquals(2, Database.getCatalog().getIndexes(hf.getId()).size());
+        assertSame(idx1, Database.getCatalog().getIndex(hf.getId(), 1));
+
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(1000 + i % 10));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getInt(1) % 3 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        for (int v : new int[] { 1003, tuples.get(0).get(0), 250 }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+                IndexPredicate ipred = new IndexPredicate(op, new IntField(v));
+                assertEquals(expected(hf, 0, ipred), count(idx0.iterator(tid, ipred), 0, ipred));
+                assertEquals(expected(hf, 1, ipred), count(idx1.iterator(tid, ipred), 1, ipred));
+            }
+        }
+        BTreeChecker.checkRep(idx1.getFile(), tid, new java.util.HashMap<PageId, Page>(), false);
+    }
+
+    /**
+     * A covering index stores its included fields in its entries, keeps them
+     * up to date, and answers IndexOnlyScans from them alone
+     */
+    @Test public void coveringIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 3000, 500, null, tuples, "f");
+        SecondaryIndex idx = Database.getCatalog().addIndex(hf.getId(), "f1", new String[] { "f2" }, indexFile());
+        assertEquals(0, idx.entryField(1));
+        assertEquals(1, idx.entryField(2));
+        assertEquals(-1, idx.entryField(0));
+        assertTrue(idx.covers(new int[] { 2, 1 }));
+        assertFalse(idx.covers(new int[] { 0, 1 }));
+
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(250));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(250));
+        Predicate pred = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(50));
+        int expected = 0;
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getInt(1) == 250 && t.getInt(2) < 50)
+                expected++;
+        }
+        it.close();
+
+        IndexOnlyScan scan = new IndexOnlyScan(tid, idx, "t", ipred, new Predicate[] { pred }, new int[] { 2 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("t.f2", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertTrue(t.getInt(0) < 50);
+            // the RecordId is that of the tuple in the table
+            assertEquals(t.getInt(0), hf.fetchTuple(tid, t.getRecordId()).getInt(2));
+            n++;
+        }
+        scan.close();
+        assertEquals(expected, n);
+
+        try {
+            new IndexOnlyScan(tid, idx, "t", ipred, null, new int[] { 0 });
+            fail("field 0 is not stored in the index");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Create a table whose value of f1 is 5 for every 40th tuple.  Wide
+     * tables make selective filters on f1 cheaper through its index.
+     */
+    private HeapFile createTable(int rows, int columns) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int j = 0; j < columns; j++)
+                t.add(j != 1 ? i : i % 40 == 0 ? 5 : 100 + i);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("wide", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        return Utility.openHeapFile(columns, "f", f);
+    }
+
+    /** @return the plan of "DELETE FROM t WHERE t.f1 = 5", built as the parser does */
+    private Delete planDelete(HeapFile hf) throws Exception {
+        String name = Database.getCatalog().getTableName(hf.getId());
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), name);
+        lp.addFilter(name + ".f1", Predicate.Op.EQUALS, "5");
+        lp.addProjectField("null.*", null);
+        return new Delete(tid, lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+    }
+
+    /** @return the operator at the bottom of a chain of single-child operators */
+    private static DbIterator leaf(DbIterator it) {
+        while (it instanceof Operator && ((Operator) it).getChildren().length > 0)
+            it = ((Operator) it).getChildren()[0];
+        return it;
+    }
+
+    /** @return the number of tuples deleted by a Delete */
+    private static int run(Delete delete) throws Exception {
+        delete.open();
+        int n = delete.next().getInt(0);
+        delete.close();
+        return n;
+    }
+
+    /**
+     * Entries with the same value are ordered by the place of their tuple,
+     * and deleting a tuple, in any order, removes exactly its entry
+     */
+    @Test public void entriesKeyedByRecordId() throws Exception {
+        HeapFile hf = createTable(20000, 3);
+        SecondaryIndex idx = Database.getCatalog().addIndex(hf.getId(), "f1", indexFile());
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(5));
+        ArrayList<Tuple> matching = new ArrayList<Tuple>();
+        DbFileIterator it = idx.iterator(tid, ipred);
+        it.open();
+        while (it.hasNext())
+            matching.add(it.next());
+        it.close();
+        assertEquals(500, matching.size());
+
+        java.util.Collections.shuffle(matching, new java.util.Random(45));
+        java.util.TreeSet<Integer> remaining = new java.util.TreeSet<Integer>();
+        for (int i = 0; i < matching.size(); i++) {
+            Tuple t = matching.get(i);
+            if (i % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+            else
+                remaining.add(t.getInt(0));
+        }
+
+        DbFileIterator entries = idx.entryIterator(tid, ipred);
+        entries.open();
+        int lastPage = -1, lastSlot = -1, n = 0;
+        while (entries.hasNext()) {
+            Tuple e = entries.next();
+            int page = e.getInt(1), slot = e.getInt(2);
+            assertTrue(page > lastPage || page == lastPage && slot > lastSlot);
+            lastPage = page;
+            lastSlot = slot;
+            n++;
+        }
+        entries.close();
+        assertEquals(remaining.size(), n);
+        assertEquals(remaining.size(), count(idx.iterator(tid, ipred), 1, ipred));
+        BTreeChecker.checkRep(idx.getFile(), tid, new java.util.HashMap<PageId, Page>(), false);
+    }
+
+    /**
+     * Entries are read from the index as the iterator goes, not when it is
+     * opened, so it returns an entry added after its current one
+     */
+    @Test public void entriesStreamed() throws Exception {
+        HeapFile hf = createTable(20000, 3);
+        SecondaryIndex idx = Database.getCatalog().addIndex(hf.getId(), "f1", indexFile());
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(5));
+        DbFileIterator it = idx.entryIterator(tid, ipred);
+        it.open();
+        assertTrue(it.hasNext());
+        it.next();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, 5, -1 }));
+        int n = 1;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(501, n);
+    }
+
+    /**
+     * A DELETE planned through an IndexScan deletes every matching tuple,
+     * although deleting their entries moves others between index pages
+     */
+    @Test public void deleteThroughIndexScan() throws Exception {
+        HeapFile hf = createTable(20000, 40);
+        SecondaryIndex idx = Database.getCatalog().addIndex(hf.getId(), "f1", indexFile());
+        Delete delete = planDelete(hf);
+        assertTrue(leaf(delete) instanceof IndexScan);
+
+        assertEquals(500, run(delete));
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(5));
+        assertEquals(0, expected(hf, 1, ipred));
+        assertEquals(0, count(idx.iterator(tid, ipred), 1, ipred));
+        BTreeChecker.checkRep(idx.getFile(), tid, new java.util.HashMap<PageId, Page>(), false);
+    }
+
+    /**
+     * A DELETE planned through an IndexOnlyScan of a covering index deletes
+     * every matching tuple
+     */
+    @Test public void deleteThroughIndexOnlyScan() throws Exception {
+        HeapFile hf = createTable(20000, 3);
+        SecondaryIndex idx = Database.getCatalog().addIndex(hf.getId(), "f1", new String[] { "f0", "f2" }, indexFile());
+        Delete delete = planDelete(hf);
+        assertTrue(leaf(delete) instanceof IndexOnlyScan);
+
+        assertEquals(500, run(delete));
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(5));
+        assertEquals(0, expected(hf, 1, ipred));
+        assertEquals(0, count(idx.iterator(tid, ipred), 1, ipred));
+        BTreeChecker.checkRep(idx.getFile(), tid, new java.util.HashMap<PageId, Page>(), false);
+    }
+
+    /**
+     * Fields annotated with "index" in a catalog file get an index, which is
+     * stored next to the table and used by IndexScans
+     */
+    @Test public void declaredInSchema() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(catalog);
+        w.write("people (id int pk, age int index include id, name string index)\n");
+        w.close();
+        new File(dir, "people.dat").createNewFile();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("people");
+        assertEquals(2, Database.getCatalog().getIndexes(tableId).size());
+        assertTrue(new File(dir, "people.name.idx").exists());
+        assertArrayEquals(new int[] { 0 }, Database.getCatalog().getIndex(tableId, 1).getIncludedFields());
+        assertArrayEquals(new int[0], Database.getCatalog().getIndex(tableId, 2).getIncludedFields());
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 50));
+            t.setField(2, new StringField("person" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new StringField("person123", Type.STRING_LEN));
+        IndexScan scan = new IndexScan(tid, Database.getCatalog().getIndex(tableId, 2), "p", ipred);
+        assertEquals("p.name", scan.getTupleDesc().getFieldName(2));
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(123, scan.next().getInt(0));
+        assertFalse(scan.hasNext());
+        scan.close();
+
+        ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(7));
+        assertEquals(10, count(Database.getCatalog().getIndex(tableId, 1).iterator(tid, ipred), 1, ipred));
+        for (File f : dir.listFiles())
+            f.delete();
+    }
+
+    /** JUnit suite target */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
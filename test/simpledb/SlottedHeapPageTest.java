@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        StringBuilder s = new StringBuilder();
+        for (int j = 0; j < i % 10; j++)
+            s.append((char) ('a' + j));
+        t.setField(1, new VarcharField(s.toString(), Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings pack more tuples into a page than fixed-length slots, and
+     * survive writing and rereading the page
+     */
+    @Test public void insertAndReread() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(page.getNumEmptySlots() > 0);
+        int n = 0;
+        while (page.hasRoomFor(tuple(n))) {
+            page.insertTuple(tuple(n));
+            n++;
+        }
+        assertTrue(n > BufferPool.getPageSize() / td.getSize());
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(tuple(n));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            assertEquals(i, t.getRecordId().tupleno());
+            assertEquals(i, t.getInt(0));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused, and deleted tuples stay deleted after the
+     * page is written
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+        page = new HeapPage(pid, page.getPageData());
+
+        Tuple victim = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+            Tuple t = it.next();
+            if (t.getInt(0) == 3)
+                victim = t;
+        }
+        page.deleteTuple(victim);
+        assertFalse(page.isSlotUsed(3));
+
+        Tuple added = tuple(19);
+        page.insertTuple(added);
+        assertEquals(3, added.getRecordId().tupleno());
+        page.deleteTuple(added);
+
+        page = new HeapPage(pid, page.getPageData());
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+            assertTrue(it.next().getInt(0) != 3);
+            count++;
+        }
+        assertEquals(9, count);
+    }
+
+    /**
+     * HeapFileEncoder writes VARCHAR tables as slotted pages
+     */
+    @Test public void encoder() throws Exception {
+        File in = File.createTempFile("varchar", ".txt");
+        in.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        ArrayList<Tuple> expected = new ArrayList<Tuple>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = tuple(i);
+            expected.add(t);
+            bw.write(i + "," + ((StringField) t.getField(1)).getValue() + "\n");
+        }
+        bw.close();
+
+        File fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(in, fixed, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File slotted = File.createTempFile("slotted", ".dat");
+        slotted.deleteOnExit();
+        HeapFileEncoder.convert(in, slotted, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        assertTrue(slotted.length() < fixed.length());
+
+        HeapFile hf = new HeapFile(slotted, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (Tuple t : expected)
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
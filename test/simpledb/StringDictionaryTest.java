@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+    private static final String[] STATUS = { "open", "closed", "pending" };
+
+    private File fixed, encoded;
+    private HeapFile hf;
+    private TupleDesc td;
+
+    /**
+     * Encode the same table with plain and dictionary-encoded strings
+     */
+    @Before public void setUp() throws Exception {
+        File in = File.createTempFile("status", ".txt");
+        in.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < 600; i++)
+            bw.write(i + "," + STATUS[i % STATUS.length] + "\n");
+        bw.close();
+
+        fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(in, fixed, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        encoded = File.createTempFile("encoded", ".dat");
+        encoded.deleteOnExit();
+        HeapFileEncoder.convert(in, encoded, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.DICT_TYPE });
+
+        StringDictionary dict = StringDictionary.forColumn(encoded, 1);
+        new File(encoded.getAbsolutePath() + ".dict1").deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.DICT_TYPE }, new String[] { "id", "status" },
+                new StringDictionary[] { null, dict });
+        hf = new HeapFile(encoded, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Pages store codes, which decode to the original strings
+     */
+    @Test public void encodeAndScan() throws Exception {
+        assertTrue(encoded.length() * 5 < fixed.length());
+        StringDictionary dict = td.getDictionary(1);
+        assertEquals(STATUS.length, dict.size());
+        assertEquals(-1, dict.lookup("missing"));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = it.next();
+            assertEquals(Type.DICT_TYPE, t.getField(1).getType());
+            assertEquals(new StringField(STATUS[i % STATUS.length], Type.STRING_LEN), t.getField(1));
+            assertEquals(STATUS[i % STATUS.length].hashCode(), t.getField(1).hashCode());
+            assertFalse(t.getField(1).equals(STATUS[i % STATUS.length]));
+            assertFalse(t.getField(1).equals(new IntField(i)));
+            assertEquals(dict.lookup(STATUS[i % STATUS.length]), t.getCode(1, dict));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Values added to a dictionary are appended to its file with their count
+     */
+    @Test public void valuesPersisted() throws Exception {
+        File data = File.createTempFile("dict", ".dat");
+        data.deleteOnExit();
+        File f = new File(data.getAbsolutePath() + ".dict0");
+        f.deleteOnExit();
+        StringDictionary dict = StringDictionary.forColumn(data, 0);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i / 2, dict.encode("value" + i / 2));
+
+        DataInputStream dis = new DataInputStream(new FileInputStream(f));
+        assertEquals(500, dis.readInt());
+        for (int i = 0; i < 500; i++)
+            assertEquals("value" + i, dis.readUTF());
+        assertEquals(-1, dis.read());
+        dis.close();
+    }
+
+    /**
+     * A dictionary is shared while its table is in the catalog, and read
+     * again once the table is dropped or the dictionary file deleted
+     */
+    @Test public void evictedWithTable() throws Exception {
+        StringDictionary dict = StringDictionary.forColumn(encoded, 1);
+        assertSame(td.getDictionary(1), dict);
+        Database.getCatalog().addTable(new HeapFile(encoded, td), SystemTestUtil.getUUID());
+        assertSame(dict, StringDictionary.forColumn(encoded, 1));
+
+        Database.getCatalog().clear();
+        StringDictionary reread = StringDictionary.forColumn(encoded, 1);
+        assertNotSame(dict, reread);
+        assertEquals(dict.size(), reread.size());
+        assertEquals(dict.lookup("open"), reread.lookup("open"));
+
+        File data = File.createTempFile("dict", ".dat");
+        data.deleteOnExit();
+        File f = new File(data.getAbsolutePath() + ".dict0");
+        f.deleteOnExit();
+        StringDictionary first = StringDictionary.forColumn(data, 0);
+        assertEquals(0, first.encode("a"));
+        assertEquals(1, first.encode("b"));
+        first.close();
+        assertTrue(f.delete());
+        StringDictionary second = StringDictionary.forColumn(data, 0);
+        assertEquals(0, second.size());
+        assertEquals(0, second.encode("b"));
+    }
+
+    /**
+     * Equality predicates on codes agree with comparing the strings
+     */
+    @Test public void predicates() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String s : new String[] { "open", "pending", "missing", "pen" }) {
+                Predicate p = new Predicate(1, op, new StringField(s, Type.STRING_LEN));
+                CompiledPredicate c = CompiledPredicate.compile(p, td);
+                TransactionId tid = new TransactionId();
+                DbFileIterator it = hf.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    boolean expected = new StringField(((StringField) t.getField(1)).getValue(), Type.STRING_LEN)
+                            .compare(op, p.getOperand());
+                    assertEquals(p + " on " + t, expected, c.matches(t));
+                }
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /**
+     * Inserting a new value extends the dictionary, which is persisted
+     */
+    @Test public void insertNewValue() throws Exception {
+        StringDictionary dict = td.getDictionary(1);
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1000));
+        t.setField(1, new StringField("reopened", Type.STRING_LEN));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        // the value is encoded when the page is written
+        assertEquals(-1, dict.lookup("reopened"));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        int code = dict.lookup("reopened");
+        assertEquals(STATUS.length, code);
+        assertEquals(code + 1, dict.size());
+
+        CompiledJoinPredicate join = CompiledJoinPredicate.compile(
+                new JoinPredicate(1, Predicate.Op.EQUALS, 1), td, td);
+        Tuple other = new Tuple(td);
+        other.setField(0, new IntField(0));
+        other.setField(1, dict.field(code));
+        assertTrue(join.matches(t, other));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
@@ -167,6 +167,26 @@ public class TupleDescTest extends SimpleDbTestBase {
         assertFalse(intString.equals(singleInt2));
     }
 
+    /**
+     * Unit test for TupleDesc.getOffset()
+     */
+    @Test public void getOffset() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(0, td.getOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getOffset(2));
+    }
+
+    /**
+     * Duplicate names map to the first field, and equal TupleDescs hash alike
+     */
+    @Test public void duplicateNamesAndHashCode() {
+        TupleDesc td = TupleDesc.merge(Utility.getTupleDesc(2, "f"), Utility.getTupleDesc(3, "f"));
+        assertEquals(1, td.fieldNameToIndex("f1"));
+        assertEquals(4, td.fieldNameToIndex("f2"));
+        assertEquals(Utility.getTupleDesc(5).hashCode(), td.hashCode());
+    }
+
     /**
      * JUnit suite target
      */
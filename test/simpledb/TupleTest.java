@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +60,58 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for tuples backed by a serialized buffer
+     */
+    @Test public void bufferBacked() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(99);   // padding before the tuple
+        new IntField(-7).serialize(dos);
+        new StringField("hello", Type.STRING_LEN).serialize(dos);
+        new IntField(42).serialize(dos);
+
+        Tuple tup = new Tuple(td, baos.toByteArray(), 4);
+        assertEquals(new IntField(-7), tup.getField(0));
+        assertEquals(new StringField("hello", Type.STRING_LEN), tup.getField(1));
+        assertEquals(42, tup.getInt(2));
+
+        tup.setField(2, new IntField(3));
+        assertEquals(new IntField(-7), tup.getField(0));
+        assertEquals(3, tup.getInt(2));
+    }
+
+    /**
+     * Unit test for Tuple.project() and Tuple.concat()
+     */
+    @Test public void views() {
+        Tuple t1 = new Tuple(Utility.getTupleDesc(2));
+        t1.setField(0, new IntField(1));
+        t1.setField(1, new IntField(2));
+        t1.setRecordId(new RecordId(new HeapPageId(0, 0), 3));
+        Tuple t2 = new Tuple(Utility.getTupleDesc(3));
+        for (int i = 0; i < 3; i++)
+            t2.setField(i, new IntField(10 + i));
+
+        Tuple joined = Tuple.concat(Utility.getTupleDesc(5), t1, t2);
+        assertEquals("1 2 10 11 12", joined.toString());
+        assertEquals(11, joined.getInt(3));
+
+        Tuple projected = Tuple.project(Utility.getTupleDesc(2), t1, new int[] { 1, 0 });
+        assertEquals(new IntField(2), projected.getField(0));
+        assertEquals(1, projected.getInt(1));
+        assertEquals(t1.getRecordId(), projected.getRecordId());
+
+        // changing a view does not change the tuples behind it
+        joined.setField(0, new IntField(5));
+        projected.setField(0, new IntField(6));
+        assertEquals("5 2 10 11 12", joined.toString());
+        assertEquals(new IntField(6), projected.getField(0));
+        assertEquals(new IntField(1), t1.getField(0));
+        assertEquals(new IntField(2), t1.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
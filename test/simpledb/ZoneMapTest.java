@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private File f;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Create a table clustered on its first field
+     */
+    @Before public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        new File(f.getAbsolutePath() + ".zonemap").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int count(Predicate[] preds) throws Exception {
+        DbFileIterator it = hf.iterator(tid, preds, null);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A filtered scan records zones, which rule out pages for later scans
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)) };
+        ZoneMap zones = hf.getZoneMap();
+        assertFalse(zones.isKnown(0));
+        assertEquals(100, count(preds));
+        assertTrue(hf.numPages() > 2);
+        assertTrue(zones.mayMatch(0, preds));
+        for (int p = 1; p < hf.numPages(); p++) {
+            assertTrue(zones.isKnown(p));
+            assertFalse(zones.mayMatch(p, preds));
+        }
+        assertEquals(100, count(preds));
+
+        Predicate[] range = { new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1500)),
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3)) };
+        int expected = 0;
+        for (int i = 1500; i < 2000; i++)
+            expected += i % 7 == 3 ? 1 : 0;
+        assertEquals(expected, count(range));
+        assertFalse(zones.mayMatch(0, range));
+
+        // zones are persisted
+        ZoneMap reread = new ZoneMap(f, hf.getTupleDesc());
+        assertFalse(reread.mayMatch(1, preds));
+    }
+
+    /**
+     * Inserted tuples widen the zone of their page
+     */
+    @Test public void insert() throws Exception {
+        Predicate[] preds = { new Predicate(0, Predicate.Op.EQUALS, new IntField(-1)) };
+        assertEquals(0, count(preds));
+        Tuple t = Utility.getHeapTuple(new int[] { -1, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(preds));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, count(preds));
+    }
+
+    /**
+     * A page being written is persisted as unknown first, so a crash before
+     * its zone is recorded again leaves it unknown, and the zones of a heap
+     * file modified after them are dropped
+     */
+    @Test public void staleZonesDropped() throws Exception {
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)) };
+        assertEquals(100, count(preds));
+        ZoneMap zones = hf.getZoneMap();
+        zones.invalidate(1);
+        assertFalse(zones.isKnown(1));
+        assertTrue(zones.mayMatch(1, preds));
+        ZoneMap reread = new ZoneMap(f, hf.getTupleDesc());
+        assertFalse(reread.isKnown(1));
+        assertTrue(reread.isKnown(2));
+
+        // a write of the page records its zone again
+        hf.writePage(Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY));
+        assertTrue(zones.isKnown(1));
+        assertTrue(new ZoneMap(f, hf.getTupleDesc()).isKnown(1));
+
+        File zoneFile = new File(f.getAbsolutePath() + ".zonemap");
+        assertTrue(f.setLastModified(zoneFile.lastModified() + 10000));
+        reread = new ZoneMap(f, hf.getTupleDesc());
+        for (int p = 0; p < hf.numPages(); p++)
+            assertFalse(reread.isKnown(p));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
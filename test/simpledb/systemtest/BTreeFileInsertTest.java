@@ -278,6 +278,155 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		
 	}
 
+	/**
+	 * Threads inserting into and deleting from the same B+ tree concurrently
+	 * leave it with exactly the tuples they did not delete, in sorted order
+	 * and with a valid structure
+	 */
+	@Test
+	public void concurrentInsertsAndDeletes() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		final BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		Database.resetBufferPool(500);
+
+		final int threads = 8, perThread = 2000;
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		Thread[] workers = new Thread[threads];
+		for (int w = 0; w < threads; w++) {
+			final int seed = w;
+			workers[w] = new Thread() {
+				public void run() {
+					try {
+						Random rand = new Random(seed);
+						TransactionId wtid = new TransactionId();
+						ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+						for (int i = 0; i < perThread; i++) {
+							Tuple t = BTreeUtility.getBTreeTuple(rand.nextInt(BTreeUtility.MAX_RAND_VALUE), 2);
+							Database.getBufferPool().insertTuple(wtid, empty.getId(), t);
+							inserted.add(t);
+						}
+						for (int i = 0; i < perThread; i += 2)
+							Database.getBufferPool().deleteTuple(wtid, inserted.get(i));
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			};
+			workers[w].start();
+		}
+		for (Thread w : workers)
+			w.join();
+		assertEquals(Collections.<Exception>emptyList(), errors);
+
+		BTreeChecker.checkRep(empty, tid, new HashMap<PageId, Page>(), false);
+		DbFileIterator fit = empty.iterator(tid);
+		int count = 0;
+		Tuple prev = null;
+		fit.open();
+		while(fit.hasNext()) {
+			Tuple tup = fit.next();
+			if(prev != null)
+				assertTrue(tup.getField(0).compare(Op.GREATER_THAN_OR_EQ, prev.getField(0)));
+			prev = tup;
+			count++;
+		}
+		fit.close();
+		assertEquals(threads * perThread / 2, count);
+	}
+
+	/**
+	 * Check that a scan of the B+ tree returns, in key order, each of the
+	 * stable tuples with key greater than min exactly once
+	 */
+	private static void checkScan(DbFileIterator it, int stable, int min) throws Exception {
+		boolean[] seen = new boolean[stable];
+		int count = 0;
+		int prev = Integer.MIN_VALUE;
+		it.open();
+		while (it.hasNext()) {
+			Tuple tup = it.next();
+			int key = ((IntField) tup.getField(0)).getValue();
+			assertTrue(key >= prev);
+			prev = key;
+			if (((IntField) tup.getField(1)).getValue() != 0)
+				continue;
+			assertTrue(key > min);
+			assertFalse("key " + key + " read twice", seen[key / 2]);
+			seen[key / 2] = true;
+			count++;
+		}
+		it.close();
+		assertEquals(stable - (min + 2) / 2, count);
+	}
+
+	/**
+	 * A scan running while other threads insert into and delete from the
+	 * B+ tree, splitting and merging its leaves, returns every tuple present
+	 * throughout the scan exactly once, in key order
+	 */
+	@Test(timeout = 120000)
+	public void scanDuringInsertsAndDeletes() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		final BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		Database.resetBufferPool(500);
+
+		// the stable tuples have even keys and 0 in their second field
+		final int stable = 2000;
+		for (int i = 0; i < stable; i++)
+			Database.getBufferPool().insertTuple(tid, empty.getId(), BTreeUtility.getBTreeTuple(new int[] { 2 * i, 0 }));
+
+		final int threads = 4, perThread = 1500, rounds = 4;
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		Thread[] workers = new Thread[threads];
+		for (int w = 0; w < threads; w++) {
+			final int seed = w;
+			workers[w] = new Thread() {
+				public void run() {
+					try {
+						Random rand = new Random(seed);
+						TransactionId wtid = new TransactionId();
+						for (int r = 0; r < rounds; r++) {
+							ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+							for (int i = 0; i < perThread; i++) {
+								Tuple t = BTreeUtility.getBTreeTuple(new int[] { 2 * rand.nextInt(stable) + 1, seed + 1 });
+								Database.getBufferPool().insertTuple(wtid, empty.getId(), t);
+								inserted.add(t);
+							}
+							for (Tuple t : inserted)
+								Database.getBufferPool().deleteTuple(wtid, t);
+						}
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			};
+			workers[w].start();
+		}
+
+		TransactionId rtid = new TransactionId();
+		int scans = 0;
+		boolean running = true;
+		while (running || scans < 2) {
+			running = false;
+			for (Thread w : workers)
+				running |= w.isAlive();
+			checkScan(empty.iterator(rtid), stable, -2);
+			checkScan(empty.indexIterator(rtid, new IndexPredicate(Op.GREATER_THAN, new IntField(2 * stable / 3))),
+					stable, 2 * stable / 3);
+			scans++;
+		}
+		for (Thread w : workers)
+			w.join();
+		Database.getBufferPool().transactionComplete(rtid);
+		assertEquals(Collections.<Exception>emptyList(), errors);
+		BTreeChecker.checkRep(empty, tid, new HashMap<PageId, Page>(), false);
+		checkScan(empty.iterator(tid), stable, -2);
+	}
+
 	/**
 	 * JUnit suite target
 	 */